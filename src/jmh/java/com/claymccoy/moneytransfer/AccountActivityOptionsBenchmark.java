@@ -0,0 +1,71 @@
+package com.claymccoy.moneytransfer;
+
+import io.temporal.activity.ActivityOptions;
+import io.temporal.activity.LocalActivityOptions;
+import io.temporal.common.RetryOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Allocation of the account activity options each MoneyTransferWorkflowImpl execution needs, built per execution
+// as the workflow used to or taken from the worker's shared AccountActivityOptions. Run with the GC profiler and
+// compare gc.alloc.rate.norm, the bytes allocated per execution:
+//   ./gradlew jmh -PjmhArgs='AccountActivityOptions -prof gc'
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AccountActivityOptionsBenchmark
+{
+    private static final String ACTIVITY_TASK_QUEUE = "activities";
+    private static final Duration LOCAL_ACTIVITY_TIMEOUT = Duration.ofSeconds(2);
+
+    private final AccountActivityOptions sharedOptions = new AccountActivityOptions(AccountActivityProperties.defaults());
+
+    // What every instantiation and replay of the workflow built before the options were shared
+    @Benchmark
+    public void perExecution(Blackhole blackhole)
+    {
+        final var retryOptions = RetryOptions.newBuilder()
+                .setInitialInterval(Duration.ofSeconds(1))
+                .setMaximumInterval(Duration.ofSeconds(20))
+                .setBackoffCoefficient(2)
+                .setMaximumAttempts(3)
+                .build();
+        final var defaultActivityOptions = ActivityOptions.newBuilder()
+                .setRetryOptions(retryOptions)
+                .setStartToCloseTimeout(Duration.ofSeconds(2))
+                .setScheduleToCloseTimeout(Duration.ofSeconds(5000))
+                .build();
+        final Map<String, ActivityOptions> perActivityMethodOptions = new HashMap<>();
+        perActivityMethodOptions.put("Withdraw", ActivityOptions.newBuilder().setHeartbeatTimeout(Duration.ofSeconds(5)).build());
+        blackhole.consume(perActivityMethodOptions);
+        blackhole.consume(ActivityOptions.newBuilder(defaultActivityOptions).setTaskQueue(ACTIVITY_TASK_QUEUE).build());
+        blackhole.consume(LocalActivityOptions.newBuilder()
+                .setStartToCloseTimeout(LOCAL_ACTIVITY_TIMEOUT)
+                .setRetryOptions(RetryOptions.newBuilder(retryOptions).setMaximumAttempts(2).build())
+                .build());
+    }
+
+    @Benchmark
+    public void shared(Blackhole blackhole)
+    {
+        blackhole.consume(sharedOptions.methodOptions());
+        blackhole.consume(sharedOptions.activityOptions(ACTIVITY_TASK_QUEUE));
+        blackhole.consume(sharedOptions.localActivityOptions(LOCAL_ACTIVITY_TIMEOUT, 2));
+    }
+}
@@ -0,0 +1,64 @@
+package com.claymccoy.moneytransfer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Throughput of account postings from many threads, with every posting on one account or spread across many
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+public class AccountBalancesBenchmark
+{
+    @Param({"1", "10000"})
+    public int accounts;
+
+    @Param({"1", "256"})
+    public int lockStripes;
+
+    private final AtomicLong referenceIds = new AtomicLong();
+    private String[] accountIds;
+    private AccountBalances balances;
+
+    @Setup
+    public void setUp()
+    {
+        balances = new AccountBalances(lockStripes, null);
+        accountIds = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountIds[i] = "account-" + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        balances.close();
+    }
+
+    @Benchmark
+    public boolean deposit()
+    {
+        final var accountId = accountIds[ThreadLocalRandom.current().nextInt(accounts)];
+        final var referenceId = Long.toString(referenceIds.incrementAndGet());
+        return balances.apply(new AccountJournal.AccountPosting(AccountJournal.Operation.DEPOSIT, accountId, referenceId, 1));
+    }
+}
@@ -0,0 +1,75 @@
+package com.claymccoy.moneytransfer;
+
+import io.temporal.client.WorkflowClient;
+import io.temporal.client.WorkflowOptions;
+import io.temporal.testing.TestWorkflowEnvironment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Latency of the getHistory query as the ledger grows
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LedgerHistoryQueryBenchmark
+{
+    private static final String TASK_QUEUE = "LEDGER_QUERY_BENCHMARK_TASK_QUEUE";
+    private static final int FILL_BATCH_SIZE = 500;
+
+    @Param({"100", "1000", "10000"})
+    public int historySize;
+
+    private TestWorkflowEnvironment testEnv;
+    private LedgerWorkflow ledger;
+
+    @Setup
+    public void setUp()
+    {
+        testEnv = TestWorkflowEnvironment.newInstance();
+        final var worker = testEnv.newWorker(TASK_QUEUE);
+        worker.registerWorkflowImplementationTypes(LedgerWorkflowImpl.class, NoOpMoneyTransferWorkflow.class);
+        testEnv.start();
+        ledger = testEnv.getWorkflowClient().newWorkflowStub(LedgerWorkflow.class, WorkflowOptions.newBuilder()
+                .setTaskQueue(TASK_QUEUE)
+                .setWorkflowId("ledger-query-benchmark")
+                .build());
+        // No event limit, so the whole history stays in one run
+        WorkflowClient.start(ledger::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 0));
+        for (int filled = 0; filled < historySize; filled += FILL_BATCH_SIZE) {
+            final var transactions = new ArrayList<LedgerWorkflow.TransactionDetails>();
+            for (int i = filled; i < Math.min(historySize, filled + FILL_BATCH_SIZE); i++) {
+                transactions.add(new LedgerWorkflow.TransactionDetails("account-" + i % 100, "account-" + (i + 1) % 100, i));
+            }
+            ledger.transferMoneyBatch(new LedgerWorkflow.TransferMoneyBatchInput(transactions));
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        testEnv.close();
+    }
+
+    @Benchmark
+    public List<LedgerWorkflow.LedgerRecord> getHistory()
+    {
+        return ledger.getHistory();
+    }
+}
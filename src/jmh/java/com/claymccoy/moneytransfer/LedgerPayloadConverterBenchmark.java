@@ -0,0 +1,78 @@
+package com.claymccoy.moneytransfer;
+
+import io.temporal.api.common.v1.Payload;
+import io.temporal.common.converter.DataConverter;
+import io.temporal.common.converter.DefaultDataConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+// CPU cost of writing and reading the continue-as-new StartInput with the standard JSON converter and with
+// LedgerPayloadConverter, with and without compression. Payload sizes are printed when each trial starts.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LedgerPayloadConverterBenchmark
+{
+    @Param({"json", "binary", "binary-deflate"})
+    public String converter;
+
+    @Param({"100", "1000", "10000"})
+    public int historySize;
+
+    private DataConverter dataConverter;
+    private LedgerWorkflow.StartInput startInput;
+    private Payload payload;
+
+    @Setup
+    public void setUp()
+    {
+        dataConverter = switch (converter) {
+            case "json" -> DefaultDataConverter.STANDARD_INSTANCE;
+            case "binary" -> LedgerPayloadConverter.newDataConverter(0);
+            case "binary-deflate" -> LedgerPayloadConverter.newDataConverter(1024);
+            default -> throw new IllegalArgumentException("Unknown converter " + converter);
+        };
+        final var history = new ArrayList<LedgerWorkflow.LedgerRecord>(historySize);
+        final var balances = new HashMap<String, Long>();
+        for (int i = 0; i < historySize; i++) {
+            final var transaction = new LedgerWorkflow.TransactionDetails("account-" + i % 100, "account-" + (i + 1) % 100, i);
+            history.add(new LedgerWorkflow.LedgerRecord(String.valueOf(i + 1), transaction));
+            balances.merge(transaction.sourceAccountId(), (long) -i, Long::sum);
+            balances.merge(transaction.destinationAccountId(), (long) i, Long::sum);
+        }
+        startInput = new LedgerWorkflow.StartInput(history, historySize + 1, new ArrayDeque<>(), LedgerWorkflow.DEFAULT_EVENT_LIMIT, "",
+                LedgerWorkflow.LedgerOptions.defaults(), new LedgerWorkflow.LedgerSummary(historySize, String.valueOf(historySize), balances),
+                null);
+        payload = dataConverter.toPayload(startInput).orElseThrow();
+        System.out.printf("%n%s StartInput with %d records: %d bytes%n", converter, historySize, payload.getSerializedSize());
+    }
+
+    @Benchmark
+    public Payload toPayload()
+    {
+        return dataConverter.toPayload(startInput).orElseThrow();
+    }
+
+    @Benchmark
+    public LedgerWorkflow.StartInput fromPayload()
+    {
+        return dataConverter.fromPayload(payload, LedgerWorkflow.StartInput.class, LedgerWorkflow.StartInput.class);
+    }
+}
@@ -0,0 +1,79 @@
+package com.claymccoy.moneytransfer;
+
+import io.temporal.client.WorkflowClient;
+import io.temporal.client.WorkflowOptions;
+import io.temporal.testing.TestWorkflowEnvironment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+// Update throughput of a single ledger, and how much continue-as-new at different event limits costs it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LedgerTransferBenchmark
+{
+    private static final String TASK_QUEUE = "LEDGER_BENCHMARK_TASK_QUEUE";
+    private static final LedgerWorkflow.TransactionDetails TRANSACTION = new LedgerWorkflow.TransactionDetails("123", "456", 42);
+
+    @Param({"3", "100", "1000"})
+    public int eventLimit;
+
+    @Param({"100"})
+    public int batchSize;
+
+    private TestWorkflowEnvironment testEnv;
+    private LedgerWorkflow ledger;
+    private LedgerWorkflow.TransferMoneyBatchInput batchInput;
+
+    @Setup
+    public void setUp()
+    {
+        testEnv = TestWorkflowEnvironment.newInstance();
+        final var worker = testEnv.newWorker(TASK_QUEUE);
+        worker.registerWorkflowImplementationTypes(LedgerWorkflowImpl.class, NoOpMoneyTransferWorkflow.class);
+        testEnv.start();
+        ledger = testEnv.getWorkflowClient().newWorkflowStub(LedgerWorkflow.class, WorkflowOptions.newBuilder()
+                .setTaskQueue(TASK_QUEUE)
+                .setWorkflowId("ledger-benchmark")
+                .build());
+        WorkflowClient.start(ledger::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), eventLimit));
+        batchInput = new LedgerWorkflow.TransferMoneyBatchInput(Collections.nCopies(batchSize, TRANSACTION));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        testEnv.close();
+    }
+
+    @Benchmark
+    public LedgerWorkflow.LedgerRecord transferMoney()
+    {
+        return ledger.transferMoney(new LedgerWorkflow.TransferMoneyInput(TRANSACTION));
+    }
+
+    // Score is batches per second; multiply by batchSize for transfers per second
+    @Benchmark
+    public LedgerWorkflow.TransferMoneyBatchResult transferMoneyBatch()
+    {
+        return ledger.transferMoneyBatch(batchInput);
+    }
+}
@@ -0,0 +1,75 @@
+package com.claymccoy.moneytransfer;
+
+import com.claymccoy.temporal.TemporalConfig;
+import com.uber.m3.tally.RootScopeBuilder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.temporal.common.reporter.MicrometerClientStatsReporter;
+import io.temporal.testing.TestEnvironmentOptions;
+import io.temporal.testing.TestWorkflowEnvironment;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.nio.file.Files;
+import java.util.HashMap;
+
+// Runs LoadGenerator against the in-process Temporal test server, with the service's real workflows, activities and
+// worker wiring, so no Temporal service is needed. Arguments are application properties as key=value pairs, e.g.
+//   load.target-rate=500 load.distribution=ZIPFIAN ledger.shards=4 accounts.simulate-deposit-failures=false
+// Run it with ./gradlew loadTest -PloadArgs='...'
+public final class LoadTest
+{
+    private static final String TASK_QUEUE = "LOAD_TEST_TASK_QUEUE";
+
+    private LoadTest()
+    {
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        final var properties = new HashMap<String, String>();
+        for (final var arg : args) {
+            final var separator = arg.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Expected key=value, was " + arg);
+            }
+            properties.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        final var binder = new Binder(new MapConfigurationPropertySource(properties));
+        final var loadProperties = binder.bindOrCreate("load", LoadProperties.class);
+        final var ledgerProperties = binder.bindOrCreate("ledger", LedgerProperties.class);
+        final var workerProperties = binder.bindOrCreate("worker", WorkerProperties.class);
+        final var accountProperties = binder.bindOrCreate("accounts", AccountProperties.class);
+        final var accountActivityProperties = binder.bindOrCreate("account-activity", AccountActivityProperties.class);
+
+        // The workflows' own metrics carry the transfer outcomes the report counts
+        final var meterRegistry = new SimpleMeterRegistry();
+        final var metricsScope = new RootScopeBuilder()
+                .reporter(new MicrometerClientStatsReporter(meterRegistry))
+                .reportEvery(com.uber.m3.util.Duration.ofMillis(100));
+        // Real time rather than skipped time, so rates and latencies mean what they say
+        try (var testEnv = TestWorkflowEnvironment.newInstance(TestEnvironmentOptions.newBuilder()
+                .setUseTimeskipping(false)
+                .setMetricsScope(metricsScope)
+                .build());
+                var accountBalances = new AccountBalances(accountProperties.lockStripes(), null)) {
+            final var temporalConfig = new TemporalConfig(testEnv.getWorkflowClient(), TASK_QUEUE);
+            final var accountActivity = new AccountActivityImpl(accountBalances, accountProperties.simulateDepositFailures());
+            final var ledgerArchive = new FileLedgerArchive(Files.createTempDirectory("load-test-archive"));
+            final var worker = new MoneyTransferWorker(temporalConfig, workerProperties, ledgerProperties, accountActivity, ledgerArchive,
+                    new AccountActivityOptions(accountActivityProperties));
+            worker.init();
+
+            final var ledgerService = new LedgerService(temporalConfig, ledgerProperties, workerProperties, meterRegistry);
+            try {
+                System.out.println("Generating load: " + loadProperties);
+                System.out.println(new LoadGenerator(ledgerService, meterRegistry).run(loadProperties).summary());
+            }
+            finally {
+                ledgerService.close();
+                worker.shutdown();
+                metricsScope.close();
+            }
+        }
+    }
+}
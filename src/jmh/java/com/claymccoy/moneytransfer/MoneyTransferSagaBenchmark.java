@@ -0,0 +1,67 @@
+package com.claymccoy.moneytransfer;
+
+import io.temporal.client.WorkflowOptions;
+import io.temporal.testing.TestWorkflowEnvironment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// End-to-end latency of one withdraw/deposit saga, with regular or local account activities
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MoneyTransferSagaBenchmark
+{
+    private static final String TASK_QUEUE = "SAGA_BENCHMARK_TASK_QUEUE";
+    private static final LedgerWorkflow.TransactionDetails TRANSACTION = new LedgerWorkflow.TransactionDetails("123", "456", 42);
+
+    @Param({"false", "true"})
+    public boolean localActivities;
+
+    private TestWorkflowEnvironment testEnv;
+    private MoneyTransferWorkflow.TransferOptions transferOptions;
+    private long nextTransferId;
+
+    @Setup
+    public void setUp()
+    {
+        testEnv = TestWorkflowEnvironment.newInstance();
+        final var worker = testEnv.newWorker(TASK_QUEUE);
+        worker.registerWorkflowImplementationTypes(MoneyTransferWorkflowImpl.class);
+        worker.registerActivitiesImplementations(new NoOpAccountActivity());
+        testEnv.start();
+        transferOptions = new MoneyTransferWorkflow.TransferOptions(localActivities, Duration.ofSeconds(2), 2, null);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        testEnv.close();
+    }
+
+    @Benchmark
+    public void transfer()
+    {
+        final var transferId = Long.toString(nextTransferId++);
+        final var workflow = testEnv.getWorkflowClient().newWorkflowStub(MoneyTransferWorkflow.class, WorkflowOptions.newBuilder()
+                .setTaskQueue(TASK_QUEUE)
+                .setWorkflowId("saga-benchmark " + transferId)
+                .build());
+        workflow.transfer(new MoneyTransferWorkflow.TransferInput(transferId, TRANSACTION, transferOptions));
+    }
+}
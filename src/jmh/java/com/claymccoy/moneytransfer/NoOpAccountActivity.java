@@ -0,0 +1,41 @@
+package com.claymccoy.moneytransfer;
+
+import java.util.List;
+
+// Always succeeds without doing any work, so saga benchmarks measure only Temporal overhead
+public class NoOpAccountActivity
+        implements AccountActivity
+{
+    @Override
+    public void withdraw(String accountId, String referenceId, int amount)
+    {
+    }
+
+    @Override
+    public void deposit(String accountId, String referenceId, int amount)
+    {
+    }
+
+    @Override
+    public void refund(String accountId, String referenceId, int amount)
+    {
+    }
+
+    @Override
+    public List<AccountLeg> withdrawBatch(List<AccountLeg> legs)
+    {
+        return List.of();
+    }
+
+    @Override
+    public List<AccountLeg> depositBatch(List<AccountLeg> legs)
+    {
+        return List.of();
+    }
+
+    @Override
+    public List<AccountLeg> refundBatch(List<AccountLeg> legs)
+    {
+        return List.of();
+    }
+}
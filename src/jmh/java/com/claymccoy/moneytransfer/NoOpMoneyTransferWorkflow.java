@@ -0,0 +1,11 @@
+package com.claymccoy.moneytransfer;
+
+// Stands in for the transfer saga so ledger benchmarks measure only the ledger workflow
+public class NoOpMoneyTransferWorkflow
+        implements MoneyTransferWorkflow
+{
+    @Override
+    public void transfer(TransferInput transferInput)
+    {
+    }
+}
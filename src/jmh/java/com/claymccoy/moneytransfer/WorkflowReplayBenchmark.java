@@ -0,0 +1,116 @@
+package com.claymccoy.moneytransfer;
+
+import io.temporal.client.WorkflowClient;
+import io.temporal.client.WorkflowOptions;
+import io.temporal.common.WorkflowExecutionHistory;
+import io.temporal.testing.TestWorkflowEnvironment;
+import io.temporal.testing.WorkflowReplayer;
+import io.temporal.worker.Worker;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+// What a sticky cache miss costs a ledger worker: replaying one run of a ledger that carried `records` records over
+// from the run before it and then recorded as many transfers of its own. The `events` counter gives the replay rate
+// in history events per second, and divided by the `replay` score the events in the run; with the GC profiler,
+// divide gc.alloc.rate.norm by that event count for the bytes allocated per event:
+//   ./gradlew jmh -PjmhArgs='WorkflowReplay -prof gc'
+// WorkflowReplayTest gates the same measurement in the build.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WorkflowReplayBenchmark
+{
+    private static final String TASK_QUEUE = "REPLAY_BENCHMARK_TASK_QUEUE";
+    // No rollover limits, so the whole run being measured stays in one execution
+    private static final LedgerWorkflow.LedgerOptions SINGLE_RUN = new LedgerWorkflow.LedgerOptions(0, 1, LedgerWorkflow.RolloverOptions.none(),
+            MoneyTransferWorkflow.TransferOptions.defaults(), null, null, 0, 0, null, null, 0);
+
+    @Param({"10", "100", "1000"})
+    public int records;
+
+    private TestWorkflowEnvironment replayEnv;
+    private Worker replayWorker;
+    private WorkflowExecutionHistory history;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class ReplayedEvents
+    {
+        public long events;
+    }
+
+    @Setup
+    public void setUp()
+            throws InterruptedException
+    {
+        try (var testEnv = TestWorkflowEnvironment.newInstance()) {
+            final var worker = testEnv.newWorker(TASK_QUEUE);
+            worker.registerWorkflowImplementationTypes(LedgerWorkflowImpl.class, NoOpMoneyTransferWorkflow.class);
+            testEnv.start();
+            history = recordLedgerRun(testEnv.getWorkflowClient());
+        }
+        // Never started, so no pollers run beside the replays
+        replayEnv = TestWorkflowEnvironment.newInstance();
+        replayWorker = replayEnv.newWorker(TASK_QUEUE);
+        replayWorker.registerWorkflowImplementationTypes(LedgerWorkflowImpl.class);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        replayEnv.close();
+    }
+
+    @Benchmark
+    public void replay(ReplayedEvents replayedEvents)
+            throws Exception
+    {
+        WorkflowReplayer.replayWorkflowExecution(history, replayWorker);
+        replayedEvents.events += history.getEvents().size();
+    }
+
+    private WorkflowExecutionHistory recordLedgerRun(WorkflowClient client)
+            throws InterruptedException
+    {
+        final var workflowId = "replay-ledger";
+        final var ledger = client.newWorkflowStub(LedgerWorkflow.class, WorkflowOptions.newBuilder()
+                .setTaskQueue(TASK_QUEUE)
+                .setWorkflowId(workflowId)
+                .build());
+        final var carried = new ArrayList<>(IntStream.rangeClosed(1, records)
+                .mapToObj(id -> new LedgerWorkflow.LedgerRecord(String.valueOf(id), transaction(id)))
+                .toList());
+        WorkflowClient.start(ledger::start, new LedgerWorkflow.StartInput(carried, records + 1, new ArrayDeque<>(), 0, null, SINGLE_RUN, null, null));
+        for (int id = records + 1; id <= records * 2; id++) {
+            ledger.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction(id)));
+        }
+        while (ledger.getQueueDepth() > 0) {
+            Thread.sleep(10);
+        }
+        return client.fetchHistory(workflowId);
+    }
+
+    private static LedgerWorkflow.TransactionDetails transaction(int id)
+    {
+        return new LedgerWorkflow.TransactionDetails("source-" + id % 50, "destination-" + id % 70, id % 100 + 1);
+    }
+}
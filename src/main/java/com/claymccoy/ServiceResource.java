@@ -1,29 +1,53 @@
 package com.claymccoy;
 
+import com.claymccoy.moneytransfer.InvalidLedgerRequestException;
+import com.claymccoy.moneytransfer.LedgerBusyException;
 import com.claymccoy.moneytransfer.LedgerService;
 import com.claymccoy.moneytransfer.LedgerWorkflow;
+import com.claymccoy.moneytransfer.LedgersStartingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.temporal.client.WorkflowUpdateStage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/v1/service")
 public class ServiceResource
 {
     private static final Logger LOG = LoggerFactory.getLogger(ServiceResource.class);
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
 
     private final LedgerService ledgerService;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public ServiceResource(LedgerService transferService)
+    public ServiceResource(LedgerService transferService, ObjectMapper objectMapper)
     {
         this.ledgerService = transferService;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping(value = "/transfer", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -34,9 +58,145 @@ public class ServiceResource
         return ledgerService.transfer(transactionDetails);
     }
 
+    // The servlet thread is released while the update is in flight and the response is written once the ledger has recorded it.
+    // A retry carrying the same Idempotency-Key is answered with the original record rather than moving the money again.
+    // priority picks the ledger's dispatch lane when priority lanes are enabled, otherwise the amount decides.
+    @PostMapping(value = "/transfer", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<LedgerWorkflow.LedgerRecord> transfer(@RequestBody LedgerWorkflow.TransactionDetails transactionDetails,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestParam(name = "priority", required = false) LedgerWorkflow.TransferPriority priority)
+    {
+        LOG.info("Initiating transfer of {}.", transactionDetails);
+        return ledgerService.transferAsync(transactionDetails, idempotencyKey, priority);
+    }
+
+    // Answers 202 once the ledger has reached the requested stage for the transfer, pointing at where its record can be polled.
+    // wait is ACCEPTED or COMPLETED; ADMITTED is answered with 400.
+    @PostMapping(value = "/transfer/async", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<LedgerService.TransferTicket>> startTransfer(@RequestBody LedgerWorkflow.TransactionDetails transactionDetails,
+            @RequestParam(name = "wait", defaultValue = "ACCEPTED") WorkflowUpdateStage waitStage,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestParam(name = "priority", required = false) LedgerWorkflow.TransferPriority priority)
+    {
+        LOG.info("Starting transfer of {}.", transactionDetails);
+        // Resolved up front, the request context is not available on the thread completing the future
+        final var statusUri = ServletUriComponentsBuilder.fromCurrentContextPath().path("/v1/service/transfer/{ledgerId}/{runId}/{updateId}");
+        return ledgerService.startTransfer(transactionDetails, idempotencyKey, priority, waitStage)
+                .thenApply(ticket -> ResponseEntity.accepted()
+                        .location(statusUri.buildAndExpand(ticket.ledgerId(), ticket.runId(), ticket.updateId()).toUri())
+                        .body(ticket));
+    }
+
+    // 200 with the ledger record once the transfer has been recorded, 202 while it is still pending
+    @GetMapping(value = "/transfer/{ledgerId}/{runId}/{updateId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<LedgerWorkflow.LedgerRecord>> getTransfer(@PathVariable String ledgerId, @PathVariable String runId,
+            @PathVariable String updateId)
+    {
+        return ledgerService.getTransferResult(new LedgerService.TransferTicket(ledgerId, runId, updateId))
+                .thenApply(ledgerRecord -> ledgerRecord
+                        .map(ResponseEntity::ok)
+                        .orElseGet(() -> ResponseEntity.accepted().build()));
+    }
+
+    @PostMapping(value = "/transfer/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<LedgerWorkflow.LedgerRecord> transferBatch(@RequestBody List<LedgerWorkflow.TransactionDetails> transactions)
+    {
+        LOG.info("Initiating batch of {} transfers.", transactions.size());
+        return ledgerService.transferBatch(transactions);
+    }
+
     @GetMapping(value = "/history", produces = MediaType.APPLICATION_JSON_VALUE)
     public List<LedgerWorkflow.LedgerRecord> getHistory()
     {
         return ledgerService.getHistory();
     }
+
+    // Streams the history as one JSON record per line while paging through the ledgers, so neither the workers nor
+    // this service hold more than a page of it. If the stream is cut short, pass the id of the last record received
+    // as `after` to carry on from there; an `after` that is not a record id is answered with 400. Gzipped when the
+    // client accepts it.
+    @GetMapping(value = "/history/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportHistory(@RequestParam(name = "after", required = false) String afterId,
+            @RequestParam(name = "accountId", required = false) String accountId,
+            @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+    {
+        final var records = ledgerService.exportHistory(afterId, accountId);
+        final var gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        final StreamingResponseBody body = responseBody -> {
+            // forEach rather than an iterator, which would buffer a whole shard's records at a time
+            try (records; OutputStream out = gzip ? new GZIPOutputStream(responseBody) : responseBody) {
+                records.forEach(ledgerRecord -> {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(ledgerRecord));
+                        out.write('\n');
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+        final var response = ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip").header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        return response.body(body);
+    }
+
+    @GetMapping(value = "/accounts/{accountId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public LedgerWorkflow.AccountHistory getAccountHistory(@PathVariable String accountId)
+    {
+        return ledgerService.getAccountHistory(accountId);
+    }
+
+    @GetMapping(value = "/accounts/{accountId}/balance", produces = MediaType.APPLICATION_JSON_VALUE)
+    public long getBalance(@PathVariable String accountId)
+    {
+        return ledgerService.getBalance(accountId);
+    }
+
+    // Records accepted across all ledgers but not yet dispatched, for callers pacing themselves
+    @GetMapping(value = "/ledger/queue-depth", produces = MediaType.APPLICATION_JSON_VALUE)
+    public long getQueueDepth()
+    {
+        return ledgerService.getQueueDepth();
+    }
+
+    // Nothing was recorded, so the caller can safely retry after backing off
+    @ExceptionHandler(LedgerBusyException.class)
+    public ResponseEntity<String> ledgerBusy(LedgerBusyException e)
+    {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(e.getMessage());
+    }
+
+    // Only until the ledgers are running, which the readiness probe reports
+    @ExceptionHandler(LedgersStartingException.class)
+    public ResponseEntity<String> ledgersStarting(LedgersStartingException e)
+    {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(e.getMessage());
+    }
+
+    // Retrying the same request will not help
+    @ExceptionHandler(InvalidLedgerRequestException.class)
+    public ResponseEntity<String> invalidRequest(InvalidLedgerRequestException e)
+    {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+
+    // Pass the returned cursor back to receive only the records recorded since the previous page; a cursor this
+    // service did not issue is answered with 400
+    @GetMapping(value = "/history/page", produces = MediaType.APPLICATION_JSON_VALUE)
+    public LedgerWorkflow.HistoryPage getHistoryPage(@RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "limit", defaultValue = "0") int limit,
+            @RequestParam(name = "accountId", required = false) String accountId)
+    {
+        return ledgerService.getHistoryPage(cursor, limit, accountId);
+    }
 }
@@ -3,6 +3,8 @@ package com.claymccoy.moneytransfer;
 import io.temporal.activity.ActivityInterface;
 import io.temporal.activity.ActivityMethod;
 
+import java.util.List;
+
 @ActivityInterface
 public interface AccountActivity
 {
@@ -17,4 +19,18 @@ public interface AccountActivity
     // Compensate a failed deposit by refunding to the original account
     @ActivityMethod
     void refund(String accountId, String referenceId, int amount);
+
+    // Bulk forms of the operations above for SettlementWorkflow. Every leg is applied on its own, so one failing leg
+    // does not hold back the rest, and the legs that failed are returned. A whole call can be retried, so applying
+    // a leg twice under the same referenceId must be harmless.
+    @ActivityMethod
+    List<AccountLeg> withdrawBatch(List<AccountLeg> legs);
+
+    @ActivityMethod
+    List<AccountLeg> depositBatch(List<AccountLeg> legs);
+
+    @ActivityMethod
+    List<AccountLeg> refundBatch(List<AccountLeg> legs);
+
+    record AccountLeg(String accountId, String referenceId, int amount) {}
 }
@@ -4,39 +4,108 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import io.temporal.activity.Activity;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
 public class AccountActivityImpl
         implements AccountActivity
 {
     private static final Logger LOG = LoggerFactory.getLogger(AccountActivityImpl.class);
 
-    // Mock up the withdrawal of an amount of money from the source account
+    private final AccountBalances balances;
+    private final boolean simulateDepositFailures;
+
+    // simulateDepositFailures: fail every deposit, so each transfer exercises its compensating refund
+    public AccountActivityImpl(AccountBalances balances, boolean simulateDepositFailures)
+    {
+        this.balances = balances;
+        this.simulateDepositFailures = simulateDepositFailures;
+    }
+
+    // Withdraw an amount of money from the source account
     @Override
     public void withdraw(String accountId, String referenceId, int amount)
     {
         LOG.info("Withdrawing $%d from account %s.\n[ReferenceId: %s]\n", amount, accountId, referenceId);
+        post(AccountJournal.Operation.WITHDRAW, accountId, referenceId, amount);
     }
 
-    // Mock up the deposit of an amount of money from the destination account
+    // Deposit an amount of money into the destination account
     @Override
     public void deposit(String accountId, String referenceId, int amount)
     {
-        boolean activityShouldSucceed = false;
-        if (!activityShouldSucceed) {
+        if (simulateDepositFailures) {
             LOG.info("Deposit failed");
-            throw Activity.wrap(new RuntimeException("Simulated Activity error during deposit of funds"));
+            recordOperation("deposit", "failed");
+            throw new AccountOperationRejectedException("Simulated Activity error during deposit of funds");
         }
         LOG.info("Depositing $%d into account %s.\n[ReferenceId: %s]\n", amount, accountId, referenceId);
+        post(AccountJournal.Operation.DEPOSIT, accountId, referenceId, amount);
     }
 
-    // Mock up a compensation refund to the source account
+    // Compensate a withdrawal by refunding the source account
     @Override
     public void refund(String accountId, String referenceId, int amount)
     {
         boolean activityShouldSucceed = true;
         if (!activityShouldSucceed) {
             LOG.info("Refund failed");
-            throw Activity.wrap(new RuntimeException("Simulated Activity error during refund to source account"));
+            recordOperation("refund", "failed");
+            throw new AccountOperationRejectedException("Simulated Activity error during refund to source account");
         }
         LOG.info("Refunding $%d to account %s.\n[ReferenceId: %s]\n", amount, accountId, referenceId);
+        post(AccountJournal.Operation.REFUND, accountId, referenceId, amount);
+    }
+
+    @Override
+    public List<AccountLeg> withdrawBatch(List<AccountLeg> legs)
+    {
+        return failedLegs(legs, leg -> withdraw(leg.accountId(), leg.referenceId(), leg.amount()));
+    }
+
+    @Override
+    public List<AccountLeg> depositBatch(List<AccountLeg> legs)
+    {
+        return failedLegs(legs, leg -> deposit(leg.accountId(), leg.referenceId(), leg.amount()));
+    }
+
+    @Override
+    public List<AccountLeg> refundBatch(List<AccountLeg> legs)
+    {
+        return failedLegs(legs, leg -> refund(leg.accountId(), leg.referenceId(), leg.amount()));
+    }
+
+    // Only a rejected leg counts as failed. Anything else fails the call, and the legs already applied are skipped as
+    // duplicates when Temporal retries it.
+    private static List<AccountLeg> failedLegs(List<AccountLeg> legs, Consumer<AccountLeg> operation)
+    {
+        final var failed = new ArrayList<AccountLeg>();
+        for (final var leg : legs) {
+            try {
+                operation.accept(leg);
+            }
+            catch (AccountOperationRejectedException e) {
+                failed.add(leg);
+            }
+        }
+        return failed;
+    }
+
+    // A retried activity carries the same referenceId, so its posting is applied only once
+    private void post(AccountJournal.Operation operation, String accountId, String referenceId, int amount)
+    {
+        final var applied = balances.apply(new AccountJournal.AccountPosting(operation, accountId, referenceId, amount));
+        recordOperation(operation.name().toLowerCase(), applied ? "succeeded" : "duplicate");
+    }
+
+    // The activity's metrics scope already carries the worker's namespace, task queue and activity type tags
+    private static void recordOperation(String operation, String outcome)
+    {
+        Activity.getExecutionContext().getMetricsScope()
+                .tagged(Map.of("operation", operation, "outcome", outcome))
+                .counter("account.operations")
+                .inc(1);
     }
 }
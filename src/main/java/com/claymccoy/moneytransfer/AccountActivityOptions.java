@@ -0,0 +1,107 @@
+package com.claymccoy.moneytransfer;
+
+import com.google.common.collect.ImmutableMap;
+import io.temporal.activity.ActivityOptions;
+import io.temporal.activity.LocalActivityOptions;
+import io.temporal.common.RetryOptions;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Account activity options shared by every MoneyTransferWorkflowImpl and SettlementWorkflowImpl on a worker. They are
+// built once from AccountActivityProperties rather than on each workflow instantiation and replay. The variants
+// transfers ask for, one per activity task queue and per local activity limits, are built the first time and reused
+// after that; both come from a handful of configured values, so these caches stay small.
+public final class AccountActivityOptions
+{
+    public static final AccountActivityOptions DEFAULTS = new AccountActivityOptions(AccountActivityProperties.defaults());
+
+    private final RetryOptions retryOptions;
+    private final ActivityOptions defaultOptions;
+    private final Map<String, ActivityOptions> methodOptions;
+    private final ConcurrentHashMap<String, ActivityOptions> optionsByTaskQueue = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<LocalLimits, LocalActivityOptions> localOptionsByLimits = new ConcurrentHashMap<>();
+
+    private record LocalLimits(Duration timeout, int maximumAttempts) {}
+
+    public AccountActivityOptions(AccountActivityProperties properties)
+    {
+        retryOptions = RetryOptions.newBuilder()
+                .setInitialInterval(properties.retryInitialInterval())
+                .setMaximumInterval(properties.retryMaximumInterval())
+                .setBackoffCoefficient(properties.retryBackoffCoefficient())
+                .setMaximumAttempts(properties.retryMaximumAttempts())
+                .build();
+        defaultOptions = ActivityOptions.newBuilder()
+                .setRetryOptions(retryOptions)
+                .setStartToCloseTimeout(properties.startToCloseTimeout())
+                .setScheduleToCloseTimeout(properties.scheduleToCloseTimeout())
+                .build();
+        final var methods = ImmutableMap.<String, ActivityOptions>builder();
+        properties.methods().forEach((method, methodProperties) -> methods.put(activityType(method), methodOptions(methodProperties)));
+        methodOptions = methods.buildOrThrow();
+    }
+
+    // activityTaskQueue: null schedules activities on the workflow's own task queue
+    public ActivityOptions activityOptions(String activityTaskQueue)
+    {
+        return optionsByTaskQueue.computeIfAbsent(activityTaskQueue == null ? "" : activityTaskQueue, queue -> ActivityOptions.newBuilder(defaultOptions)
+                .setTaskQueue(queue.isEmpty() ? null : queue)
+                .build());
+    }
+
+    // Keyed by activity type, and merged over activityOptions by the activity stub
+    public Map<String, ActivityOptions> methodOptions()
+    {
+        return methodOptions;
+    }
+
+    // The retry policy of the activity type: the common one, with the type's own attempts where they are configured
+    public RetryOptions retryOptions(String activityType)
+    {
+        final var options = methodOptions.get(activityType);
+        return options != null && options.getRetryOptions() != null ? options.getRetryOptions() : retryOptions;
+    }
+
+    // The regular retry policy, with the number of attempts a local activity gets before falling back to a regular one
+    public LocalActivityOptions localActivityOptions(Duration timeout, int maximumAttempts)
+    {
+        return localOptionsByLimits.computeIfAbsent(new LocalLimits(timeout, maximumAttempts), limits -> LocalActivityOptions.newBuilder()
+                .setStartToCloseTimeout(limits.timeout())
+                .setRetryOptions(RetryOptions.newBuilder(retryOptions)
+                        .setMaximumAttempts(limits.maximumAttempts())
+                        .build())
+                .build());
+    }
+
+    private ActivityOptions methodOptions(AccountActivityProperties.MethodProperties properties)
+    {
+        final var options = ActivityOptions.newBuilder();
+        if (properties.startToCloseTimeout() != null) {
+            options.setStartToCloseTimeout(properties.startToCloseTimeout());
+        }
+        if (properties.heartbeatTimeout() != null) {
+            options.setHeartbeatTimeout(properties.heartbeatTimeout());
+        }
+        if (properties.retryMaximumAttempts() != null) {
+            options.setRetryOptions(RetryOptions.newBuilder(retryOptions)
+                    .setMaximumAttempts(properties.retryMaximumAttempts())
+                    .build());
+        }
+        return options.build();
+    }
+
+    // Temporal names an activity after its method with the first letter capitalized; property keys may also be
+    // written in kebab case, so withdraw-batch and withdrawBatch both name WithdrawBatch
+    static String activityType(String method)
+    {
+        final var activityType = new StringBuilder(method.length());
+        for (final var part : method.split("-")) {
+            if (!part.isEmpty()) {
+                activityType.append(Character.toUpperCase(part.charAt(0))).append(part, 1, part.length());
+            }
+        }
+        return activityType.toString();
+    }
+}
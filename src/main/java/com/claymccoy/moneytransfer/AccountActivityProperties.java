@@ -0,0 +1,40 @@
+package com.claymccoy.moneytransfer;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
+
+// Options for the account activities MoneyTransferWorkflowImpl and SettlementWorkflowImpl schedule, bound from the
+// `account-activity.*` application properties. They are read when the worker starts, so changing them needs a restart
+// but no new build.
+@ConfigurationProperties(prefix = "account-activity")
+public record AccountActivityProperties(
+        // Backoff between attempts of a failed activity, and how many attempts it gets
+        @DefaultValue("1s") Duration retryInitialInterval,
+        @DefaultValue("20s") Duration retryMaximumInterval,
+        @DefaultValue("2") double retryBackoffCoefficient,
+        @DefaultValue("3") int retryMaximumAttempts,
+        // Longest a single attempt may run, and the whole activity including time spent queued
+        @DefaultValue("2s") Duration startToCloseTimeout,
+        @DefaultValue("5000s") Duration scheduleToCloseTimeout,
+        // Overrides for single activity methods, keyed by method name, e.g. account-activity.methods.withdraw.heartbeat-timeout
+        @DefaultValue Map<String, MethodProperties> methods)
+{
+    // Withdraw gets a heartbeat timeout as a proof-of-life check; it finishes well within it without heartbeating.
+    // The batch methods SettlementWorkflowImpl calls carry up to SettlementWorkflow.MAX_LEGS_PER_CALL legs each.
+    public static AccountActivityProperties defaults()
+    {
+        final var batchCall = new MethodProperties(Duration.ofSeconds(30), null, null);
+        return new AccountActivityProperties(Duration.ofSeconds(1), Duration.ofSeconds(20), 2, 3, Duration.ofSeconds(2),
+                Duration.ofSeconds(5000), Map.of(
+                        "withdraw", new MethodProperties(null, Duration.ofSeconds(5), null),
+                        "withdraw-batch", batchCall,
+                        "deposit-batch", batchCall,
+                        "refund-batch", batchCall));
+    }
+
+    // Any option left unset falls back to the ones above
+    public record MethodProperties(Duration startToCloseTimeout, Duration heartbeatTimeout, Integer retryMaximumAttempts) {}
+}
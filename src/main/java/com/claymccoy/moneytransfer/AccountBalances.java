@@ -0,0 +1,149 @@
+package com.claymccoy.moneytransfer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Account balances held in memory and safe to update from many activities at once.
+// Each account id is given an int slot the first time it is seen, and its balance lives in pages of plain long arrays
+// indexed by that slot. A fixed set of lock stripes guards the accounts, so operations on different accounts rarely
+// wait for each other. Each stripe also remembers the (operation, referenceId) pairs its accounts have applied, which
+// makes a retried activity a no-op; that memory grows by one entry per posting for the life of the process.
+public class AccountBalances
+        implements AutoCloseable
+{
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final AccountJournal journal;
+    private final ReentrantLock[] locks;
+    private final List<Set<AppliedPosting>> appliedPostings;
+    private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<>();
+    // Only changed by allocateSlot. A slot is published through the slots map after its page exists, so any thread
+    // holding a slot sees the page without locking; growing copies the page references, never the pages themselves.
+    private volatile long[][] pages = new long[16][];
+    private int nextSlot;
+    private final LongAdder contendedLocks = new LongAdder();
+
+    private record AppliedPosting(int slot, AccountJournal.Operation operation, String referenceId) {}
+
+    // journal: postings are written to it before they take effect and replayed from it here; null keeps balances in memory only
+    public AccountBalances(int lockStripes, AccountJournal journal)
+    {
+        if (lockStripes < 1) {
+            throw new IllegalArgumentException("Account lock stripes must be at least 1, was " + lockStripes);
+        }
+        this.journal = journal;
+        locks = new ReentrantLock[lockStripes];
+        appliedPostings = new ArrayList<>(lockStripes);
+        for (int stripe = 0; stripe < lockStripes; stripe++) {
+            locks[stripe] = new ReentrantLock();
+            appliedPostings.add(new HashSet<>());
+        }
+        if (journal != null) {
+            journal.replay(posting -> apply(posting, false));
+        }
+    }
+
+    // Applies the posting unless the same operation has already been applied to the account under its referenceId,
+    // and reports whether it was applied. Withdrawals may take a balance below zero, as the ledger's own balances do.
+    public boolean apply(AccountJournal.AccountPosting posting)
+    {
+        return apply(posting, true);
+    }
+
+    // 0 for an account that has never had a posting
+    public long balance(String accountId)
+    {
+        final var slot = slots.get(accountId);
+        if (slot == null) {
+            return 0;
+        }
+        final var lock = lockFor(slot);
+        try {
+            return page(slot)[slot & (PAGE_SIZE - 1)];
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int accountCount()
+    {
+        return slots.size();
+    }
+
+    // How many times an operation had to wait for another to release its account's stripe
+    public long contendedLocks()
+    {
+        return contendedLocks.sum();
+    }
+
+    @Override
+    public void close()
+    {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private boolean apply(AccountJournal.AccountPosting posting, boolean journaled)
+    {
+        final int slot = slots.computeIfAbsent(posting.accountId(), accountId -> allocateSlot());
+        final var applied = appliedPostings.get(slot % locks.length);
+        final var key = new AppliedPosting(slot, posting.operation(), posting.referenceId());
+        final var lock = lockFor(slot);
+        try {
+            if (applied.contains(key)) {
+                return false;
+            }
+            // Journal first, so a posting is never visible in a balance that could not be rebuilt after a restart
+            if (journaled && journal != null) {
+                journal.append(posting);
+            }
+            final var delta = posting.operation() == AccountJournal.Operation.WITHDRAW ? -(long) posting.amount() : posting.amount();
+            page(slot)[slot & (PAGE_SIZE - 1)] += delta;
+            applied.add(key);
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the stripe's lock already held
+    private ReentrantLock lockFor(int slot)
+    {
+        final var lock = locks[slot % locks.length];
+        if (!lock.tryLock()) {
+            contendedLocks.increment();
+            lock.lock();
+        }
+        return lock;
+    }
+
+    private long[] page(int slot)
+    {
+        return pages[slot >>> PAGE_BITS];
+    }
+
+    private synchronized int allocateSlot()
+    {
+        final var slot = nextSlot++;
+        final var page = slot >>> PAGE_BITS;
+        var grown = pages;
+        if (page >= grown.length) {
+            grown = Arrays.copyOf(grown, grown.length * 2);
+        }
+        if (grown[page] == null) {
+            grown[page] = new long[PAGE_SIZE];
+        }
+        pages = grown;
+        return slot;
+    }
+}
@@ -0,0 +1,24 @@
+package com.claymccoy.moneytransfer;
+
+import java.util.function.Consumer;
+
+// Durable log of the postings AccountBalances has applied, replayed to rebuild balances after a restart
+public interface AccountJournal
+        extends AutoCloseable
+{
+    // Called before the posting takes effect, once for each posting AccountBalances applies
+    void append(AccountPosting posting);
+
+    // Hands every posting appended so far to the consumer, oldest first
+    void replay(Consumer<AccountPosting> consumer);
+
+    @Override
+    void close();
+
+    enum Operation
+    {
+        WITHDRAW, DEPOSIT, REFUND
+    }
+
+    record AccountPosting(Operation operation, String accountId, String referenceId, int amount) {}
+}
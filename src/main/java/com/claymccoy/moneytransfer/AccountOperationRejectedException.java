@@ -0,0 +1,15 @@
+package com.claymccoy.moneytransfer;
+
+// The account turned the operation down, as the simulated failing deposits and refunds do. It is the business outcome
+// of that one leg: bulk activities report the leg as failed and go on with the rest, while any other exception, such
+// as a journal write failing, fails the whole call so Temporal retries it.
+public class AccountOperationRejectedException
+        extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    public AccountOperationRejectedException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,16 @@
+package com.claymccoy.moneytransfer;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+// Account balances behind AccountActivityImpl, bound from the `accounts.*` application properties
+@ConfigurationProperties(prefix = "accounts")
+public record AccountProperties(
+        // Locks the accounts are spread across; more stripes mean fewer operations waiting on unrelated accounts
+        @DefaultValue("256") int lockStripes,
+        // File postings are journaled to and replayed from at startup; blank keeps balances in memory only
+        @DefaultValue("") String journalFile,
+        // Fail every deposit, so each transfer exercises its compensating refund
+        @DefaultValue("true") boolean simulateDepositFailures)
+{
+}
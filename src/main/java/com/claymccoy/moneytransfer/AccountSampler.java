@@ -0,0 +1,77 @@
+package com.claymccoy.moneytransfer;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Picks account ids for generated transfers, either evenly or Zipfian so that a few hot accounts take most of the
+// traffic as they do in production. Account ids are "account-<rank>", rank 0 being the hottest.
+public class AccountSampler
+{
+    public enum Distribution
+    {
+        UNIFORM, ZIPFIAN
+    }
+
+    private final int accounts;
+    // Cumulative probability of each rank, null for the uniform distribution
+    private final double[] cumulative;
+
+    private AccountSampler(int accounts, double[] cumulative)
+    {
+        if (accounts < 1) {
+            throw new IllegalArgumentException("At least one account is needed, was " + accounts);
+        }
+        this.accounts = accounts;
+        this.cumulative = cumulative;
+    }
+
+    public static AccountSampler of(Distribution distribution, int accounts, double zipfExponent)
+    {
+        return distribution == Distribution.ZIPFIAN ? zipfian(accounts, zipfExponent) : uniform(accounts);
+    }
+
+    public static AccountSampler uniform(int accounts)
+    {
+        return new AccountSampler(accounts, null);
+    }
+
+    // The account of rank k is picked with probability proportional to 1 / (k + 1)^exponent
+    public static AccountSampler zipfian(int accounts, double exponent)
+    {
+        final var cumulative = new double[Math.max(accounts, 0)];
+        var total = 0.0;
+        for (int rank = 0; rank < cumulative.length; rank++) {
+            total += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < cumulative.length; rank++) {
+            cumulative[rank] /= total;
+        }
+        return new AccountSampler(accounts, cumulative);
+    }
+
+    public int nextRank(SplittableRandom random)
+    {
+        if (cumulative == null) {
+            return random.nextInt(accounts);
+        }
+        final var position = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(position >= 0 ? position : -position - 1, accounts - 1);
+    }
+
+    // Source and destination differ whenever there is more than one account
+    public LedgerWorkflow.TransactionDetails nextTransaction(SplittableRandom random, int maxAmount)
+    {
+        final var source = nextRank(random);
+        var destination = nextRank(random);
+        while (destination == source && accounts > 1) {
+            destination = nextRank(random);
+        }
+        return new LedgerWorkflow.TransactionDetails(accountId(source), accountId(destination), 1 + random.nextInt(maxAmount));
+    }
+
+    public static String accountId(int rank)
+    {
+        return "account-" + rank;
+    }
+}
@@ -0,0 +1,82 @@
+package com.claymccoy.moneytransfer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+// Keeps postings as one JSON document per line in a single file. Each append is flushed to the operating system
+// but not forced to disk, so a crash of the process loses nothing while a crash of the machine may lose the tail.
+public class FileAccountJournal
+        implements AccountJournal
+{
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path file;
+    private BufferedWriter writer;
+
+    public FileAccountJournal(Path file)
+    {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void append(AccountPosting posting)
+    {
+        try {
+            if (writer == null) {
+                if (file.getParent() != null) {
+                    Files.createDirectories(file.getParent());
+                }
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(objectMapper.writeValueAsString(posting));
+            writer.newLine();
+            writer.flush();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to journal account posting " + posting.referenceId(), e);
+        }
+    }
+
+    @Override
+    public synchronized void replay(Consumer<AccountPosting> consumer)
+    {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (var lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            lines.filter(line -> !line.isBlank()).forEach(line -> {
+                try {
+                    consumer.accept(objectMapper.readValue(line, AccountPosting.class));
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException("Failed to read account journal " + file, e);
+                }
+            });
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to read account journal " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+            writer = null;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to close account journal " + file, e);
+        }
+    }
+}
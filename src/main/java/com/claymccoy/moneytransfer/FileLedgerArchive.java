@@ -0,0 +1,165 @@
+package com.claymccoy.moneytransfer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keeps each ledger's archived records as one JSON document per line in <directory>/<ledgerId>.ndjson
+public class FileLedgerArchive
+        implements LedgerArchive
+{
+    private static final int TAIL_CHUNK_BYTES = 4096;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path directory;
+    // Sequence number of the last record in each ledger's file, read from its tail the first time it is appended to
+    private final Map<String, Long> lastArchivedSequences = new HashMap<>();
+
+    public FileLedgerArchive(Path directory)
+    {
+        this.directory = directory;
+    }
+
+    // An activity retry re-delivers a batch that may already have been written, in full or in part. Record ids count
+    // up within a ledger, so only the records after the last one in the file are written.
+    @Override
+    public synchronized void append(String ledgerId, List<LedgerWorkflow.LedgerRecord> records)
+    {
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            var lastSequence = lastArchivedSequences.get(ledgerId);
+            if (lastSequence == null) {
+                lastSequence = lastArchivedSequence(ledgerId);
+            }
+            final var lines = new StringBuilder();
+            for (final var record : records) {
+                final var sequence = sequenceOf(record.id());
+                if (sequence > lastSequence) {
+                    lines.append(toJson(record)).append('\n');
+                    lastSequence = sequence;
+                }
+            }
+            if (!lines.isEmpty()) {
+                Files.createDirectories(directory);
+                Files.writeString(fileFor(ledgerId), lines, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            lastArchivedSequences.put(ledgerId, lastSequence);
+        }
+        catch (IOException e) {
+            // Part of the batch may have reached the file, so the retry reads its tail again
+            lastArchivedSequences.remove(ledgerId);
+            throw new UncheckedIOException("Failed to archive ledger records for " + ledgerId, e);
+        }
+    }
+
+    @Override
+    public synchronized List<LedgerWorkflow.LedgerRecord> read(String ledgerId)
+    {
+        final var file = fileFor(ledgerId);
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        try {
+            final var records = new ArrayList<LedgerWorkflow.LedgerRecord>();
+            for (final var line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                records.add(objectMapper.readValue(line, LedgerWorkflow.LedgerRecord.class));
+            }
+            return records;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to read archived ledger records for " + ledgerId, e);
+        }
+    }
+
+    // The sequence number of the last record in the ledger's file, 0 when there is none. A line cut short by a failed
+    // write is dropped first, so the record it held is written again in full.
+    private long lastArchivedSequence(String ledgerId)
+            throws IOException
+    {
+        final var file = fileFor(ledgerId);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final var size = channel.size();
+            final var end = lastNewlineBefore(channel, size) + 1;
+            if (end < size) {
+                channel.truncate(end);
+            }
+            if (end == 0) {
+                return 0;
+            }
+            final var start = lastNewlineBefore(channel, end - 1) + 1;
+            final var line = ByteBuffer.allocate((int) (end - 1 - start));
+            readFully(channel, line, start);
+            final var lastRecord = objectMapper.readValue(line.array(), LedgerWorkflow.LedgerRecord.class);
+            return sequenceOf(lastRecord.id());
+        }
+    }
+
+    // Scans back from end a chunk at a time, returning the position of the newline found or -1 when there is none
+    private static long lastNewlineBefore(FileChannel channel, long end)
+            throws IOException
+    {
+        final var chunk = ByteBuffer.allocate(TAIL_CHUNK_BYTES);
+        var position = end;
+        while (position > 0) {
+            final var start = Math.max(0, position - TAIL_CHUNK_BYTES);
+            chunk.clear().limit((int) (position - start));
+            readFully(channel, chunk, start);
+            for (int i = chunk.limit() - 1; i >= 0; i--) {
+                if (chunk.get(i) == '\n') {
+                    return start + i;
+                }
+            }
+            position = start;
+        }
+        return -1;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Archive file ended early");
+            }
+        }
+    }
+
+    // Record ids are the ledger's prefix followed by a sequence number that counts up
+    private static long sequenceOf(String recordId)
+    {
+        return Long.parseLong(recordId.substring(recordId.lastIndexOf('-') + 1));
+    }
+
+    private Path fileFor(String ledgerId)
+    {
+        return directory.resolve(ledgerId + ".ndjson");
+    }
+
+    private String toJson(LedgerWorkflow.LedgerRecord record)
+    {
+        try {
+            return objectMapper.writeValueAsString(record);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize ledger record " + record.id(), e);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.claymccoy.moneytransfer;
+
+// The request cannot be served as asked, whatever the state of the ledgers, so retrying it unchanged will not help.
+// Nothing was recorded.
+public class InvalidLedgerRequestException
+        extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    public InvalidLedgerRequestException(String message)
+    {
+        super(message);
+    }
+
+    public InvalidLedgerRequestException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,13 @@
+package com.claymccoy.moneytransfer;
+
+import java.util.List;
+
+// Append-only store for ledger records that have been compacted out of the ledger workflow's state
+public interface LedgerArchive
+{
+    // Records arrive in ledger order. A retried batch may be delivered again, after being stored in full or in part,
+    // and none of its records may be stored twice.
+    void append(String ledgerId, List<LedgerWorkflow.LedgerRecord> records);
+
+    List<LedgerWorkflow.LedgerRecord> read(String ledgerId);
+}
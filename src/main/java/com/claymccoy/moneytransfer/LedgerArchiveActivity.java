@@ -0,0 +1,14 @@
+package com.claymccoy.moneytransfer;
+
+import io.temporal.activity.ActivityInterface;
+import io.temporal.activity.ActivityMethod;
+
+import java.util.List;
+
+@ActivityInterface
+public interface LedgerArchiveActivity
+{
+    // Move records that no longer fit in the ledger workflow's history window to the archive
+    @ActivityMethod
+    void archive(String ledgerId, List<LedgerWorkflow.LedgerRecord> records);
+}
@@ -0,0 +1,26 @@
+package com.claymccoy.moneytransfer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+public class LedgerArchiveActivityImpl
+        implements LedgerArchiveActivity
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LedgerArchiveActivityImpl.class);
+
+    private final LedgerArchive ledgerArchive;
+
+    public LedgerArchiveActivityImpl(LedgerArchive ledgerArchive)
+    {
+        this.ledgerArchive = ledgerArchive;
+    }
+
+    @Override
+    public void archive(String ledgerId, List<LedgerWorkflow.LedgerRecord> records)
+    {
+        LOG.info("Archiving {} records of {}.", records.size(), ledgerId);
+        ledgerArchive.append(ledgerId, records);
+    }
+}
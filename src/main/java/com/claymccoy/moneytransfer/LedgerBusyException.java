@@ -0,0 +1,19 @@
+package com.claymccoy.moneytransfer;
+
+// The transfer was turned away without being recorded, either by LedgerService's own limits or because the ledger
+// already has too many records waiting to dispatch. Callers should back off and retry.
+public class LedgerBusyException
+        extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    public LedgerBusyException(String message)
+    {
+        super(message);
+    }
+
+    public LedgerBusyException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,33 @@
+package com.claymccoy.moneytransfer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+// Reported as the `ledger` health component and included in the readiness group, so an instance only takes traffic
+// once its workers are polling and every ledger workflow is running. Liveness is unaffected: an instance still
+// starting its ledgers, or waiting for the Temporal service, is not restarted.
+@Component("ledger")
+public class LedgerHealthIndicator
+        implements HealthIndicator
+{
+    private final LedgerService ledgerService;
+    private final MoneyTransferWorker moneyTransferWorker;
+
+    @Autowired
+    public LedgerHealthIndicator(LedgerService ledgerService, MoneyTransferWorker moneyTransferWorker)
+    {
+        this.ledgerService = ledgerService;
+        this.moneyTransferWorker = moneyTransferWorker;
+    }
+
+    @Override
+    public Health health()
+    {
+        final var health = ledgerService.ledgersStarted() && moneyTransferWorker.isStarted() ? Health.up() : Health.outOfService();
+        return health.withDetail("workers", moneyTransferWorker.isStarted() ? "polling" : "stopped")
+                .withDetail("ledgers", ledgerService.ledgerStatus())
+                .build();
+    }
+}
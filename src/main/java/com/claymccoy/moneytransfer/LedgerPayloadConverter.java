@@ -0,0 +1,579 @@
+package com.claymccoy.moneytransfer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
+import io.temporal.api.common.v1.Payload;
+import io.temporal.common.converter.DataConverterException;
+import io.temporal.common.converter.DefaultDataConverter;
+import io.temporal.common.converter.EncodingKeys;
+import io.temporal.common.converter.JacksonJsonPayloadConverter;
+import io.temporal.common.converter.PayloadConverter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// A compact binary encoding for the ledger's own records, which otherwise make up most payload bytes as JSON.
+// Account ids and record id prefixes are written once per payload and referred to by index afterwards, numbers are
+// varints, and payloads over the compression threshold are deflated. The small option records inside StartInput and
+// TransferInput are embedded as JSON. Any other type is left to the standard converters.
+public class LedgerPayloadConverter
+        implements PayloadConverter
+{
+    public static final String ENCODING_TYPE = "binary/ledger";
+
+    private static final ByteString ENCODING = ByteString.copyFromUtf8(ENCODING_TYPE);
+    // Version 2 added idempotency keys to TransferMoneyInput and StartInput, version 3 netted settlements to StartInput,
+    // version 4 transfer priorities to TransferMoneyInput and the high priority lane to StartInput, version 5 the shard
+    // count to StartInput. Older payloads still read, without them.
+    private static final int FORMAT_VERSION = 5;
+    private static final int FLAG_DEFLATED = 1;
+
+    private static final int LEDGER_RECORD = 1;
+    private static final int TRANSACTION_DETAILS = 2;
+    private static final int TRANSFER_MONEY_INPUT = 3;
+    private static final int TRANSFER_MONEY_BATCH_INPUT = 4;
+    private static final int TRANSFER_MONEY_BATCH_RESULT = 5;
+    private static final int START_INPUT = 6;
+    private static final int TRANSFER_INPUT = 7;
+
+    private final int compressionThresholdBytes;
+    private final ObjectMapper objectMapper = JacksonJsonPayloadConverter.newDefaultObjectMapper();
+
+    // compressionThresholdBytes: encoded payloads larger than this are deflated, 0 never compresses
+    public LedgerPayloadConverter(int compressionThresholdBytes)
+    {
+        this.compressionThresholdBytes = compressionThresholdBytes;
+    }
+
+    // The standard converters with this one ahead of JSON, so ledger types are written in binary and everything
+    // else, including payloads written as JSON before this converter was enabled, still converts as before
+    public static DefaultDataConverter newDataConverter(int compressionThresholdBytes)
+    {
+        final var converters = new ArrayList<PayloadConverter>(List.of(DefaultDataConverter.STANDARD_PAYLOAD_CONVERTERS));
+        var jsonPosition = 0;
+        while (jsonPosition < converters.size() && !(converters.get(jsonPosition) instanceof JacksonJsonPayloadConverter)) {
+            jsonPosition++;
+        }
+        converters.add(jsonPosition, new LedgerPayloadConverter(compressionThresholdBytes));
+        return new DefaultDataConverter(converters.toArray(PayloadConverter[]::new));
+    }
+
+    @Override
+    public String getEncodingType()
+    {
+        return ENCODING_TYPE;
+    }
+
+    @Override
+    public Optional<Payload> toData(Object value)
+            throws DataConverterException
+    {
+        final var typeTag = typeTagOf(value);
+        if (typeTag == 0) {
+            return Optional.empty();
+        }
+        final var writer = new Writer();
+        writer.writeVarint(typeTag);
+        try {
+            writeValue(writer, typeTag, value);
+        }
+        catch (IOException e) {
+            throw new DataConverterException(e);
+        }
+        var body = writer.toByteArray();
+        var flags = 0;
+        if (compressionThresholdBytes > 0 && body.length > compressionThresholdBytes) {
+            body = deflate(body);
+            flags |= FLAG_DEFLATED;
+        }
+        final var data = new byte[body.length + 2];
+        data[0] = FORMAT_VERSION;
+        data[1] = (byte) flags;
+        System.arraycopy(body, 0, data, 2, body.length);
+        return Optional.of(Payload.newBuilder()
+                .putMetadata(EncodingKeys.METADATA_ENCODING_KEY, ENCODING)
+                .setData(ByteString.copyFrom(data))
+                .build());
+    }
+
+    @Override
+    public <T> T fromData(Payload content, Class<T> valueClass, Type valueType)
+            throws DataConverterException
+    {
+        final var data = content.getData().toByteArray();
+        if (data.length < 2 || data[0] < 1 || data[0] > FORMAT_VERSION) {
+            throw new DataConverterException("Unsupported ledger payload format", content, new Type[] {valueType});
+        }
+        try {
+            final var body = (data[1] & FLAG_DEFLATED) != 0 ? inflate(data, 2) : Arrays.copyOfRange(data, 2, data.length);
+            final var reader = new Reader(body);
+            reader.version = data[0];
+            final var typeTag = reader.readVarint();
+            final var value = readValue(reader, (int) typeTag);
+            return valueClass.cast(value);
+        }
+        catch (IOException | DataFormatException | ClassCastException | IndexOutOfBoundsException e) {
+            throw new DataConverterException(content, new Type[] {valueType}, e);
+        }
+    }
+
+    private static int typeTagOf(Object value)
+    {
+        if (value instanceof LedgerWorkflow.LedgerRecord) {
+            return LEDGER_RECORD;
+        }
+        if (value instanceof LedgerWorkflow.TransactionDetails) {
+            return TRANSACTION_DETAILS;
+        }
+        if (value instanceof LedgerWorkflow.TransferMoneyInput) {
+            return TRANSFER_MONEY_INPUT;
+        }
+        if (value instanceof LedgerWorkflow.TransferMoneyBatchInput) {
+            return TRANSFER_MONEY_BATCH_INPUT;
+        }
+        if (value instanceof LedgerWorkflow.TransferMoneyBatchResult) {
+            return TRANSFER_MONEY_BATCH_RESULT;
+        }
+        if (value instanceof LedgerWorkflow.StartInput) {
+            return START_INPUT;
+        }
+        if (value instanceof MoneyTransferWorkflow.TransferInput) {
+            return TRANSFER_INPUT;
+        }
+        return 0;
+    }
+
+    private void writeValue(Writer writer, int typeTag, Object value)
+            throws IOException
+    {
+        switch (typeTag) {
+            case LEDGER_RECORD -> writeLedgerRecord(writer, (LedgerWorkflow.LedgerRecord) value);
+            case TRANSACTION_DETAILS -> writeTransaction(writer, (LedgerWorkflow.TransactionDetails) value);
+            case TRANSFER_MONEY_INPUT -> {
+                final var transferInput = (LedgerWorkflow.TransferMoneyInput) value;
+                writeTransaction(writer, transferInput.transactionDetails());
+                writer.writeString(transferInput.idempotencyKey());
+                writer.writeString(transferInput.priority() == null ? null : transferInput.priority().name());
+            }
+            case TRANSFER_MONEY_BATCH_INPUT -> {
+                final var transactions = ((LedgerWorkflow.TransferMoneyBatchInput) value).transactions();
+                writer.writeVarint(transactions.size());
+                for (final var transaction : transactions) {
+                    writeTransaction(writer, transaction);
+                }
+            }
+            case TRANSFER_MONEY_BATCH_RESULT -> writeLedgerRecords(writer, ((LedgerWorkflow.TransferMoneyBatchResult) value).ledgerRecords());
+            case START_INPUT -> writeStartInput(writer, (LedgerWorkflow.StartInput) value);
+            case TRANSFER_INPUT -> {
+                final var transferInput = (MoneyTransferWorkflow.TransferInput) value;
+                writer.writeString(transferInput.id());
+                writeTransaction(writer, transferInput.transactionDetails());
+                writeJson(writer, transferInput.options());
+            }
+            default -> throw new IllegalArgumentException("Unknown ledger payload type " + typeTag);
+        }
+    }
+
+    private Object readValue(Reader reader, int typeTag)
+            throws IOException
+    {
+        return switch (typeTag) {
+            case LEDGER_RECORD -> readLedgerRecord(reader);
+            case TRANSACTION_DETAILS -> readTransaction(reader);
+            case TRANSFER_MONEY_INPUT -> {
+                final var transaction = readTransaction(reader);
+                final var idempotencyKey = reader.version >= 2 ? reader.readString() : null;
+                final var priority = reader.version >= 4 ? reader.readString() : null;
+                yield new LedgerWorkflow.TransferMoneyInput(transaction, idempotencyKey,
+                        priority == null ? null : LedgerWorkflow.TransferPriority.valueOf(priority));
+            }
+            case TRANSFER_MONEY_BATCH_INPUT -> {
+                final var count = (int) reader.readVarint();
+                final var transactions = new ArrayList<LedgerWorkflow.TransactionDetails>(count);
+                for (int i = 0; i < count; i++) {
+                    transactions.add(readTransaction(reader));
+                }
+                yield new LedgerWorkflow.TransferMoneyBatchInput(transactions);
+            }
+            case TRANSFER_MONEY_BATCH_RESULT -> new LedgerWorkflow.TransferMoneyBatchResult(readLedgerRecords(reader));
+            case START_INPUT -> readStartInput(reader);
+            case TRANSFER_INPUT -> new MoneyTransferWorkflow.TransferInput(reader.readString(), readTransaction(reader),
+                    readJson(reader, MoneyTransferWorkflow.TransferOptions.class));
+            default -> throw new IOException("Unknown ledger payload type " + typeTag);
+        };
+    }
+
+    private void writeStartInput(Writer writer, LedgerWorkflow.StartInput startInput)
+            throws IOException
+    {
+        writeLedgerRecords(writer, startInput.history());
+        writer.writeVarint(startInput.nextId());
+        writeLedgerRecords(writer, startInput.ledgerRecordQueue() == null ? null : new ArrayList<>(startInput.ledgerRecordQueue()));
+        writer.writeSignedVarint(startInput.eventLimit());
+        writer.writeString(startInput.recordIdPrefix());
+        writeJson(writer, startInput.options());
+        final var summary = startInput.summary();
+        writer.writeBoolean(summary != null);
+        if (summary != null) {
+            writer.writeVarint(summary.recordCount());
+            writeRecordId(writer, summary.lastRecordId());
+            writer.writeVarint(summary.balances().size());
+            for (final var balance : summary.balances().entrySet()) {
+                writer.writeString(balance.getKey());
+                writer.writeSignedVarint(balance.getValue());
+            }
+        }
+        writeJson(writer, startInput.rolloverStats());
+        final var idempotentTransfers = startInput.idempotentTransfers();
+        writer.writeVarint(idempotentTransfers == null ? 0 : idempotentTransfers.size() + 1);
+        if (idempotentTransfers != null) {
+            for (final var transfer : idempotentTransfers) {
+                writer.writeString(transfer.idempotencyKey());
+                writeLedgerRecord(writer, transfer.ledgerRecord());
+                writer.writeVarint(transfer.acceptedAtMillis());
+            }
+        }
+        final var settlements = startInput.settlements();
+        writer.writeVarint(settlements == null ? 0 : settlements.size() + 1);
+        if (settlements != null) {
+            for (final var settlement : settlements) {
+                writer.writeString(settlement.id());
+                writeTransaction(writer, settlement.transactionDetails());
+                writer.writeVarint(settlement.recordIds().size());
+                for (final var recordId : settlement.recordIds()) {
+                    writeRecordId(writer, recordId);
+                }
+            }
+        }
+        final var highPriorityRecords = startInput.highPriorityRecordQueue();
+        writeLedgerRecords(writer, highPriorityRecords == null ? null : new ArrayList<>(highPriorityRecords));
+        writer.writeVarint(startInput.shardCount());
+    }
+
+    private LedgerWorkflow.StartInput readStartInput(Reader reader)
+            throws IOException
+    {
+        final var history = readLedgerRecords(reader);
+        final var nextId = reader.readVarint();
+        final var queuedRecords = readLedgerRecords(reader);
+        final var eventLimit = (int) reader.readSignedVarint();
+        final var recordIdPrefix = reader.readString();
+        final var options = readJson(reader, LedgerWorkflow.LedgerOptions.class);
+        LedgerWorkflow.LedgerSummary summary = null;
+        if (reader.readBoolean()) {
+            final var recordCount = reader.readVarint();
+            final var lastRecordId = readRecordId(reader);
+            final var balanceCount = (int) reader.readVarint();
+            final var balances = new HashMap<String, Long>(balanceCount * 2);
+            for (int i = 0; i < balanceCount; i++) {
+                balances.put(reader.readString(), reader.readSignedVarint());
+            }
+            summary = new LedgerWorkflow.LedgerSummary(recordCount, lastRecordId, balances);
+        }
+        final var rolloverStats = readJson(reader, LedgerWorkflow.RolloverStats.class);
+        List<LedgerWorkflow.IdempotentTransfer> idempotentTransfers = null;
+        final var transferCount = reader.version >= 2 ? (int) reader.readVarint() - 1 : -1;
+        if (transferCount >= 0) {
+            idempotentTransfers = new ArrayList<>(transferCount);
+            for (int i = 0; i < transferCount; i++) {
+                idempotentTransfers.add(new LedgerWorkflow.IdempotentTransfer(reader.readString(), readLedgerRecord(reader), reader.readVarint()));
+            }
+        }
+        List<LedgerWorkflow.Settlement> settlements = null;
+        final var settlementCount = reader.version >= 3 ? (int) reader.readVarint() - 1 : -1;
+        if (settlementCount >= 0) {
+            settlements = new ArrayList<>(settlementCount);
+            for (int i = 0; i < settlementCount; i++) {
+                final var id = reader.readString();
+                final var transaction = readTransaction(reader);
+                final var recordCount = (int) reader.readVarint();
+                final var recordIds = new ArrayList<String>(recordCount);
+                for (int j = 0; j < recordCount; j++) {
+                    recordIds.add(readRecordId(reader));
+                }
+                settlements.add(new LedgerWorkflow.Settlement(id, transaction, recordIds));
+            }
+        }
+        final var highPriorityRecords = reader.version >= 4 ? readLedgerRecords(reader) : null;
+        final var shardCount = reader.version >= 5 ? (int) reader.readVarint() : 0;
+        return new LedgerWorkflow.StartInput(history, nextId, queuedRecords == null ? null : new ArrayDeque<>(queuedRecords), eventLimit,
+                recordIdPrefix, options, summary, rolloverStats, idempotentTransfers, settlements,
+                highPriorityRecords == null ? null : new ArrayDeque<>(highPriorityRecords), shardCount);
+    }
+
+    private static void writeLedgerRecords(Writer writer, List<LedgerWorkflow.LedgerRecord> ledgerRecords)
+    {
+        // 0 marks a missing list, so counts are written one higher
+        writer.writeVarint(ledgerRecords == null ? 0 : ledgerRecords.size() + 1);
+        if (ledgerRecords != null) {
+            for (final var ledgerRecord : ledgerRecords) {
+                writeLedgerRecord(writer, ledgerRecord);
+            }
+        }
+    }
+
+    private static List<LedgerWorkflow.LedgerRecord> readLedgerRecords(Reader reader)
+            throws IOException
+    {
+        final var count = (int) reader.readVarint() - 1;
+        if (count < 0) {
+            return null;
+        }
+        final var ledgerRecords = new ArrayList<LedgerWorkflow.LedgerRecord>(count);
+        for (int i = 0; i < count; i++) {
+            ledgerRecords.add(readLedgerRecord(reader));
+        }
+        return ledgerRecords;
+    }
+
+    private static void writeLedgerRecord(Writer writer, LedgerWorkflow.LedgerRecord ledgerRecord)
+    {
+        writeRecordId(writer, ledgerRecord.id());
+        writeTransaction(writer, ledgerRecord.transactionDetails());
+    }
+
+    private static LedgerWorkflow.LedgerRecord readLedgerRecord(Reader reader)
+            throws IOException
+    {
+        return new LedgerWorkflow.LedgerRecord(readRecordId(reader), readTransaction(reader));
+    }
+
+    private static void writeTransaction(Writer writer, LedgerWorkflow.TransactionDetails transaction)
+    {
+        writer.writeString(transaction.sourceAccountId());
+        writer.writeString(transaction.destinationAccountId());
+        writer.writeSignedVarint(transaction.amount());
+    }
+
+    private static LedgerWorkflow.TransactionDetails readTransaction(Reader reader)
+            throws IOException
+    {
+        return new LedgerWorkflow.TransactionDetails(reader.readString(), reader.readString(), (int) reader.readSignedVarint());
+    }
+
+    // Record ids are a shard prefix followed by a sequence number, so the prefix is interned and the number is a varint.
+    // Ids that do not follow that shape are kept whole as the prefix, with 0 in place of the number.
+    private static void writeRecordId(Writer writer, String recordId)
+    {
+        if (recordId == null) {
+            writer.writeString(null);
+            return;
+        }
+        var digitsStart = recordId.length();
+        while (digitsStart > 0 && Character.isDigit(recordId.charAt(digitsStart - 1))) {
+            digitsStart--;
+        }
+        final var digits = recordId.length() - digitsStart;
+        if (digits == 0 || digits > 18 || (digits > 1 && recordId.charAt(digitsStart) == '0')) {
+            writer.writeString(recordId);
+            writer.writeVarint(0);
+            return;
+        }
+        writer.writeString(recordId.substring(0, digitsStart));
+        writer.writeVarint(Long.parseLong(recordId.substring(digitsStart)) + 1);
+    }
+
+    private static String readRecordId(Reader reader)
+            throws IOException
+    {
+        final var prefix = reader.readString();
+        if (prefix == null) {
+            return null;
+        }
+        final var sequence = reader.readVarint();
+        return sequence == 0 ? prefix : prefix + (sequence - 1);
+    }
+
+    private void writeJson(Writer writer, Object value)
+            throws IOException
+    {
+        final var json = value == null ? new byte[0] : objectMapper.writeValueAsBytes(value);
+        writer.writeVarint(value == null ? 0 : json.length + 1);
+        writer.writeBytes(json);
+    }
+
+    private <T> T readJson(Reader reader, Class<T> valueClass)
+            throws IOException
+    {
+        final var length = (int) reader.readVarint() - 1;
+        if (length < 0) {
+            return null;
+        }
+        return objectMapper.readValue(reader.readBytes(length), valueClass);
+    }
+
+    private static byte[] deflate(byte[] body)
+    {
+        final var deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+            final var out = new ByteArrayOutputStream(body.length / 2 + 16);
+            // The uncompressed size goes first so inflating can size its buffer exactly
+            final var header = new Writer();
+            header.writeVarint(body.length);
+            out.writeBytes(header.toByteArray());
+            final var buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int offset)
+            throws IOException, DataFormatException
+    {
+        final var header = new Reader(data, offset);
+        final var body = new byte[(int) header.readVarint()];
+        final var inflater = new Inflater();
+        try {
+            inflater.setInput(data, header.position, data.length - header.position);
+            var length = 0;
+            while (length < body.length && !inflater.finished()) {
+                final var inflated = inflater.inflate(body, length, body.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated ledger payload");
+                }
+                length += inflated;
+            }
+            return body;
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    // Strings are interned per payload: 0 is null, 1 is followed by a new string, n > 1 repeats string n - 2
+    private static class Writer
+            extends ByteArrayOutputStream
+    {
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        void writeVarint(long value)
+        {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeSignedVarint(long value)
+        {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeBoolean(boolean value)
+        {
+            write(value ? 1 : 0);
+        }
+
+        void writeString(String value)
+        {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            final var index = strings.get(value);
+            if (index != null) {
+                writeVarint(index + 2);
+                return;
+            }
+            strings.put(value, strings.size());
+            final var bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(1);
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static class Reader
+    {
+        private final byte[] data;
+        private final List<String> strings = new ArrayList<>();
+        private int position;
+        // Format version of the payload being read, for fields added since version 1
+        private int version = FORMAT_VERSION;
+
+        Reader(byte[] data)
+        {
+            this(data, 0);
+        }
+
+        Reader(byte[] data, int position)
+        {
+            this.data = data;
+            this.position = position;
+        }
+
+        long readVarint()
+                throws IOException
+        {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final var b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in ledger payload");
+        }
+
+        long readSignedVarint()
+                throws IOException
+        {
+            final var value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        boolean readBoolean()
+        {
+            return data[position++] != 0;
+        }
+
+        byte[] readBytes(int length)
+                throws IOException
+        {
+            if (length > data.length - position) {
+                throw new IOException("Truncated ledger payload");
+            }
+            final var bytes = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        String readString()
+                throws IOException
+        {
+            final var tag = (int) readVarint();
+            if (tag == 0) {
+                return null;
+            }
+            if (tag > 1) {
+                return strings.get(tag - 2);
+            }
+            final var length = (int) readVarint();
+            final var value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            strings.add(value);
+            return value;
+        }
+    }
+}
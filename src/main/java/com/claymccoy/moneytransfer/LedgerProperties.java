@@ -0,0 +1,100 @@
+package com.claymccoy.moneytransfer;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+// Tunables for the ledger actors, bound from the `ledger.*` application properties
+@ConfigurationProperties(prefix = "ledger")
+public record LedgerProperties(
+        // Number of independent ledger workflows that transfers are spread across
+        @DefaultValue("1") int shards,
+        // Records each ledger keeps in workflow state; older ones are moved to the archive. 0 disables compaction
+        @DefaultValue("0") int historyWindow,
+        // Where the local file archive keeps compacted records
+        @DefaultValue("ledger-archive") String archiveDirectory,
+        // Concurrent transfers sent to a shard as one batch update; 1 sends every transfer on its own
+        @DefaultValue("1") int microBatchSize,
+        // Longest a transfer waits for others to join its batch
+        @DefaultValue("5ms") Duration microBatchDelay,
+        // Transfer children each ledger starts together while draining its queue
+        @DefaultValue("1") int maxConcurrentDispatches,
+        // Updates a ledger run accepts before it continues as new; 0 leaves it to the limits below
+        @DefaultValue("0") int eventLimit,
+        // Further limits on a single ledger run before it continues as new, on top of the server's own suggestion;
+        // 0 leaves a limit out. The state limit needs a history window below it.
+        @DefaultValue("10000") long rolloverMaxHistoryLength,
+        @DefaultValue("10485760") long rolloverMaxHistorySizeBytes,
+        @DefaultValue("0") int rolloverMaxStateRecords,
+        @DefaultValue("24h") Duration rolloverMaxRunDuration,
+        // Class name of the RolloverPolicy weighing the limits; blank uses ThresholdRolloverPolicy
+        @DefaultValue("") String rolloverPolicy,
+        // Run transfer account activities as local activities, falling back to regular ones on timeout or failure
+        @DefaultValue("false") boolean localActivities,
+        @DefaultValue("2s") Duration localActivityTimeout,
+        @DefaultValue("2") int localActivityMaxAttempts,
+        // Write ledger records, updates and StartInput with the compact binary LedgerPayloadConverter instead of JSON.
+        // Every worker must have the converter before it is switched on, as older ones cannot read its payloads.
+        @DefaultValue("false") boolean binaryPayloads,
+        // Binary payloads larger than this are deflated; 0 never compresses
+        @DefaultValue("16384") int payloadCompressionThresholdBytes,
+        // Each ledger rejects new transfers while this many records wait to dispatch; 0 never rejects
+        @DefaultValue("0") int maxQueuedRecords,
+        // LedgerService turns transfers away at once beyond these; 0 leaves a limit out
+        @DefaultValue("0") int maxInFlightTransfers,
+        @DefaultValue("0") double maxTransfersPerSecond,
+        // Longest a request waits for the ledgers to be running after the service starts before it is turned away
+        @DefaultValue("2s") Duration startupWait,
+        // Idempotency keys each ledger remembers, and for how long; retries within both get the original record back.
+        // The oldest are also forgotten once the remembered transfers would take up more than the byte limit in the
+        // continue-as-new input, which must stay under the server's payload size limit; 0 leaves that limit out.
+        @DefaultValue("10000") int maxIdempotencyKeys,
+        @DefaultValue("24h") Duration idempotencyKeyTtl,
+        @DefaultValue("262144") long maxIdempotencyKeyBytes,
+        // Net queued transfers between the same two accounts into one transfer child, waiting up to the window for
+        // a burst to gather first
+        @DefaultValue("false") boolean netting,
+        @DefaultValue("0ms") Duration nettingWindow,
+        // Transfers each SettlementWorkflow child settles with bulk account activities; 1 starts a transfer child for each
+        @DefaultValue("1") int settlementBatchSize,
+        // Answer history and balance reads from a read model kept in LedgerService, reloading a ledger's view from its
+        // queries once it is older than this; 0 queries the ledgers on every read
+        @DefaultValue("0s") Duration readCacheStaleness,
+        // Records and account balances the read model keeps across all ledgers before evicting views
+        @DefaultValue("1000000") long readCacheMaxRecords,
+        // Queue high priority transfers in a lane of their own, dispatched ahead of the rest: those sent with HIGH
+        // priority, and those of at least the amount unless sent with NORMAL. 0 leaves the lane to transfers that ask.
+        @DefaultValue("false") boolean priorityLanes,
+        @DefaultValue("0") int highPriorityAmount,
+        // High priority transfers dispatched for every normal one while both lanes have transfers waiting
+        @DefaultValue("4") int highPriorityWeight,
+        // A normal transfer that has waited this long is dispatched next, whatever is in the high priority lane; 0
+        // leaves it to the weight
+        @DefaultValue("5s") Duration maxNormalWait)
+{
+    public LedgerProperties
+    {
+        // A run carries its history window into the next, so without compaction, or with a window the state limit
+        // does not leave room above, every run would start over the limit and continue as new straight away
+        if (rolloverMaxStateRecords > 0 && (historyWindow <= 0 || historyWindow >= rolloverMaxStateRecords)) {
+            throw new IllegalArgumentException("ledger.rollover-max-state-records (" + rolloverMaxStateRecords
+                    + ") needs ledger.history-window set below it, was " + historyWindow);
+        }
+    }
+
+    public LedgerWorkflow.LedgerOptions ledgerOptions(String transferTaskQueue, String activityTaskQueue, String highPriorityTaskQueue)
+    {
+        final var rollover = new LedgerWorkflow.RolloverOptions(rolloverMaxHistoryLength, rolloverMaxHistorySizeBytes,
+                rolloverMaxStateRecords, rolloverMaxRunDuration, rolloverPolicy.isBlank() ? null : rolloverPolicy);
+        // Fails at startup rather than in every ledger run when the policy cannot be created
+        RolloverPolicy.create(eventLimit, rollover);
+        return new LedgerWorkflow.LedgerOptions(historyWindow, maxConcurrentDispatches, rollover,
+                new MoneyTransferWorkflow.TransferOptions(localActivities, localActivityTimeout, localActivityMaxAttempts, activityTaskQueue),
+                transferTaskQueue, activityTaskQueue, maxQueuedRecords, maxIdempotencyKeys, idempotencyKeyTtl,
+                netting ? nettingWindow : null, settlementBatchSize, priorityLanes
+                        ? new LedgerWorkflow.PriorityLaneOptions(highPriorityAmount, highPriorityWeight,
+                                maxNormalWait.isZero() ? null : maxNormalWait, highPriorityTaskQueue)
+                        : null, maxIdempotencyKeyBytes);
+    }
+}
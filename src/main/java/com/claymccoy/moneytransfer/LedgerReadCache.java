@@ -0,0 +1,184 @@
+package com.claymccoy.moneytransfer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntFunction;
+
+// Read model of each ledger shard kept in LedgerService, so history and balance reads are answered without a
+// Temporal query, which would need a workflow task on the worker holding the ledger and so compete with transfers.
+// A shard's view is loaded from its getSummary and getHistory queries and then kept current with the records this
+// service's own transfers return. Records accepted through other service instances only show up when the view is
+// reloaded, at most the staleness bound after it was loaded, and records compacted out of workflow state meanwhile
+// stay in the view until then. Views are evicted beyond the configured number of records and balances in total.
+public class LedgerReadCache
+{
+    private final LedgerShardRouter router;
+    private final long stalenessNanos;
+    private final Cache<Integer, ShardView> views;
+    private final Counter hits;
+    private final Counter misses;
+
+    // A shard's records still in workflow state and its balances, both as of the record with lastSequence, plus the
+    // records of each account as the ledger indexes them. Records this service sends are appended in place rather
+    // than copying the view, so it is guarded by its own lock and readers get copies.
+    private static final class ShardView
+    {
+        private final List<LedgerWorkflow.LedgerRecord> history;
+        private final Map<String, Long> balances;
+        private final Map<String, List<LedgerWorkflow.LedgerRecord>> accountRecords = new HashMap<>();
+        private final long loadedAtNanos;
+        private long lastSequence;
+
+        ShardView(List<LedgerWorkflow.LedgerRecord> history, Map<String, Long> balances, long lastSequence, long loadedAtNanos)
+        {
+            this.history = new ArrayList<>(history);
+            this.balances = new HashMap<>(balances);
+            this.lastSequence = lastSequence;
+            this.loadedAtNanos = loadedAtNanos;
+            history.forEach(this::addToAccountIndex);
+        }
+
+        synchronized List<LedgerWorkflow.LedgerRecord> history()
+        {
+            return List.copyOf(history);
+        }
+
+        synchronized long balance(String accountId)
+        {
+            return balances.getOrDefault(accountId, 0L);
+        }
+
+        synchronized LedgerWorkflow.AccountHistory accountHistory(String accountId)
+        {
+            return new LedgerWorkflow.AccountHistory(accountId, balance(accountId), List.copyOf(accountRecords.getOrDefault(accountId, List.of())));
+        }
+
+        // False when the record skips ahead of the view, which then no longer holds everything up to it
+        synchronized boolean append(LedgerWorkflow.LedgerRecord ledgerRecord, long sequence)
+        {
+            if (sequence <= lastSequence) {
+                return true;
+            }
+            if (sequence > lastSequence + 1) {
+                return false;
+            }
+            final var transaction = ledgerRecord.transactionDetails();
+            balances.merge(transaction.sourceAccountId(), (long) -transaction.amount(), Long::sum);
+            balances.merge(transaction.destinationAccountId(), (long) transaction.amount(), Long::sum);
+            history.add(ledgerRecord);
+            addToAccountIndex(ledgerRecord);
+            lastSequence = sequence;
+            return true;
+        }
+
+        synchronized int weight()
+        {
+            return history.size() + balances.size();
+        }
+
+        // A transfer between an account and itself is listed once, as LedgerWorkflowImpl does
+        private void addToAccountIndex(LedgerWorkflow.LedgerRecord ledgerRecord)
+        {
+            final var transaction = ledgerRecord.transactionDetails();
+            accountRecords.computeIfAbsent(transaction.sourceAccountId(), accountId -> new ArrayList<>()).add(ledgerRecord);
+            if (!transaction.destinationAccountId().equals(transaction.sourceAccountId())) {
+                accountRecords.computeIfAbsent(transaction.destinationAccountId(), accountId -> new ArrayList<>()).add(ledgerRecord);
+            }
+        }
+    }
+
+    public LedgerReadCache(LedgerShardRouter router, Duration staleness, long maxRecords, MeterRegistry meterRegistry)
+    {
+        this.router = router;
+        this.stalenessNanos = staleness.toNanos();
+        views = CacheBuilder.newBuilder()
+                .maximumWeight(maxRecords)
+                .weigher((Integer shard, ShardView view) -> view.weight())
+                .build();
+        hits = Counter.builder("ledger.read.cache").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("ledger.read.cache").tag("result", "miss").register(meterRegistry);
+    }
+
+    public List<LedgerWorkflow.LedgerRecord> history(int shard, IntFunction<LedgerWorkflow> ledgers)
+    {
+        return view(shard, ledgers).history();
+    }
+
+    public long balance(int shard, String accountId, IntFunction<LedgerWorkflow> ledgers)
+    {
+        return view(shard, ledgers).balance(accountId);
+    }
+
+    // What the shard's getAccountHistory query would answer
+    public LedgerWorkflow.AccountHistory accountHistory(int shard, String accountId, IntFunction<LedgerWorkflow> ledgers)
+    {
+        return view(shard, ledgers).accountHistory(accountId);
+    }
+
+    // A transfer this service sent was recorded. The next record of a cached view is applied to it; one the view
+    // already has, such as the original record answering a retried idempotency key, is ignored; and one that skips
+    // ahead of the view means others were recorded elsewhere in between, so the view is dropped.
+    public void recorded(LedgerWorkflow.LedgerRecord ledgerRecord)
+    {
+        final var shard = router.shardOfRecord(ledgerRecord.id());
+        final var sequence = sequenceOf(shard, ledgerRecord.id());
+        final var view = views.asMap().get(shard);
+        if (view == null) {
+            return;
+        }
+        if (view.append(ledgerRecord, sequence)) {
+            // Replacing the view with itself has the cache weigh it again; a compute returning it unchanged would not
+            views.asMap().replace(shard, view, view);
+        }
+        else {
+            views.asMap().remove(shard, view);
+        }
+    }
+
+    private ShardView view(int shard, IntFunction<LedgerWorkflow> ledgers)
+    {
+        final var cached = views.getIfPresent(shard);
+        if (cached != null && System.nanoTime() - cached.loadedAtNanos < stalenessNanos) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        if (cached != null) {
+            views.asMap().remove(shard, cached);
+        }
+        try {
+            // Concurrent misses on a shard wait for a single load
+            return views.get(shard, () -> load(shard, ledgers.apply(shard)));
+        }
+        catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+    }
+
+    // The summary is queried first and history records recorded after it are left out, so the two agree even
+    // when transfers are accepted between the queries
+    private ShardView load(int shard, LedgerWorkflow ledger)
+    {
+        final var loadedAt = System.nanoTime();
+        final var summary = ledger.getSummary();
+        final var lastSequence = summary.lastRecordId() == null ? 0 : sequenceOf(shard, summary.lastRecordId());
+        final var history = ledger.getHistory().stream()
+                .filter(ledgerRecord -> sequenceOf(shard, ledgerRecord.id()) <= lastSequence)
+                .toList();
+        return new ShardView(history, summary.balances(), lastSequence, loadedAt);
+    }
+
+    private long sequenceOf(int shard, String recordId)
+    {
+        return Long.parseLong(recordId.substring(router.recordIdPrefix(shard).length()));
+    }
+}
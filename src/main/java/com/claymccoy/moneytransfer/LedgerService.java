@@ -1,45 +1,665 @@
 package com.claymccoy.moneytransfer;
 
 import com.claymccoy.temporal.TemporalConfig;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.temporal.client.UpdateOptions;
 import io.temporal.client.WorkflowClient;
+import io.temporal.api.enums.v1.WorkflowExecutionStatus;
+import io.temporal.client.WorkflowExecutionAlreadyStarted;
+import io.temporal.client.WorkflowNotFoundException;
 import io.temporal.client.WorkflowOptions;
+import io.temporal.client.WorkflowUpdateException;
+import io.temporal.client.WorkflowUpdateHandle;
+import io.temporal.client.WorkflowUpdateStage;
+import io.temporal.client.WorkflowUpdateTimeoutOrCancelledException;
+import io.temporal.failure.ApplicationFailure;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @Service
 public class LedgerService
 {
     private static final Logger LOG = LoggerFactory.getLogger(LedgerService.class);
+    // How long a status check waits on the server for an update to finish before reporting it as still pending
+    private static final long STATUS_POLL_MILLIS = 1000;
+    // Backoff between attempts to start a ledger workflow while the Temporal service cannot be reached
+    private static final Duration FIRST_START_RETRY = Duration.ofSeconds(1);
+    private static final Duration MAX_START_RETRY = Duration.ofSeconds(30);
 
-    private final LedgerWorkflow workflow;
+    // Identifies a transfer update that has been handed to a ledger run, so its result can be looked up later
+    public record TransferTicket(String ledgerId, String runId, String updateId) {}
+
+    private final WorkflowClient client;
+    private final LedgerShardRouter router;
+    private final List<LedgerWorkflow> shards = new ArrayList<>();
+    // Queries, batch updates and update starts block until the server answers, so each call fanned out across shards
+    // or started for an async transfer waits on its own virtual thread rather than holding a common pool thread
+    private final ExecutorService blockingCalls = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<MicroBatcher<LedgerWorkflow.TransactionDetails, LedgerWorkflow.LedgerRecord>> microBatchers = new ArrayList<>();
+    private final Timer transferTimer;
+    private final Timer batchTransferTimer;
+    // Client-side admission limits, null when not configured
+    private final Semaphore inFlightTransfers;
+    private final RateLimiter transferRate;
+    // Read model answering history and balance reads, null when every read queries the ledgers
+    private final LedgerReadCache readCache;
+    // Ledger workflows are started in the background so a slow or unreachable Temporal service does not hold up
+    // application startup. Transfers and reads wait up to startupWait for every ledger to be running, then fail with
+    // LedgersStartingException.
+    private final ExecutorService ledgerStarter = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, String> ledgerStatus = new ConcurrentHashMap<>();
+    private final CompletableFuture<Void> ledgersStarted;
+    private final Duration startupWait;
+    private final MeterRegistry meterRegistry;
+    private final AtomicBoolean firstTransferRecorded = new AtomicBoolean();
 
     @Autowired
-    public LedgerService(TemporalConfig temporalConfig)
+    public LedgerService(TemporalConfig temporalConfig, LedgerProperties ledgerProperties, WorkerProperties workerProperties,
+            MeterRegistry meterRegistry)
+    {
+        // Client-side latency until the ledger has accepted the transfer, including any micro-batching delay
+        transferTimer = Timer.builder("ledger.client.transfer")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        batchTransferTimer = Timer.builder("ledger.client.transfer.batch")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.meterRegistry = meterRegistry;
+        startupWait = ledgerProperties.startupWait();
+        client = temporalConfig.client();
+        inFlightTransfers = ledgerProperties.maxInFlightTransfers() > 0 ? new Semaphore(ledgerProperties.maxInFlightTransfers()) : null;
+        transferRate = ledgerProperties.maxTransfersPerSecond() > 0 ? RateLimiter.create(ledgerProperties.maxTransfersPerSecond()) : null;
+        router = new LedgerShardRouter(ledgerProperties.shards());
+        readCache = ledgerProperties.readCacheStaleness().isPositive()
+                ? new LedgerReadCache(router, ledgerProperties.readCacheStaleness(), ledgerProperties.readCacheMaxRecords(), meterRegistry)
+                : null;
+        final var ledgerOptions = ledgerProperties.ledgerOptions(workerProperties.transferTaskQueue(temporalConfig.taskQueue()),
+                workerProperties.activityTaskQueue(temporalConfig.taskQueue()),
+                workerProperties.highPriorityTransferTaskQueue(temporalConfig.taskQueue()));
+        final var starts = new ArrayList<Runnable>();
+        for (int shard = 0; shard < router.shardCount(); shard++) {
+            final var options = WorkflowOptions.newBuilder()
+                    .setTaskQueue(temporalConfig.taskQueue())
+                    .setWorkflowId(router.workflowId(shard))
+                    .build();
+            final var workflow = temporalConfig.client().newWorkflowStub(LedgerWorkflow.class, router.workflowId(shard));
+            shards.add(workflow);
+            if (ledgerProperties.microBatchSize() > 1) {
+                microBatchers.add(new MicroBatcher<>(ledgerProperties.microBatchSize(), ledgerProperties.microBatchDelay(),
+                        transactions -> rejectedWhenFull(() -> workflow.transferMoneyBatch(new LedgerWorkflow.TransferMoneyBatchInput(transactions)))
+                                .ledgerRecords()));
+            }
+            final var startInput = new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(),
+                    ledgerProperties.eventLimit(), router.recordIdPrefix(shard), ledgerOptions, null, null, null, null, null,
+                    router.shardCount());
+            final var configureInput = new LedgerWorkflow.ConfigureInput(router.shardCount(), ledgerProperties.eventLimit(), ledgerOptions);
+            ledgerStatus.put(options.getWorkflowId(), "starting");
+            starts.add(() -> startLedger(options, startInput, configureInput));
+        }
+        // Shard 0 runs under every shard count, so it goes first: a ledger left running for another shard count refuses
+        // this instance's options before any new shard is started alongside it
+        ledgersStarted = CompletableFuture.runAsync(starts.get(0), ledgerStarter)
+                .thenCompose(ignored -> CompletableFuture.allOf(starts.stream()
+                        .skip(1)
+                        .map(start -> CompletableFuture.runAsync(start, ledgerStarter))
+                        .toArray(CompletableFuture[]::new)));
+    }
+
+    // Idempotent: a ledger already running, such as one left by an earlier instance of the service, counts as started
+    // once it has been handed this instance's options. A ledger running for another shard count fails the start for
+    // good, as do ledgers left under the other workflow id layout; any other failure is retried with backoff until
+    // the ledger starts or the service closes.
+    private void startLedger(WorkflowOptions options, LedgerWorkflow.StartInput startInput, LedgerWorkflow.ConfigureInput configureInput)
+    {
+        final var workflowId = options.getWorkflowId();
+        var retryInterval = FIRST_START_RETRY;
+        while (true) {
+            try {
+                if (workflowId.equals(router.workflowId(0))) {
+                    checkNoLedgerRunning(router.otherLayoutWorkflowId());
+                }
+                try {
+                    // A stub can only attempt to start once, so every attempt gets its own
+                    WorkflowClient.start(client.newWorkflowStub(LedgerWorkflow.class, options)::start, startInput);
+                    LOG.info("LedgerWorkflow {} started", workflowId);
+                }
+                catch (WorkflowExecutionAlreadyStarted e) {
+                    configureRunningLedger(workflowId, configureInput);
+                    LOG.info("LedgerWorkflow {} already started, options sent for its next run", workflowId);
+                }
+                break;
+            }
+            catch (ShardCountChangedException e) {
+                LOG.error("Not starting LedgerWorkflow {}: {}", workflowId, e.getMessage());
+                ledgerStatus.put(workflowId, "refused: " + e.getMessage());
+                throw e;
+            }
+            catch (RuntimeException e) {
+                final var reason = Throwables.getRootCause(e).getMessage();
+                LOG.warn("Failed to start LedgerWorkflow {}, retrying in {}: {}", workflowId, retryInterval, reason);
+                ledgerStatus.put(workflowId, "retrying: " + reason);
+            }
+            try {
+                Thread.sleep(retryInterval);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Service closed before LedgerWorkflow " + workflowId + " started");
+            }
+            retryInterval = Collections.min(List.of(retryInterval.multipliedBy(2), MAX_START_RETRY));
+        }
+        ledgerStatus.put(workflowId, "running");
+    }
+
+    // The ledger takes on the options in its next run; one started for another shard count refuses them
+    private void configureRunningLedger(String workflowId, LedgerWorkflow.ConfigureInput configureInput)
     {
-        final var options = WorkflowOptions.newBuilder()
-                .setTaskQueue(temporalConfig.taskQueue())
-                .setWorkflowId("ledger-workflow")
-                .build();
-        workflow = temporalConfig.client().newWorkflowStub(LedgerWorkflow.class, options);
         try {
-            WorkflowClient.start(workflow::start, null);
+            client.newWorkflowStub(LedgerWorkflow.class, workflowId).configure(configureInput);
         }
-        catch (Exception e) {
-            LOG.info("LedgerWorkflow already started");
+        catch (WorkflowUpdateException e) {
+            if (e.getCause() instanceof ApplicationFailure failure
+                    && (LedgerWorkflow.SHARD_COUNT_MISMATCH_FAILURE_TYPE.equals(failure.getType())
+                            || failure.getOriginalMessage().startsWith(LedgerWorkflow.SHARD_COUNT_MISMATCH_MESSAGE))) {
+                throw new ShardCountChangedException("LedgerWorkflow " + workflowId + " is running with another shard count than "
+                        + router.shardCount() + " (" + failure.getOriginalMessage() + ")", e);
+            }
+            throw e;
         }
     }
 
+    // Changing between one shard and several renames the ledger workflows, so the old ledger would otherwise be left
+    // running, unseen, with every account's history
+    private void checkNoLedgerRunning(String workflowId)
+    {
+        try {
+            final var status = client.newUntypedWorkflowStub(workflowId).describe().getStatus();
+            if (status == WorkflowExecutionStatus.WORKFLOW_EXECUTION_STATUS_RUNNING) {
+                throw new ShardCountChangedException("LedgerWorkflow " + workflowId + " is still running from a deployment with "
+                        + (router.shardCount() == 1 ? "several shards" : "a single shard") + ", not " + router.shardCount());
+            }
+        }
+        catch (WorkflowNotFoundException e) {
+            // Never started under that layout
+        }
+    }
+
+    public boolean ledgersStarted()
+    {
+        return ledgersStarted.isDone() && !ledgersStarted.isCompletedExceptionally();
+    }
+
+    // Each ledger workflow id with "starting", "running", or the failure of its last start attempt
+    public Map<String, String> ledgerStatus()
+    {
+        return new TreeMap<>(ledgerStatus);
+    }
+
+    private void awaitLedgers()
+    {
+        join(whenLedgersStarted());
+    }
+
+    // Completes once every ledger is running, or fails with LedgersStartingException after startupWait. Transfers
+    // wait for it before taking admission, so requests held back at startup do not use up the in-flight limit.
+    private CompletableFuture<Void> whenLedgersStarted()
+    {
+        if (ledgersStarted()) {
+            return ledgersStarted;
+        }
+        return ledgersStarted.copy()
+                .orTimeout(startupWait.toMillis(), TimeUnit.MILLISECONDS)
+                .exceptionallyCompose(failure -> CompletableFuture.failedFuture(unwrap(failure) instanceof TimeoutException
+                        ? new LedgersStartingException("Ledgers still starting: " + ledgerStatus())
+                        : unwrap(failure)));
+    }
+
     public LedgerWorkflow.LedgerRecord transfer(LedgerWorkflow.TransactionDetails transaction)
     {
-        return workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction));
+        return join(transferAsync(transaction));
     }
 
+    public CompletableFuture<LedgerWorkflow.LedgerRecord> transferAsync(LedgerWorkflow.TransactionDetails transaction)
+    {
+        return transferAsync(transaction, null);
+    }
+
+    public CompletableFuture<LedgerWorkflow.LedgerRecord> transferAsync(LedgerWorkflow.TransactionDetails transaction, String idempotencyKey)
+    {
+        return transferAsync(transaction, idempotencyKey, null);
+    }
+
+    // Completes with the ledger record without holding a thread while the update is in flight.
+    // With micro-batching enabled, concurrent transfers to the same shard share a single batch update; transfers with
+    // an idempotency key or a priority are always sent on their own so the ledger can recognise a retry or queue it
+    // in the requested lane. A null priority leaves the lane to the ledger's amount threshold.
+    // Fails with LedgerBusyException when the transfer is turned away by the admission limits or a full ledger.
+    public CompletableFuture<LedgerWorkflow.LedgerRecord> transferAsync(LedgerWorkflow.TransactionDetails transaction, String idempotencyKey,
+            LedgerWorkflow.TransferPriority priority)
+    {
+        if (!ledgersStarted()) {
+            return whenLedgersStarted().thenCompose(started -> transferAsync(transaction, idempotencyKey, priority));
+        }
+        try {
+            admit(1);
+        }
+        catch (LedgerBusyException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        final var sample = Timer.start();
+        final var shard = router.shardFor(transaction.sourceAccountId());
+        final CompletableFuture<LedgerWorkflow.LedgerRecord> ledgerRecord = microBatchers.isEmpty() || idempotencyKey != null || priority != null
+                ? startTransferUpdate(transaction, idempotencyKey, priority, WorkflowUpdateStage.ACCEPTED)
+                        .thenCompose(WorkflowUpdateHandle::getResultAsync)
+                : microBatchers.get(shard).submit(transaction);
+        return ledgerRecord.whenComplete((result, failure) -> {
+            releaseAdmission();
+            sample.stop(transferTimer);
+            if (result != null) {
+                recorded(List.of(result));
+            }
+        });
+    }
+
+    // Completes as soon as the ledger reaches waitStage for the transfer, with a ticket to fetch the record by later.
+    // ADMITTED is rejected with InvalidLedgerRequestException: the client cannot return a handle before the ledger
+    // has accepted the update.
+    public CompletableFuture<TransferTicket> startTransfer(LedgerWorkflow.TransactionDetails transaction, WorkflowUpdateStage waitStage)
+    {
+        return startTransfer(transaction, null, waitStage);
+    }
+
+    public CompletableFuture<TransferTicket> startTransfer(LedgerWorkflow.TransactionDetails transaction, String idempotencyKey,
+            WorkflowUpdateStage waitStage)
+    {
+        return startTransfer(transaction, idempotencyKey, null, waitStage);
+    }
+
+    public CompletableFuture<TransferTicket> startTransfer(LedgerWorkflow.TransactionDetails transaction, String idempotencyKey,
+            LedgerWorkflow.TransferPriority priority, WorkflowUpdateStage waitStage)
+    {
+        if (waitStage == WorkflowUpdateStage.ADMITTED) {
+            throw new InvalidLedgerRequestException("Transfers can wait for the ACCEPTED or COMPLETED stage, not " + waitStage);
+        }
+        if (!ledgersStarted()) {
+            return whenLedgersStarted().thenCompose(started -> startTransfer(transaction, idempotencyKey, priority, waitStage));
+        }
+        try {
+            admit(1);
+        }
+        catch (LedgerBusyException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return startTransferUpdate(transaction, idempotencyKey, priority, waitStage)
+                .whenComplete((handle, failure) -> releaseAdmission())
+                .thenApply(handle -> {
+                    // The caller only gets the ticket, so the record reaches the read model once the ledger has it
+                    handle.getResultAsync().thenAccept(ledgerRecord -> recorded(List.of(ledgerRecord)));
+                    return new TransferTicket(handle.getExecution().getWorkflowId(), handle.getExecution().getRunId(), handle.getId());
+                });
+    }
+
+    // Empty while the transfer update is still running. The ticket names the run the update went to,
+    // so it can still be found after the ledger has continued as new.
+    public CompletableFuture<Optional<LedgerWorkflow.LedgerRecord>> getTransferResult(TransferTicket ticket)
+    {
+        final var ledger = client.newUntypedWorkflowStub(ticket.ledgerId(), Optional.of(ticket.runId()), Optional.empty());
+        return ledger.getUpdateHandle(ticket.updateId(), LedgerWorkflow.LedgerRecord.class)
+                .getResultAsync(STATUS_POLL_MILLIS, TimeUnit.MILLISECONDS)
+                .thenApply(ledgerRecord -> {
+                    recorded(List.of(ledgerRecord));
+                    return Optional.of(ledgerRecord);
+                })
+                .exceptionally(failure -> {
+                    if (unwrap(failure) instanceof WorkflowUpdateTimeoutOrCancelledException) {
+                        return Optional.empty();
+                    }
+                    throw failure instanceof CompletionException completionFailure ? completionFailure : new CompletionException(failure);
+                });
+    }
+
+    // The idempotency key doubles as the update id, so the server itself folds retries that reach the same ledger run
+    // together; the ledger's own record of keys covers retries that arrive after it has continued as new
+    private CompletableFuture<WorkflowUpdateHandle<LedgerWorkflow.LedgerRecord>> startTransferUpdate(
+            LedgerWorkflow.TransactionDetails transaction, String idempotencyKey, LedgerWorkflow.TransferPriority priority,
+            WorkflowUpdateStage waitStage)
+    {
+        final var ledger = client.newUntypedWorkflowStub(router.workflowId(router.shardFor(transaction.sourceAccountId())));
+        final var updateOptions = UpdateOptions.newBuilder(LedgerWorkflow.LedgerRecord.class)
+                .setUpdateName("transferMoney")
+                .setUpdateId(idempotencyKey != null ? idempotencyKey : UUID.randomUUID().toString())
+                .setWaitForStage(waitStage)
+                .build();
+        final var transferInput = new LedgerWorkflow.TransferMoneyInput(transaction, idempotencyKey, priority);
+        return CompletableFuture.supplyAsync(() -> rejectedWhenFull(() -> ledger.startUpdate(updateOptions, transferInput)), blockingCalls);
+    }
+
+    // The in-flight limit counts calls, the rate limit counts transfers
+    private void admit(int transfers)
+    {
+        if (transferRate != null && !transferRate.tryAcquire(transfers)) {
+            throw new LedgerBusyException("Transfer rate limit of " + transferRate.getRate() + " per second reached");
+        }
+        if (inFlightTransfers != null && !inFlightTransfers.tryAcquire()) {
+            throw new LedgerBusyException("Too many transfers in flight");
+        }
+    }
+
+    private void releaseAdmission()
+    {
+        if (inFlightTransfers != null) {
+            inFlightTransfers.release();
+        }
+    }
+
+    // The ledger's update validator rejects transfers while its dispatch queue is full
+    private static <T> T rejectedWhenFull(Supplier<T> update)
+    {
+        try {
+            return update.get();
+        }
+        catch (WorkflowUpdateException e) {
+            if (isQueueFull(e)) {
+                throw new LedgerBusyException(((ApplicationFailure) e.getCause()).getOriginalMessage(), e);
+            }
+            throw e;
+        }
+    }
+
+    static boolean isQueueFull(WorkflowUpdateException e)
+    {
+        return e.getCause() instanceof ApplicationFailure failure
+                && (LedgerWorkflow.QUEUE_FULL_FAILURE_TYPE.equals(failure.getType())
+                        || failure.getOriginalMessage().startsWith(LedgerWorkflow.QUEUE_FULL_MESSAGE));
+    }
+
+    // Sends one batch update per shard the transactions route to, returning records in the order given
+    public List<LedgerWorkflow.LedgerRecord> transferBatch(List<LedgerWorkflow.TransactionDetails> transactions)
+    {
+        // Nothing to record, and the rate limiter refuses to acquire zero permits
+        if (transactions.isEmpty()) {
+            return List.of();
+        }
+        awaitLedgers();
+        admit(transactions.size());
+        try {
+            final var ledgerRecords = batchTransferTimer.record(() -> routeTransferBatch(transactions));
+            recorded(ledgerRecords);
+            return ledgerRecords;
+        }
+        finally {
+            releaseAdmission();
+        }
+    }
+
+    private List<LedgerWorkflow.LedgerRecord> routeTransferBatch(List<LedgerWorkflow.TransactionDetails> transactions)
+    {
+        final var positionsByShard = new HashMap<Integer, List<Integer>>();
+        for (int position = 0; position < transactions.size(); position++) {
+            final var shard = router.shardFor(transactions.get(position).sourceAccountId());
+            positionsByShard.computeIfAbsent(shard, key -> new ArrayList<>()).add(position);
+        }
+        final var shardResults = new HashMap<Integer, CompletableFuture<List<LedgerWorkflow.LedgerRecord>>>();
+        positionsByShard.forEach((shard, positions) -> {
+            final var batchInput = new LedgerWorkflow.TransferMoneyBatchInput(positions.stream().map(transactions::get).toList());
+            shardResults.put(shard, CompletableFuture.supplyAsync(() -> rejectedWhenFull(() -> shards.get(shard).transferMoneyBatch(batchInput))
+                    .ledgerRecords(), blockingCalls));
+        });
+        final var ledgerRecords = new LedgerWorkflow.LedgerRecord[transactions.size()];
+        positionsByShard.forEach((shard, positions) -> {
+            final var shardRecords = join(shardResults.get(shard));
+            for (int i = 0; i < positions.size(); i++) {
+                ledgerRecords[positions.get(i)] = shardRecords.get(i);
+            }
+        });
+        return Arrays.asList(ledgerRecords);
+    }
+
+    private void recorded(List<LedgerWorkflow.LedgerRecord> ledgerRecords)
+    {
+        if (!ledgerRecords.isEmpty() && firstTransferRecorded.compareAndSet(false, true)) {
+            // How long a new instance takes to become useful, from JVM launch to its first recorded transfer
+            final var sinceLaunch = Duration.ofMillis(ManagementFactory.getRuntimeMXBean().getUptime());
+            LOG.info("First transfer recorded {} ms after the JVM started", sinceLaunch.toMillis());
+            TimeGauge.builder("service.time.to.first.transfer", sinceLaunch, TimeUnit.MILLISECONDS, Duration::toMillis)
+                    .register(meterRegistry);
+        }
+        if (readCache != null) {
+            ledgerRecords.forEach(readCache::recorded);
+        }
+    }
+
+    // Queries every shard concurrently and returns their histories one shard after another
     public List<LedgerWorkflow.LedgerRecord> getHistory()
     {
-        return workflow.getHistory();
+        awaitLedgers();
+        if (readCache != null) {
+            final var history = new ArrayList<LedgerWorkflow.LedgerRecord>();
+            for (int shard = 0; shard < shards.size(); shard++) {
+                history.addAll(readCache.history(shard, shards::get));
+            }
+            return history;
+        }
+        if (shards.size() == 1) {
+            return shards.get(0).getHistory();
+        }
+        final var shardHistories = shards.stream()
+                .map(workflow -> CompletableFuture.supplyAsync(workflow::getHistory, blockingCalls))
+                .toList();
+        final var history = new ArrayList<LedgerWorkflow.LedgerRecord>();
+        shardHistories.forEach(shardHistory -> history.addAll(shardHistory.join()));
+        return history;
+    }
+
+    // Transfers are sharded by source account, so money paid into the account can be on any shard
+    public LedgerWorkflow.AccountHistory getAccountHistory(String accountId)
+    {
+        awaitLedgers();
+        final var shardHistories = readCache != null
+                ? IntStream.range(0, shards.size()).mapToObj(shard -> readCache.accountHistory(shard, accountId, shards::get)).toList()
+                : queryShards(ledger -> ledger.getAccountHistory(accountId));
+        final var records = new ArrayList<LedgerWorkflow.LedgerRecord>();
+        var balance = 0L;
+        for (final var shardHistory : shardHistories) {
+            records.addAll(shardHistory.records());
+            balance += shardHistory.balance();
+        }
+        return new LedgerWorkflow.AccountHistory(accountId, balance, records);
+    }
+
+    // Records waiting to be dispatched across all shards
+    public long getQueueDepth()
+    {
+        awaitLedgers();
+        return queryShards(LedgerWorkflow::getQueueDepth).stream().mapToLong(Integer::longValue).sum();
+    }
+
+    public long getBalance(String accountId)
+    {
+        awaitLedgers();
+        if (readCache != null) {
+            var balance = 0L;
+            for (int shard = 0; shard < shards.size(); shard++) {
+                balance += readCache.balance(shard, accountId, shards::get);
+            }
+            return balance;
+        }
+        return queryShards(ledger -> ledger.getBalance(accountId)).stream().mapToLong(Long::longValue).sum();
+    }
+
+    // Every record still in workflow state, one shard after another in ledger order as getHistory returns them.
+    // Shards are queried a page of MAX_HISTORY_PAGE_SIZE records at a time as the stream is consumed, so only one
+    // page is held at once however long the history. afterId resumes after that record, skipping the shards before
+    // its own; accountId keeps only that account's records. Close the stream if it is not consumed to the end.
+    // Fails with InvalidLedgerRequestException when afterId is not a record id any shard could have issued.
+    public Stream<LedgerWorkflow.LedgerRecord> exportHistory(String afterId, String accountId)
+    {
+        final var firstShard = afterId == null ? 0 : shardOfRecord(afterId);
+        awaitLedgers();
+        return IntStream.range(firstShard, shards.size())
+                .boxed()
+                .flatMap(shard -> shardHistory(shards.get(shard), shard == firstShard ? afterId : null, accountId));
+    }
+
+    private static Stream<LedgerWorkflow.LedgerRecord> shardHistory(LedgerWorkflow ledger, String afterId, String accountId)
+    {
+        final Function<String, LedgerWorkflow.HistoryPage> pageAfter = cursor ->
+                ledger.getHistoryPage(new LedgerWorkflow.HistoryPageInput(cursor, LedgerWorkflow.MAX_HISTORY_PAGE_SIZE, accountId));
+        return Stream.iterate(pageAfter.apply(afterId), page -> page != null, page -> page.hasMore() ? pageAfter.apply(page.cursor()) : null)
+                .flatMap(page -> page.records().stream());
+    }
+
+    // The cursor holds one position per shard, comma separated. Shards take turns filling the page so a busy shard
+    // cannot hold back records from the others. Fails with InvalidLedgerRequestException when the cursor was not
+    // issued for these shards.
+    public LedgerWorkflow.HistoryPage getHistoryPage(String cursor, int limit, String accountId)
+    {
+        awaitLedgers();
+        final var shardCursors = parseCursor(cursor);
+        final var shardPages = new ArrayList<CompletableFuture<LedgerWorkflow.HistoryPage>>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            final var ledger = shards.get(shard);
+            final var pageInput = new LedgerWorkflow.HistoryPageInput(shardCursors[shard], limit, accountId);
+            shardPages.add(shards.size() == 1
+                    ? CompletableFuture.completedFuture(ledger.getHistoryPage(pageInput))
+                    : CompletableFuture.supplyAsync(() -> ledger.getHistoryPage(pageInput), blockingCalls));
+        }
+        final var pages = shardPages.stream().map(LedgerService::join).toList();
+        final var pageSize = new LedgerWorkflow.HistoryPageInput(null, limit, null).pageSize();
+        final var records = new ArrayList<LedgerWorkflow.LedgerRecord>(pageSize);
+        final var taken = new int[pages.size()];
+        var progress = true;
+        while (records.size() < pageSize && progress) {
+            progress = false;
+            for (int shard = 0; shard < pages.size() && records.size() < pageSize; shard++) {
+                if (taken[shard] < pages.get(shard).records().size()) {
+                    records.add(pages.get(shard).records().get(taken[shard]++));
+                    progress = true;
+                }
+            }
+        }
+        var hasMore = false;
+        for (int shard = 0; shard < pages.size(); shard++) {
+            final var page = pages.get(shard);
+            if (taken[shard] == page.records().size()) {
+                shardCursors[shard] = page.cursor();
+                hasMore |= page.hasMore();
+            }
+            else {
+                // Records left out of this page are picked up again next time
+                shardCursors[shard] = taken[shard] == 0 ? shardCursors[shard] : page.records().get(taken[shard] - 1).id();
+                hasMore = true;
+            }
+        }
+        return new LedgerWorkflow.HistoryPage(records, formatCursor(shardCursors), hasMore);
+    }
+
+    @PreDestroy
+    public void close()
+    {
+        ledgerStarter.shutdownNow();
+        microBatchers.forEach(MicroBatcher::close);
+        blockingCalls.close();
+    }
+
+    // Surface the workflow client's own exception rather than the future's wrapper
+    private static <T> T join(CompletableFuture<T> future)
+    {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private <T> List<T> queryShards(Function<LedgerWorkflow, T> query)
+    {
+        if (shards.size() == 1) {
+            return List.of(query.apply(shards.get(0)));
+        }
+        final var results = shards.stream()
+                .map(ledger -> CompletableFuture.supplyAsync(() -> query.apply(ledger), blockingCalls))
+                .toList();
+        return results.stream().map(LedgerService::join).toList();
+    }
+
+    private String[] parseCursor(String cursor)
+    {
+        final var shardCursors = new String[shards.size()];
+        if (cursor == null || cursor.isEmpty()) {
+            return shardCursors;
+        }
+        final var positions = cursor.split(",", -1);
+        if (positions.length != shards.size()) {
+            throw new InvalidLedgerRequestException("History cursor " + cursor + " does not match " + shards.size() + " ledger shards");
+        }
+        // Each position is the last record id a shard returned, which its ledger alone can look up
+        for (int shard = 0; shard < positions.length; shard++) {
+            if (!positions[shard].isEmpty() && shardOfRecord(positions[shard]) != shard) {
+                throw new InvalidLedgerRequestException("History cursor " + cursor + " holds record " + positions[shard]
+                        + " in the position of ledger shard " + shard);
+            }
+            shardCursors[shard] = positions[shard].isEmpty() ? null : positions[shard];
+        }
+        return shardCursors;
+    }
+
+    private int shardOfRecord(String recordId)
+    {
+        try {
+            return router.shardOfRecord(recordId);
+        }
+        catch (IllegalArgumentException e) {
+            throw new InvalidLedgerRequestException(e.getMessage(), e);
+        }
+    }
+
+    private static String formatCursor(String[] shardCursors)
+    {
+        return Arrays.stream(shardCursors).map(shardCursor -> shardCursor == null ? "" : shardCursor).collect(Collectors.joining(","));
+    }
+
+    private static Throwable unwrap(Throwable failure)
+    {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
     }
 }
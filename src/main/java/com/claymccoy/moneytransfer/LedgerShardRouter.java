@@ -0,0 +1,68 @@
+package com.claymccoy.moneytransfer;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+// Maps a source account onto one of the ledger shards.
+// Routing on the source account keeps every withdrawal from one account on one actor. An account's history, balance
+// and idempotency keys live in its shard's workflow and are not moved, so the shard count is fixed for the life of
+// the ledgers: LedgerService refuses to start against ledgers running with a different one.
+public class LedgerShardRouter
+{
+    public static final String LEDGER_WORKFLOW_ID = "ledger-workflow";
+
+    private final int shardCount;
+
+    public LedgerShardRouter(int shardCount)
+    {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Ledger shard count must be at least 1, was " + shardCount);
+        }
+        this.shardCount = shardCount;
+    }
+
+    public int shardCount()
+    {
+        return shardCount;
+    }
+
+    public int shardFor(String sourceAccountId)
+    {
+        return Hashing.consistentHash(Hashing.murmur3_32_fixed().hashString(sourceAccountId, StandardCharsets.UTF_8), shardCount);
+    }
+
+    // A single shard keeps the original workflow id so existing deployments pick up their running ledger
+    public String workflowId(int shard)
+    {
+        return shardCount == 1 ? LEDGER_WORKFLOW_ID : LEDGER_WORKFLOW_ID + "-" + shard;
+    }
+
+    // Where shard 0 would run had the deployment been single-shard instead of sharded, or the other way round
+    public String otherLayoutWorkflowId()
+    {
+        return shardCount == 1 ? LEDGER_WORKFLOW_ID + "-0" : LEDGER_WORKFLOW_ID;
+    }
+
+    public String recordIdPrefix(int shard)
+    {
+        return shardCount == 1 ? "" : shard + "-";
+    }
+
+    // The shard whose ledger issued the record id
+    public int shardOfRecord(String recordId)
+    {
+        final var separator = recordId.indexOf('-');
+        try {
+            final var shard = shardCount == 1 ? 0 : Integer.parseInt(recordId.substring(0, separator));
+            Long.parseLong(shardCount == 1 ? recordId : recordId.substring(separator + 1));
+            if (shard >= 0 && shard < shardCount) {
+                return shard;
+            }
+        }
+        catch (NumberFormatException | IndexOutOfBoundsException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Record id " + recordId + " does not belong to any of the " + shardCount + " ledger shards");
+    }
+}
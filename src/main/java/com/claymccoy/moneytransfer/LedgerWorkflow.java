@@ -2,29 +2,262 @@ package com.claymccoy.moneytransfer;
 
 import io.temporal.workflow.QueryMethod;
 import io.temporal.workflow.UpdateMethod;
+import io.temporal.workflow.UpdateValidatorMethod;
 import io.temporal.workflow.WorkflowInterface;
 import io.temporal.workflow.WorkflowMethod;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 
 @WorkflowInterface
 public interface LedgerWorkflow
 {
+    // No fixed event limit; the rollover signals in RolloverOptions.defaults decide when a run continues as new
+    int DEFAULT_EVENT_LIMIT = 0;
+    int DEFAULT_HISTORY_PAGE_SIZE = 100;
+    int MAX_HISTORY_PAGE_SIZE = 1000;
+    // Failure type of updates rejected because the ledger already has LedgerOptions.maxQueuedRecords waiting to dispatch
+    String QUEUE_FULL_FAILURE_TYPE = "LedgerQueueFull";
+    // The SDK reports validator rejections under its own failure type, so clients recognise them by this message prefix
+    String QUEUE_FULL_MESSAGE = "Ledger dispatch queue is full";
+    // Failure type and message prefix of configure updates rejected because the ledger was started for another shard count
+    String SHARD_COUNT_MISMATCH_FAILURE_TYPE = "LedgerShardCountMismatch";
+    String SHARD_COUNT_MISMATCH_MESSAGE = "Ledger was started for a different shard count";
+    int DEFAULT_IDEMPOTENCY_KEYS = 10_000;
+    Duration DEFAULT_IDEMPOTENCY_KEY_TTL = Duration.ofHours(24);
+    // Leaves most of the server's 2MB payload limit to the rest of the continue-as-new input
+    long DEFAULT_IDEMPOTENCY_KEY_BYTES = 256 * 1024;
+    long DEFAULT_MAX_HISTORY_LENGTH = 10_000;
+    long DEFAULT_MAX_HISTORY_SIZE_BYTES = 10L * 1024 * 1024;
+    Duration DEFAULT_MAX_RUN_DURATION = Duration.ofHours(24);
+
     @WorkflowMethod
     void start(StartInput startInput);
 
+    // With compaction enabled this is only the recent window; older records live in the LedgerArchive
     @QueryMethod
     List<LedgerRecord> getHistory();
 
+    // Records after the page input's cursor, oldest first. Polling with the returned cursor only pulls records
+    // accepted since the previous call.
+    @QueryMethod
+    HistoryPage getHistoryPage(HistoryPageInput pageInput);
+
+    @QueryMethod
+    LedgerSummary getSummary();
+
+    // The account's balance across every record, with the records still in workflow state that involve it
+    @QueryMethod
+    AccountHistory getAccountHistory(String accountId);
+
+    // Net of every transfer into and out of the account, 0 for an account the ledger has not seen
+    @QueryMethod
+    long getBalance(String accountId);
+
+    @QueryMethod
+    RolloverStats getRolloverStats();
+
+    // Records accepted but not yet handed to a transfer child, across both priority lanes
+    @QueryMethod
+    int getQueueDepth();
+
+    // The netted settlement a record was dispatched in, null while it is queued or when it was dispatched on its own
+    @QueryMethod
+    Settlement getSettlement(String recordId);
+
     @UpdateMethod
     LedgerRecord transferMoney(TransferMoneyInput transferInput);
 
+    // Rejected updates never reach workflow history, so a full ledger sheds load without growing its state
+    @UpdateValidatorMethod(updateName = "transferMoney")
+    void validateTransferMoney(TransferMoneyInput transferInput);
+
+    // Records every transaction of the batch in one update; results are in the same order as the transactions
+    @UpdateMethod
+    TransferMoneyBatchResult transferMoneyBatch(TransferMoneyBatchInput batchInput);
+
+    @UpdateValidatorMethod(updateName = "transferMoneyBatch")
+    void validateTransferMoneyBatch(TransferMoneyBatchInput batchInput);
+
+    // Hands a running ledger the options a newly started service was configured with. Options that differ from the
+    // ledger's own take effect in its next run, which it continues as new into once the current dispatch is done.
+    @UpdateMethod
+    void configure(ConfigureInput configureInput);
+
+    // Routing would no longer match the accounts each ledger holds, so a ledger refuses a different shard count
+    @UpdateValidatorMethod(updateName = "configure")
+    void validateConfigure(ConfigureInput configureInput);
+
     record TransactionDetails(String sourceAccountId, String destinationAccountId, int amount) {}
 
     record LedgerRecord(String id, TransactionDetails transactionDetails) {}
 
-    record StartInput(List<LedgerRecord> history, long nextId, Queue<LedgerRecord> ledgerRecordQueue, int eventLimit) {}
+    // Running totals over every record the ledger has accepted, including archived ones
+    record LedgerSummary(long recordCount, String lastRecordId, Map<String, Long> balances) {}
+
+    record AccountHistory(String accountId, long balance, List<LedgerRecord> records) {}
+
+    // One transfer child standing in for several records between the same two accounts. transactionDetails holds the
+    // net amount, and a settlement whose records cancel out has an amount of 0 and starts no child at all.
+    record Settlement(String id, TransactionDetails transactionDetails, List<String> recordIds) {}
+
+    enum RolloverReason
+    {
+        CONTINUE_AS_NEW_SUGGESTED, EVENT_LIMIT, HISTORY_LENGTH, HISTORY_SIZE, STATE_SIZE, RUN_DURATION, RECONFIGURED
+    }
+
+    // Limits on a single run beyond eventLimit; 0 (or a null duration) leaves that signal out. maxStateRecords only
+    // works with compaction and a history window below it, as a run carries its window into the next one.
+    // policy: class name of the RolloverPolicy that weighs them, null for ThresholdRolloverPolicy
+    record RolloverOptions(long maxHistoryLength, long maxHistorySizeBytes, int maxStateRecords, Duration maxRunDuration, String policy)
+    {
+        public RolloverOptions(long maxHistoryLength, long maxHistorySizeBytes, int maxStateRecords, Duration maxRunDuration)
+        {
+            this(maxHistoryLength, maxHistorySizeBytes, maxStateRecords, maxRunDuration, null);
+        }
+
+        public static RolloverOptions none()
+        {
+            return new RolloverOptions(0, 0, 0, null);
+        }
+
+        // Well inside the server's own history limits, for servers that never suggest continuing as new
+        public static RolloverOptions defaults()
+        {
+            return new RolloverOptions(DEFAULT_MAX_HISTORY_LENGTH, DEFAULT_MAX_HISTORY_SIZE_BYTES, 0, DEFAULT_MAX_RUN_DURATION);
+        }
+    }
+
+    // How often the ledger has continued as new and why, across all of its runs, plus the size of the last run
+    record RolloverStats(long rollovers, Map<RolloverReason, Long> rolloversByReason, RolloverReason lastReason,
+            long lastRunHistoryLength, long lastRunHistorySizeBytes, long lastRunDurationMillis) {}
+
+    // historyWindow: records kept in workflow state when compacting, 0 keeps the full history
+    // maxConcurrentDispatches: transfer children started together before waiting for them to be running
+    // transferOptions: passed on to every MoneyTransferWorkflow child
+    // transferTaskQueue, activityTaskQueue: where transfer children and archive activities are scheduled,
+    // null keeps them on the ledger's own task queue
+    // maxQueuedRecords: new transfers are rejected while this many records wait to be dispatched, 0 never rejects
+    // maxIdempotencyKeys, idempotencyKeyTtl: how many idempotency keys are remembered and for how long, oldest first;
+    // 0 keys remembers none and a null ttl keeps them until they are pushed out by newer ones
+    // maxIdempotencyKeyBytes: older keys are also forgotten once the remembered transfers would take up more than this
+    // in the continue-as-new input; 0 bounds them by count alone
+    // nettingWindow: when set, queued records are netted into one Settlement per account pair before dispatch, after
+    // waiting this long from the first of them for more to arrive; null dispatches every record as its own child
+    // settlementBatchSize: above 1, queued transfers are handed out in SettlementWorkflow children of up to this many,
+    // which move the money with bulk activity calls; 0 or 1 starts a MoneyTransferWorkflow child per transfer
+    // priorityLanes: when set, high priority transfers wait in a lane of their own ahead of the rest; null queues
+    // every transfer in arrival order
+    record LedgerOptions(int historyWindow, int maxConcurrentDispatches, RolloverOptions rollover,
+            MoneyTransferWorkflow.TransferOptions transferOptions, String transferTaskQueue, String activityTaskQueue, int maxQueuedRecords,
+            int maxIdempotencyKeys, Duration idempotencyKeyTtl, Duration nettingWindow, int settlementBatchSize,
+            PriorityLaneOptions priorityLanes, long maxIdempotencyKeyBytes)
+    {
+        public LedgerOptions(int historyWindow, int maxConcurrentDispatches, RolloverOptions rollover,
+                MoneyTransferWorkflow.TransferOptions transferOptions, String transferTaskQueue, String activityTaskQueue, int maxQueuedRecords,
+                int maxIdempotencyKeys, Duration idempotencyKeyTtl, Duration nettingWindow, int settlementBatchSize)
+        {
+            this(historyWindow, maxConcurrentDispatches, rollover, transferOptions, transferTaskQueue, activityTaskQueue, maxQueuedRecords,
+                    maxIdempotencyKeys, idempotencyKeyTtl, nettingWindow, settlementBatchSize, null);
+        }
+
+        public LedgerOptions(int historyWindow, int maxConcurrentDispatches, RolloverOptions rollover,
+                MoneyTransferWorkflow.TransferOptions transferOptions, String transferTaskQueue, String activityTaskQueue, int maxQueuedRecords,
+                int maxIdempotencyKeys, Duration idempotencyKeyTtl, Duration nettingWindow, int settlementBatchSize,
+                PriorityLaneOptions priorityLanes)
+        {
+            this(historyWindow, maxConcurrentDispatches, rollover, transferOptions, transferTaskQueue, activityTaskQueue, maxQueuedRecords,
+                    maxIdempotencyKeys, idempotencyKeyTtl, nettingWindow, settlementBatchSize, priorityLanes, 0);
+        }
+
+        public static LedgerOptions defaults()
+        {
+            return new LedgerOptions(0, 1, RolloverOptions.defaults(), MoneyTransferWorkflow.TransferOptions.defaults(), null, null, 0,
+                    DEFAULT_IDEMPOTENCY_KEYS, DEFAULT_IDEMPOTENCY_KEY_TTL, null, 0, null, DEFAULT_IDEMPOTENCY_KEY_BYTES);
+        }
+    }
+
+    // The lane a queued transfer waits in
+    enum TransferPriority
+    {
+        HIGH, NORMAL
+    }
+
+    // highPriorityAmount: transfers of at least this amount go to the high priority lane unless sent with a priority
+    // of their own; 0 leaves the lane to transfers that ask for it
+    // highPriorityWeight: high priority records dispatched for every normal one while both lanes have records waiting
+    // maxNormalWait: a normal record that has waited this long is dispatched next, however busy the high priority lane
+    // is; null only ever takes one by weight
+    // highPriorityTaskQueue: where high priority transfer children are scheduled, null keeps them with the others
+    record PriorityLaneOptions(int highPriorityAmount, int highPriorityWeight, Duration maxNormalWait, String highPriorityTaskQueue) {}
+
+    // idempotentTransfers: the remembered idempotency keys, oldest first, so retries are still recognised after continue-as-new
+    // settlements: the netted settlements of records still in history
+    // highPriorityRecordQueue: the high priority lane; ledgerRecordQueue holds the normal one
+    // shardCount: how many ledger shards the accounts were routed across when the ledger started, 0 when not recorded
+    record StartInput(List<LedgerRecord> history, long nextId, Queue<LedgerRecord> ledgerRecordQueue, int eventLimit,
+            String recordIdPrefix, LedgerOptions options, LedgerSummary summary, RolloverStats rolloverStats,
+            List<IdempotentTransfer> idempotentTransfers, List<Settlement> settlements, Queue<LedgerRecord> highPriorityRecordQueue,
+            int shardCount)
+    {
+        public StartInput(List<LedgerRecord> history, long nextId, Queue<LedgerRecord> ledgerRecordQueue, int eventLimit)
+        {
+            this(history, nextId, ledgerRecordQueue, eventLimit, null, null, null, null);
+        }
+
+        public StartInput(List<LedgerRecord> history, long nextId, Queue<LedgerRecord> ledgerRecordQueue, int eventLimit,
+                String recordIdPrefix, LedgerOptions options, LedgerSummary summary, RolloverStats rolloverStats)
+        {
+            this(history, nextId, ledgerRecordQueue, eventLimit, recordIdPrefix, options, summary, rolloverStats, null, null, null);
+        }
+
+        public StartInput(List<LedgerRecord> history, long nextId, Queue<LedgerRecord> ledgerRecordQueue, int eventLimit,
+                String recordIdPrefix, LedgerOptions options, LedgerSummary summary, RolloverStats rolloverStats,
+                List<IdempotentTransfer> idempotentTransfers, List<Settlement> settlements, Queue<LedgerRecord> highPriorityRecordQueue)
+        {
+            this(history, nextId, ledgerRecordQueue, eventLimit, recordIdPrefix, options, summary, rolloverStats, idempotentTransfers,
+                    settlements, highPriorityRecordQueue, 0);
+        }
+    }
+
+    // idempotencyKey: chosen by the client, null for none. A transfer sent again with a key the ledger still remembers
+    // is answered with the record from the first time instead of being recorded twice.
+    // priority: the lane to queue the transfer in, null to choose it by amount. Ignored without priority lanes.
+    record TransferMoneyInput(TransactionDetails transactionDetails, String idempotencyKey, TransferPriority priority)
+    {
+        public TransferMoneyInput(TransactionDetails transactionDetails)
+        {
+            this(transactionDetails, null);
+        }
+
+        public TransferMoneyInput(TransactionDetails transactionDetails, String idempotencyKey)
+        {
+            this(transactionDetails, idempotencyKey, null);
+        }
+    }
+
+    // shardCount: the shards the service routes accounts across; eventLimit and options: as in StartInput
+    record ConfigureInput(int shardCount, int eventLimit, LedgerOptions options) {}
+
+    record IdempotentTransfer(String idempotencyKey, LedgerRecord ledgerRecord, long acceptedAtMillis) {}
+
+    record TransferMoneyBatchInput(List<TransactionDetails> transactions) {}
+
+    record TransferMoneyBatchResult(List<LedgerRecord> ledgerRecords) {}
+
+    // afterId: cursor from a previous page, null to start at the oldest record still in workflow state
+    // limit: records per page, 0 for DEFAULT_HISTORY_PAGE_SIZE and capped at MAX_HISTORY_PAGE_SIZE
+    // accountId: only records with this account as source or destination, null for all
+    record HistoryPageInput(String afterId, int limit, String accountId)
+    {
+        public int pageSize()
+        {
+            return limit > 0 ? Math.min(limit, MAX_HISTORY_PAGE_SIZE) : DEFAULT_HISTORY_PAGE_SIZE;
+        }
+    }
 
-    record TransferMoneyInput(TransactionDetails transactionDetails) {}
+    // cursor: the last record examined, to pass as afterId for the next page; hasMore: records after it remain
+    record HistoryPage(List<LedgerRecord> records, String cursor, boolean hasMore) {}
 }
@@ -1,26 +1,66 @@
 package com.claymccoy.moneytransfer;
 
+import io.temporal.activity.ActivityOptions;
 import io.temporal.api.common.v1.WorkflowExecution;
 import io.temporal.api.enums.v1.ParentClosePolicy;
+import io.temporal.failure.ApplicationFailure;
 import io.temporal.workflow.Async;
 import io.temporal.workflow.ChildWorkflowOptions;
 import io.temporal.workflow.Promise;
 import io.temporal.workflow.Workflow;
 import io.temporal.workflow.WorkflowInit;
+import org.slf4j.Logger;
 
+import java.time.Duration;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Queue;
 
 public class LedgerWorkflowImpl
         implements LedgerWorkflow
 {
-    private int eventLimit = 3;
+    private static final Logger LOG = Workflow.getLogger(LedgerWorkflowImpl.class);
+
+    private int eventLimit = DEFAULT_EVENT_LIMIT;
     private int eventCounter;
     private long nextId = 1;
+    // Keeps record ids (and so child workflow ids) unique when several ledger shards run side by side
+    private String recordIdPrefix = "";
+    // The shard count accounts were routed by when the ledger started, 0 when a multi-shard ledger never recorded it
+    private int shardCount;
+    // Options from a configure update, applied by continuing as new
+    private ConfigureInput pendingConfiguration;
+    private LedgerOptions options = LedgerOptions.defaults();
+    private RolloverPolicy rolloverPolicy;
+    private RolloverStats rolloverStats = new RolloverStats(0, Map.of(), null, 0, 0, 0);
+    private long recordCount;
+    private String lastRecordId;
+    private final Map<String, Long> balances = new HashMap<>();
     private final List<LedgerRecord> history = new ArrayList<>();
+    // The records in history that involve each account, in history order. Rebuilt from history when a run starts
+    // rather than carried through continue-as-new, since it holds nothing history does not.
+    private final Map<String, List<LedgerRecord>> accountRecords = new HashMap<>();
+    // The normal lane; with priority lanes enabled high priority records wait in their own, ahead of it
     private final Queue<LedgerRecord> unhandledLedgerRecordQueue = new ArrayDeque<>();
+    private final Queue<LedgerRecord> highPriorityQueue = new ArrayDeque<>();
+    // High priority records dispatched in a row while normal ones were waiting, for weighted dispatch between lanes
+    private int highPriorityStreak;
+    // When each record queued in this run was accepted, for the dispatch lag metric
+    private final Map<String, Long> enqueuedAtMillis = new HashMap<>();
+    // Transfers sent with an idempotency key, oldest first, so they are evicted from the front
+    private final LinkedHashMap<String, IdempotentTransfer> idempotentTransfers = new LinkedHashMap<>();
+    private long idempotentTransferBytes;
+    // The netted settlement of each record still in history that was dispatched as part of one
+    private final Map<String, Settlement> settlementsByRecordId = new HashMap<>();
+
+    private LedgerArchiveActivity ledgerArchiveActivity;
 
     @WorkflowInit
     public LedgerWorkflowImpl(StartInput startInput)
@@ -29,19 +69,94 @@ public class LedgerWorkflowImpl
             eventLimit = startInput.eventLimit();
             nextId = startInput.nextId();
             history.addAll(startInput.history());
+            history.forEach(this::addToAccountIndex);
             unhandledLedgerRecordQueue.addAll(startInput.ledgerRecordQueue());
+            if (startInput.highPriorityRecordQueue() != null) {
+                highPriorityQueue.addAll(startInput.highPriorityRecordQueue());
+            }
+            if (startInput.recordIdPrefix() != null) {
+                recordIdPrefix = startInput.recordIdPrefix();
+            }
+            shardCount = startInput.shardCount();
+            if (startInput.options() != null) {
+                options = startInput.options();
+            }
+            if (startInput.summary() != null) {
+                recordCount = startInput.summary().recordCount();
+                lastRecordId = startInput.summary().lastRecordId();
+                balances.putAll(startInput.summary().balances());
+            }
+            else {
+                // Runs started before the summary existed still have their full history to rebuild it from
+                history.forEach(this::addToSummary);
+            }
+            if (startInput.rolloverStats() != null) {
+                rolloverStats = startInput.rolloverStats();
+            }
+            if (startInput.idempotentTransfers() != null) {
+                startInput.idempotentTransfers().forEach(transfer -> {
+                    idempotentTransfers.put(transfer.idempotencyKey(), transfer);
+                    idempotentTransferBytes += estimatedSize(transfer);
+                });
+            }
+            if (startInput.settlements() != null) {
+                startInput.settlements().forEach(this::addSettlement);
+            }
         }
+        // Only a single ledger runs without a record id prefix
+        if (shardCount == 0 && recordIdPrefix.isEmpty()) {
+            shardCount = 1;
+        }
+        rolloverPolicy = RolloverPolicy.create(eventLimit, options.rollover());
+        // Archiving must not lose records, so it keeps retrying until the store accepts them
+        ledgerArchiveActivity = Workflow.newActivityStub(LedgerArchiveActivity.class, ActivityOptions.newBuilder()
+                .setTaskQueue(options.activityTaskQueue())
+                .setStartToCloseTimeout(Duration.ofSeconds(30))
+                .build());
     }
 
     @Override
     public void start(StartInput startInput)
     {
         while (true) {
-            Workflow.await(() -> !unhandledLedgerRecordQueue.isEmpty());
-            handleTransferMoneyInput(unhandledLedgerRecordQueue.poll());
-            if (Workflow.getInfo().isContinueAsNewSuggested() || eventCounter > eventLimit) {
-                Workflow.continueAsNew(new StartInput(history, nextId, unhandledLedgerRecordQueue, eventLimit));
+            Workflow.await(() -> queuedRecords() > 0 || pendingConfiguration != null);
+            if (queuedRecords() > 0) {
+                dispatch();
+            }
+            final var rolloverReason = pendingConfiguration != null
+                    ? Optional.of(RolloverReason.RECONFIGURED)
+                    : rolloverPolicy.evaluate(currentRunState());
+            if (rolloverReason.isPresent()) {
+                if (isCompacting()) {
+                    compactHistory();
+                }
+                recordRollover(rolloverReason.get());
+                if (pendingConfiguration != null) {
+                    eventLimit = pendingConfiguration.eventLimit();
+                    options = pendingConfiguration.options();
+                }
+                Workflow.continueAsNew(new StartInput(history, nextId, unhandledLedgerRecordQueue, eventLimit, recordIdPrefix,
+                        options, getSummary(), rolloverStats, new ArrayList<>(idempotentTransfers.values()),
+                        new ArrayList<>(new LinkedHashSet<>(settlementsByRecordId.values())), highPriorityQueue, shardCount));
+            }
+        }
+    }
+
+    private void dispatch()
+    {
+        if (isNetting() || isSettlingInBulk()) {
+            // Let a burst gather so more of it nets together
+            if (isNetting() && !options.nettingWindow().isZero()) {
+                Workflow.sleep(options.nettingWindow());
             }
+            dispatchWholeQueue();
+        }
+        else {
+            dispatchQueuedRecords();
+        }
+        // Compact in chunks rather than per record so the archive sees a few large appends
+        if (isCompacting() && history.size() > 2 * options.historyWindow()) {
+            compactHistory();
         }
     }
 
@@ -51,27 +166,505 @@ public class LedgerWorkflowImpl
         return new ArrayList<>(history);
     }
 
+    @Override
+    public HistoryPage getHistoryPage(HistoryPageInput pageInput)
+    {
+        final var source = pageInput.accountId() == null ? history : accountRecords.getOrDefault(pageInput.accountId(), List.of());
+        final var position = pageInput.afterId() == null ? 0 : positionAfter(source, pageInput.afterId());
+        final var end = Math.min(source.size(), position + pageInput.pageSize());
+        final var records = new ArrayList<>(source.subList(position, end));
+        final var hasMore = end < source.size();
+        // Once a filtered page reaches the end, the cursor moves past the other accounts' records as well
+        var cursor = pageInput.afterId();
+        if (!hasMore && !history.isEmpty()) {
+            cursor = history.get(history.size() - 1).id();
+        }
+        else if (!records.isEmpty()) {
+            cursor = records.get(records.size() - 1).id();
+        }
+        return new HistoryPage(records, cursor, hasMore);
+    }
+
+    @Override
+    public LedgerSummary getSummary()
+    {
+        return new LedgerSummary(recordCount, lastRecordId, new HashMap<>(balances));
+    }
+
+    @Override
+    public AccountHistory getAccountHistory(String accountId)
+    {
+        return new AccountHistory(accountId, getBalance(accountId), new ArrayList<>(accountRecords.getOrDefault(accountId, List.of())));
+    }
+
+    @Override
+    public long getBalance(String accountId)
+    {
+        return balances.getOrDefault(accountId, 0L);
+    }
+
+    @Override
+    public RolloverStats getRolloverStats()
+    {
+        return rolloverStats;
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        return queuedRecords();
+    }
+
+    @Override
+    public Settlement getSettlement(String recordId)
+    {
+        return settlementsByRecordId.get(recordId);
+    }
+
+    @Override
+    public void validateTransferMoney(TransferMoneyInput transferInput)
+    {
+        // A retry of a transfer the ledger already has is answered with its record even while the queue is full
+        if (findIdempotentTransfer(transferInput.idempotencyKey()) == null) {
+            checkQueueCapacity();
+        }
+    }
+
+    // A batch is admitted whole while there is any room, so one larger than the limit still gets through an empty queue
+    @Override
+    public void validateTransferMoneyBatch(TransferMoneyBatchInput batchInput)
+    {
+        checkQueueCapacity();
+    }
+
     @Override
     public LedgerRecord transferMoney(TransferMoneyInput transferInput)
     {
         eventCounter++;
-        final var transactionId = Long.toString(nextId++);
-        final var ledgerRecord = new LedgerRecord(transactionId, transferInput.transactionDetails());
-        unhandledLedgerRecordQueue.add(ledgerRecord);
-        history.add(ledgerRecord);
+        final var previousTransfer = findIdempotentTransfer(transferInput.idempotencyKey());
+        if (previousTransfer != null) {
+            Workflow.getMetricsScope().counter("ledger.duplicate_transfers").inc(1);
+            return previousTransfer.ledgerRecord();
+        }
+        final var ledgerRecord = addLedgerRecord(transferInput.transactionDetails(), transferInput.priority());
+        rememberIdempotencyKey(transferInput.idempotencyKey(), ledgerRecord);
+        reportQueueDepth();
         return ledgerRecord;
     }
 
-    public void handleTransferMoneyInput(LedgerRecord ledgerRecord)
+    @Override
+    public TransferMoneyBatchResult transferMoneyBatch(TransferMoneyBatchInput batchInput)
+    {
+        // The whole batch arrives as a single update, so it only counts once towards the event limit
+        eventCounter++;
+        final var ledgerRecords = new ArrayList<LedgerRecord>(batchInput.transactions().size());
+        for (final var transaction : batchInput.transactions()) {
+            ledgerRecords.add(addLedgerRecord(transaction, null));
+        }
+        reportQueueDepth();
+        return new TransferMoneyBatchResult(ledgerRecords);
+    }
+
+    @Override
+    public void validateConfigure(ConfigureInput configureInput)
+    {
+        // A ledger that never recorded its shard count has a record id prefix, so it was one of several
+        final var mismatch = shardCount > 0 ? configureInput.shardCount() != shardCount : configureInput.shardCount() < 2;
+        if (mismatch) {
+            throw ApplicationFailure.newFailure(SHARD_COUNT_MISMATCH_MESSAGE + ": " + (shardCount > 0 ? shardCount : "several")
+                    + " shards, not " + configureInput.shardCount(), SHARD_COUNT_MISMATCH_FAILURE_TYPE, shardCount);
+        }
+    }
+
+    // Only options that change anything cost a continue-as-new
+    @Override
+    public void configure(ConfigureInput configureInput)
+    {
+        shardCount = configureInput.shardCount();
+        if (configureInput.eventLimit() != eventLimit || !configureInput.options().equals(options)) {
+            pendingConfiguration = configureInput;
+        }
+    }
+
+    // Starts up to maxConcurrentDispatches children from the queue at once, then waits for all of them to start,
+    // so draining the queue pays one child-start round trip per group rather than per record
+    private void dispatchQueuedRecords()
+    {
+        final var dispatchLimit = Math.max(1, options.maxConcurrentDispatches());
+        final var dispatched = new EnumMap<TransferPriority, List<LedgerRecord>>(TransferPriority.class);
+        final var childExecutions = new ArrayList<Promise<WorkflowExecution>>(dispatchLimit);
+        while (queuedRecords() > 0 && childExecutions.size() < dispatchLimit) {
+            final var lane = nextLane();
+            final var ledgerRecord = queueOf(lane).poll();
+            dispatched.computeIfAbsent(lane, ignored -> new ArrayList<>()).add(ledgerRecord);
+            childExecutions.add(startTransferChild(ledgerRecord.id(), ledgerRecord.transactionDetails(), transferTaskQueue(lane)));
+        }
+        // wait for children to start
+        Promise.allOf(childExecutions).get();
+        dispatched.forEach(this::reportDispatchLag);
+        reportQueueDepth();
+    }
+
+    // Weighted fair dispatch: while both lanes have records waiting, highPriorityWeight high priority records go for
+    // each normal one, and a normal record that has waited maxNormalWait goes next regardless
+    private TransferPriority nextLane()
+    {
+        if (highPriorityQueue.isEmpty()) {
+            return TransferPriority.NORMAL;
+        }
+        // High priority records carried into a run without priority lanes are still sent first
+        if (unhandledLedgerRecordQueue.isEmpty() || options.priorityLanes() == null) {
+            return TransferPriority.HIGH;
+        }
+        if (highPriorityStreak >= Math.max(1, options.priorityLanes().highPriorityWeight()) || isNormalLaneOverdue()) {
+            highPriorityStreak = 0;
+            return TransferPriority.NORMAL;
+        }
+        highPriorityStreak++;
+        return TransferPriority.HIGH;
+    }
+
+    // Records carried over from a previous run have waited at least that long, so they count as overdue
+    private boolean isNormalLaneOverdue()
+    {
+        final var maxNormalWait = options.priorityLanes().maxNormalWait();
+        if (maxNormalWait == null) {
+            return false;
+        }
+        final var enqueuedAt = enqueuedAtMillis.get(unhandledLedgerRecordQueue.peek().id());
+        return enqueuedAt == null || Workflow.currentTimeMillis() - enqueuedAt >= maxNormalWait.toMillis();
+    }
+
+    // Takes both lanes whole, high priority first. Each lane is netted and batched on its own, so a high priority
+    // record is never settled together with normal ones on the normal lane's task queue.
+    private void dispatchWholeQueue()
+    {
+        for (final var lane : TransferPriority.values()) {
+            final var queue = queueOf(lane);
+            if (!queue.isEmpty()) {
+                // Cleared before the children start, as transfers accepted meanwhile join the queue for the next round
+                final var dispatched = new ArrayList<>(queue);
+                queue.clear();
+                dispatchWholeLane(lane, dispatched);
+            }
+        }
+        reportQueueDepth();
+    }
+
+    // Nets the lane's records first when enabled and starts maxConcurrentDispatches children at a time: a
+    // MoneyTransferWorkflow per transfer, or a SettlementWorkflow per settlementBatchSize transfers.
+    // The records leave the queue together, so a continue-as-new never splits a netted settlement across runs.
+    private void dispatchWholeLane(TransferPriority lane, List<LedgerRecord> dispatched)
+    {
+        final var taskQueue = transferTaskQueue(lane);
+        final var transfers = isNetting() ? nettedTransfers(dispatched) : dispatched;
+        final var batchSize = isSettlingInBulk() ? options.settlementBatchSize() : 1;
+        final var dispatchLimit = Math.max(1, options.maxConcurrentDispatches());
+        final var childExecutions = new ArrayList<Promise<WorkflowExecution>>(dispatchLimit);
+        for (int start = 0; start < transfers.size(); start += batchSize) {
+            final var batch = transfers.subList(start, Math.min(transfers.size(), start + batchSize));
+            childExecutions.add(batch.size() == 1
+                    ? startTransferChild(batch.get(0).id(), batch.get(0).transactionDetails(), taskQueue)
+                    : startSettlementChild(new ArrayList<>(batch), taskQueue));
+            if (childExecutions.size() == dispatchLimit) {
+                Promise.allOf(childExecutions).get();
+                childExecutions.clear();
+            }
+        }
+        Promise.allOf(childExecutions).get();
+        reportDispatchLag(lane, dispatched);
+    }
+
+    // Nets the records into settlements, linking each record to its settlement, and returns the transfers still to make
+    private List<LedgerRecord> nettedTransfers(List<LedgerRecord> ledgerRecords)
+    {
+        final var settlements = TransferNetting.net(ledgerRecords);
+        final var transfers = new ArrayList<LedgerRecord>(settlements.size());
+        for (final var settlement : settlements) {
+            if (settlement.recordIds().size() > 1) {
+                addSettlement(settlement);
+            }
+            // Records that cancel each other out have nothing left to move
+            if (settlement.recordIds().size() == 1 || settlement.transactionDetails().amount() != 0) {
+                transfers.add(new LedgerRecord(settlement.id(), settlement.transactionDetails()));
+            }
+        }
+        Workflow.getMetricsScope().counter("ledger.netted_records").inc(ledgerRecords.size() - settlements.size());
+        return transfers;
+    }
+
+    private Promise<WorkflowExecution> startTransferChild(String transferId, TransactionDetails transaction, String taskQueue)
     {
         final var moneyTransferWorkflow = Workflow.newChildWorkflowStub(MoneyTransferWorkflow.class,
                 ChildWorkflowOptions.newBuilder()
                         .setParentClosePolicy(ParentClosePolicy.PARENT_CLOSE_POLICY_ABANDON)
-                        .setWorkflowId("moneyTransfer " + ledgerRecord.id())
+                        .setWorkflowId("moneyTransfer " + transferId)
+                        .setTaskQueue(taskQueue)
                         .build());
-        Async.procedure(moneyTransferWorkflow::transfer, new MoneyTransferWorkflow.TransferInput(ledgerRecord.id(), ledgerRecord.transactionDetails()));
-        Promise<WorkflowExecution> childExecution = Workflow.getWorkflowExecution(moneyTransferWorkflow);
-        // wait for child to start
-        childExecution.get();
+        Async.procedure(moneyTransferWorkflow::transfer, new MoneyTransferWorkflow.TransferInput(transferId, transaction, options.transferOptions()));
+        return Workflow.getWorkflowExecution(moneyTransferWorkflow);
+    }
+
+    private Promise<WorkflowExecution> startSettlementChild(List<LedgerRecord> transfers, String taskQueue)
+    {
+        final var settlementId = "batch " + transfers.get(0).id();
+        final var settlementWorkflow = Workflow.newChildWorkflowStub(SettlementWorkflow.class,
+                ChildWorkflowOptions.newBuilder()
+                        .setParentClosePolicy(ParentClosePolicy.PARENT_CLOSE_POLICY_ABANDON)
+                        .setWorkflowId("moneyTransfer " + settlementId)
+                        .setTaskQueue(taskQueue)
+                        .build());
+        Async.function(settlementWorkflow::settle, new SettlementWorkflow.SettlementInput(settlementId, transfers, options.transferOptions()));
+        return Workflow.getWorkflowExecution(settlementWorkflow);
+    }
+
+    private void addSettlement(Settlement settlement)
+    {
+        settlement.recordIds().forEach(recordId -> settlementsByRecordId.put(recordId, settlement));
+    }
+
+    private LedgerRecord addLedgerRecord(TransactionDetails transaction, TransferPriority requestedPriority)
+    {
+        final var transactionId = recordIdPrefix + nextId++;
+        final var ledgerRecord = new LedgerRecord(transactionId, transaction);
+        queueOf(laneFor(transaction, requestedPriority)).add(ledgerRecord);
+        enqueuedAtMillis.put(transactionId, Workflow.currentTimeMillis());
+        history.add(ledgerRecord);
+        addToAccountIndex(ledgerRecord);
+        addToSummary(ledgerRecord);
+        return ledgerRecord;
+    }
+
+    private TransferPriority laneFor(TransactionDetails transaction, TransferPriority requestedPriority)
+    {
+        final var priorityLanes = options.priorityLanes();
+        if (priorityLanes == null) {
+            return TransferPriority.NORMAL;
+        }
+        if (requestedPriority != null) {
+            return requestedPriority;
+        }
+        return priorityLanes.highPriorityAmount() > 0 && transaction.amount() >= priorityLanes.highPriorityAmount()
+                ? TransferPriority.HIGH
+                : TransferPriority.NORMAL;
+    }
+
+    private Queue<LedgerRecord> queueOf(TransferPriority lane)
+    {
+        return lane == TransferPriority.HIGH ? highPriorityQueue : unhandledLedgerRecordQueue;
+    }
+
+    private String transferTaskQueue(TransferPriority lane)
+    {
+        if (lane == TransferPriority.HIGH && options.priorityLanes() != null && options.priorityLanes().highPriorityTaskQueue() != null) {
+            return options.priorityLanes().highPriorityTaskQueue();
+        }
+        return options.transferTaskQueue();
+    }
+
+    private int queuedRecords()
+    {
+        return unhandledLedgerRecordQueue.size() + highPriorityQueue.size();
+    }
+
+    private RolloverPolicy.RunState currentRunState()
+    {
+        final var info = Workflow.getInfo();
+        // Compaction runs before continuing as new, so only the window of history is carried over
+        final var carriedHistory = isCompacting() ? Math.min(history.size(), options.historyWindow()) : history.size();
+        return new RolloverPolicy.RunState(info.isContinueAsNewSuggested(), eventCounter, info.getHistoryLength(),
+                info.getHistorySize(), carriedHistory + queuedRecords(),
+                Duration.ofMillis(Workflow.currentTimeMillis() - info.getRunStartedTimestampMillis()));
+    }
+
+    private void recordRollover(RolloverReason reason)
+    {
+        final var runState = currentRunState();
+        final var rolloversByReason = new EnumMap<RolloverReason, Long>(RolloverReason.class);
+        rolloversByReason.putAll(rolloverStats.rolloversByReason());
+        rolloversByReason.merge(reason, 1L, Long::sum);
+        rolloverStats = new RolloverStats(rolloverStats.rollovers() + 1, rolloversByReason, reason, runState.historyLength(),
+                runState.historySizeBytes(), runState.runDuration().toMillis());
+        Workflow.getMetricsScope().tagged(Map.of("reason", reason.name())).counter("ledger.continue_as_new").inc(1);
+        LOG.info("Continuing ledger as new because of {} after {} events, {} bytes and {} ms.", reason,
+                runState.historyLength(), runState.historySizeBytes(), runState.runDuration().toMillis());
+    }
+
+    private void checkQueueCapacity()
+    {
+        if (options.maxQueuedRecords() > 0 && queuedRecords() >= options.maxQueuedRecords()) {
+            throw ApplicationFailure.newFailure(QUEUE_FULL_MESSAGE + ": " + queuedRecords() + " records waiting",
+                    QUEUE_FULL_FAILURE_TYPE, queuedRecords());
+        }
+    }
+
+    private IdempotentTransfer findIdempotentTransfer(String idempotencyKey)
+    {
+        if (idempotencyKey == null) {
+            return null;
+        }
+        final var transfer = idempotentTransfers.get(idempotencyKey);
+        return transfer == null || isExpired(transfer) ? null : transfer;
+    }
+
+    private void rememberIdempotencyKey(String idempotencyKey, LedgerRecord ledgerRecord)
+    {
+        if (idempotencyKey == null || options.maxIdempotencyKeys() <= 0) {
+            return;
+        }
+        // Keys are kept in the order they were accepted, so the expired ones are all at the front
+        while (!idempotentTransfers.isEmpty() && isExpired(idempotentTransfers.firstEntry().getValue())) {
+            idempotentTransferBytes -= estimatedSize(idempotentTransfers.pollFirstEntry().getValue());
+        }
+        // An expired key that is used again is remembered afresh, at the back
+        final var previous = idempotentTransfers.remove(idempotencyKey);
+        if (previous != null) {
+            idempotentTransferBytes -= estimatedSize(previous);
+        }
+        final var transfer = new IdempotentTransfer(idempotencyKey, ledgerRecord, Workflow.currentTimeMillis());
+        idempotentTransfers.put(idempotencyKey, transfer);
+        idempotentTransferBytes += estimatedSize(transfer);
+        // Every remembered transfer is carried through continue-as-new, so long keys push out old ones sooner
+        final var maxBytes = options.maxIdempotencyKeyBytes();
+        while (idempotentTransfers.size() > options.maxIdempotencyKeys() || (maxBytes > 0 && idempotentTransferBytes > maxBytes)) {
+            idempotentTransferBytes -= estimatedSize(idempotentTransfers.pollFirstEntry().getValue());
+        }
+    }
+
+    // Roughly what the transfer adds to the continue-as-new input as JSON, field names included, for ASCII keys and
+    // account ids; the binary encoding is smaller
+    private static long estimatedSize(IdempotentTransfer transfer)
+    {
+        final var ledgerRecord = transfer.ledgerRecord();
+        final var transaction = ledgerRecord.transactionDetails();
+        return 176L + transfer.idempotencyKey().length() + ledgerRecord.id().length() + transaction.sourceAccountId().length()
+                + transaction.destinationAccountId().length();
+    }
+
+    private boolean isExpired(IdempotentTransfer transfer)
+    {
+        final var ttl = options.idempotencyKeyTtl();
+        return ttl != null && !ttl.isZero() && Workflow.currentTimeMillis() - transfer.acceptedAtMillis() >= ttl.toMillis();
+    }
+
+    private boolean isNetting()
+    {
+        return options.nettingWindow() != null;
+    }
+
+    private boolean isSettlingInBulk()
+    {
+        return options.settlementBatchSize() > 1;
+    }
+
+    private boolean isCompacting()
+    {
+        return options.historyWindow() > 0;
+    }
+
+    // Moves everything but the most recent historyWindow records out to the archive
+    private void compactHistory()
+    {
+        final var overflow = history.size() - options.historyWindow();
+        if (overflow <= 0) {
+            return;
+        }
+        ledgerArchiveActivity.archive(Workflow.getInfo().getWorkflowId(), new ArrayList<>(history.subList(0, overflow)));
+        // Updates accepted while archiving were appended at the end, so the oldest entries are still the archived ones
+        removeFromAccountIndex(history.subList(0, overflow));
+        history.subList(0, overflow).forEach(ledgerRecord -> settlementsByRecordId.remove(ledgerRecord.id()));
+        history.subList(0, overflow).clear();
+        Workflow.getMetricsScope().counter("ledger.archived_records").inc(overflow);
+    }
+
+    // Tagged by ledger, since every shard reports the same gauge and the last update would otherwise win
+    private void reportQueueDepth()
+    {
+        final var ledgerScope = Workflow.getMetricsScope().tagged(Map.of("ledger", Workflow.getInfo().getWorkflowId()));
+        ledgerScope.gauge("ledger.queue.depth").update(queuedRecords());
+        if (options.priorityLanes() != null) {
+            for (final var lane : TransferPriority.values()) {
+                ledgerScope.tagged(Map.of("lane", lane.name().toLowerCase())).gauge("ledger.queue.lane.depth").update(queueOf(lane).size());
+            }
+        }
+    }
+
+    // Time from a record being accepted to its child having started, per lane so each can be held to its own latency
+    // objective; records carried over from a previous run are skipped
+    private void reportDispatchLag(TransferPriority lane, List<LedgerRecord> dispatched)
+    {
+        final var now = Workflow.currentTimeMillis();
+        final var dispatchLag = Workflow.getMetricsScope().tagged(Map.of("lane", lane.name().toLowerCase())).timer("ledger.dispatch.lag");
+        for (final var ledgerRecord : dispatched) {
+            final var enqueuedAt = enqueuedAtMillis.remove(ledgerRecord.id());
+            if (enqueuedAt != null) {
+                dispatchLag.record(com.uber.m3.util.Duration.ofMillis(now - enqueuedAt));
+            }
+        }
+    }
+
+    // Record ids count up within a ledger, so history and each account's records are sorted by sequence number
+    // and can be searched on it. A cursor older than the retained window resumes at the oldest record still held.
+    private int positionAfter(List<LedgerRecord> records, String afterId)
+    {
+        final var afterSequence = sequenceOf(afterId);
+        var low = 0;
+        var high = records.size();
+        while (low < high) {
+            final var middle = (low + high) >>> 1;
+            if (sequenceOf(records.get(middle).id()) <= afterSequence) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long sequenceOf(String recordId)
+    {
+        if (!recordId.startsWith(recordIdPrefix)) {
+            throw new IllegalArgumentException("Record id " + recordId + " does not belong to this ledger");
+        }
+        return Long.parseLong(recordId.substring(recordIdPrefix.length()));
+    }
+
+    private void addToAccountIndex(LedgerRecord ledgerRecord)
+    {
+        final var transaction = ledgerRecord.transactionDetails();
+        accountRecords.computeIfAbsent(transaction.sourceAccountId(), accountId -> new ArrayList<>()).add(ledgerRecord);
+        if (!transaction.destinationAccountId().equals(transaction.sourceAccountId())) {
+            accountRecords.computeIfAbsent(transaction.destinationAccountId(), accountId -> new ArrayList<>()).add(ledgerRecord);
+        }
+    }
+
+    // The archived records are the oldest in history, so they are also at the front of each account's records
+    private void removeFromAccountIndex(List<LedgerRecord> archived)
+    {
+        final var archivedPerAccount = new HashMap<String, Integer>();
+        for (final var ledgerRecord : archived) {
+            final var transaction = ledgerRecord.transactionDetails();
+            archivedPerAccount.merge(transaction.sourceAccountId(), 1, Integer::sum);
+            if (!transaction.destinationAccountId().equals(transaction.sourceAccountId())) {
+                archivedPerAccount.merge(transaction.destinationAccountId(), 1, Integer::sum);
+            }
+        }
+        archivedPerAccount.forEach((accountId, count) -> {
+            final var records = accountRecords.get(accountId);
+            records.subList(0, count).clear();
+            if (records.isEmpty()) {
+                accountRecords.remove(accountId);
+            }
+        });
+    }
+
+    private void addToSummary(LedgerRecord ledgerRecord)
+    {
+        final var transaction = ledgerRecord.transactionDetails();
+        recordCount++;
+        lastRecordId = ledgerRecord.id();
+        balances.merge(transaction.sourceAccountId(), (long) -transaction.amount(), Long::sum);
+        balances.merge(transaction.destinationAccountId(), (long) transaction.amount(), Long::sum);
     }
 }
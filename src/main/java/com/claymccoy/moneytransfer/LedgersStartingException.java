@@ -0,0 +1,14 @@
+package com.claymccoy.moneytransfer;
+
+// The ledger workflows were still starting when the request arrived, so nothing was recorded or read. Callers should
+// back off and retry; readiness reports when the service can take requests.
+public class LedgersStartingException
+        extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    public LedgersStartingException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,137 @@
+package com.claymccoy.moneytransfer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Drives generated transfers through LedgerService at a target rate or concurrency and reports how they fared.
+// Latency runs from when a transfer was due to start rather than when it was sent, so time spent waiting for a
+// concurrency slot behind slow transfers counts against the system instead of quietly lowering the offered load.
+public class LoadGenerator
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final long MAX_TRACKED_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final LedgerService ledgerService;
+    // Where the transfer workflows' metrics are reported, null to leave transfer outcomes out of the report
+    private final MeterRegistry meterRegistry;
+
+    public LoadGenerator(LedgerService ledgerService, MeterRegistry meterRegistry)
+    {
+        this.ledgerService = ledgerService;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public LoadReport run(LoadProperties properties)
+            throws InterruptedException
+    {
+        final var sampler = AccountSampler.of(properties.distribution(), properties.accounts(), properties.zipfExponent());
+        final var random = new SplittableRandom();
+        final var interval = properties.targetRate() > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / properties.targetRate()) : 0;
+        final var slots = new Semaphore(properties.concurrency());
+        final var acceptLatency = new ConcurrentHistogram(MAX_TRACKED_LATENCY_MICROS, 3);
+        final var accepted = new LongAdder();
+        final var rejected = new LongAdder();
+        final var failed = new LongAdder();
+        final var outcomesBefore = transferOutcomes();
+
+        final var startedAt = System.nanoTime();
+        final var deadline = startedAt + properties.duration().toNanos();
+        var sent = 0L;
+        while (properties.transfers() == 0 || sent < properties.transfers()) {
+            final var dueAt = interval > 0 ? startedAt + sent * interval : System.nanoTime();
+            if (dueAt >= deadline) {
+                break;
+            }
+            waitUntil(dueAt);
+            slots.acquire();
+            sent++;
+            try {
+                ledgerService.transferAsync(sampler.nextTransaction(random, properties.maxAmount())).whenComplete((ledgerRecord, failure) -> {
+                    acceptLatency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dueAt), MAX_TRACKED_LATENCY_MICROS));
+                    count(failure, accepted, rejected, failed);
+                    slots.release();
+                });
+            }
+            catch (RuntimeException e) {
+                count(e, accepted, rejected, failed);
+                slots.release();
+            }
+        }
+        slots.acquire(properties.concurrency());
+        final var elapsed = Duration.ofNanos(System.nanoTime() - startedAt);
+
+        final var outcomes = awaitOutcomes(outcomesBefore, accepted.sum(), properties.settleTimeout());
+        return new LoadReport(sent, accepted.sum(), rejected.sum(), failed.sum(), elapsed, acceptLatency.copy(), outcomes);
+    }
+
+    private static void count(Throwable failure, LongAdder accepted, LongAdder rejected, LongAdder failed)
+    {
+        final var cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (cause == null) {
+            accepted.increment();
+        }
+        else if (cause instanceof LedgerBusyException) {
+            rejected.increment();
+        }
+        else {
+            LOG.debug("Generated transfer failed", cause);
+            failed.increment();
+        }
+    }
+
+    private static void waitUntil(long dueAt)
+    {
+        for (var remaining = dueAt - System.nanoTime(); remaining > 0; remaining = dueAt - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    // Transfer workflows finish after the ledger has accepted them, so wait until as many have reported as were accepted
+    private Map<String, Long> awaitOutcomes(Map<String, Long> before, long expected, Duration timeout)
+            throws InterruptedException
+    {
+        if (meterRegistry == null) {
+            return Map.of();
+        }
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        var outcomes = outcomesSince(before);
+        while (outcomes.values().stream().mapToLong(Long::longValue).sum() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            outcomes = outcomesSince(before);
+        }
+        return outcomes;
+    }
+
+    private Map<String, Long> outcomesSince(Map<String, Long> before)
+    {
+        final var outcomes = transferOutcomes();
+        before.forEach((outcome, count) -> outcomes.merge(outcome, -count, Long::sum));
+        outcomes.values().removeIf(count -> count == 0);
+        return outcomes;
+    }
+
+    // Counts of the transfer.latency timer that MoneyTransferWorkflowImpl and SettlementWorkflowImpl report per outcome
+    private Map<String, Long> transferOutcomes()
+    {
+        final var outcomes = new HashMap<String, Long>();
+        if (meterRegistry != null) {
+            for (final Timer timer : meterRegistry.find("transfer.latency").timers()) {
+                outcomes.merge(timer.getId().getTag("outcome"), timer.count(), Long::sum);
+            }
+        }
+        return outcomes;
+    }
+}
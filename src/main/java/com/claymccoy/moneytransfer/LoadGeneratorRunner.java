@@ -0,0 +1,60 @@
+package com.claymccoy.moneytransfer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+// With the `load` profile active the service drives generated transfers through its own LedgerService once it is
+// up, against whatever Temporal service it is configured for, and logs the report. It keeps running afterwards so
+// its metrics can still be scraped.
+@Component
+@Profile("load")
+public class LoadGeneratorRunner
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LoadGeneratorRunner.class);
+
+    private final LoadGenerator loadGenerator;
+    private final LoadProperties loadProperties;
+    private volatile Thread loadThread;
+
+    @Autowired
+    public LoadGeneratorRunner(LedgerService ledgerService, MeterRegistry meterRegistry, LoadProperties loadProperties)
+    {
+        this.loadGenerator = new LoadGenerator(ledgerService, meterRegistry);
+        this.loadProperties = loadProperties;
+    }
+
+    // Runs after the command line runners, so the workers are already polling. The load runs on a thread of its own
+    // so the ready event, and any listener after this one, is not held up for the whole run.
+    @EventListener(ApplicationReadyEvent.class)
+    public void run()
+    {
+        LOG.info("Generating load: {}", loadProperties);
+        loadThread = Thread.ofVirtual().name("load-generator").start(() -> {
+            try {
+                LOG.info("Load report:\n{}", loadGenerator.run(loadProperties).summary());
+            }
+            catch (InterruptedException e) {
+                LOG.info("Load generation stopped before it finished");
+            }
+            catch (RuntimeException e) {
+                LOG.error("Load generation failed", e);
+            }
+        });
+    }
+
+    // Stops a run still in progress when the service shuts down
+    @PreDestroy
+    public void stop()
+    {
+        if (loadThread != null) {
+            loadThread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.claymccoy.moneytransfer;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+// Traffic for LoadGenerator, bound from the `load.*` application properties
+@ConfigurationProperties(prefix = "load")
+public record LoadProperties(
+        // Accounts transfers are drawn from, and how: UNIFORM, or ZIPFIAN with hot accounts skewed by the exponent
+        @DefaultValue("1000") int accounts,
+        @DefaultValue("UNIFORM") AccountSampler.Distribution distribution,
+        @DefaultValue("1.1") double zipfExponent,
+        // Transfers started per second; 0 starts the next one as soon as one of the concurrency slots frees up
+        @DefaultValue("100") double targetRate,
+        // Most transfers in flight at once
+        @DefaultValue("64") int concurrency,
+        // Stops after the duration or after this many transfers, whichever comes first; 0 transfers runs for the duration
+        @DefaultValue("1m") Duration duration,
+        @DefaultValue("0") long transfers,
+        // Amounts are drawn evenly from 1 to this
+        @DefaultValue("100") int maxAmount,
+        // Longest to wait after the last transfer is accepted for the transfer workflows to report their outcomes
+        @DefaultValue("30s") Duration settleTimeout)
+{
+}
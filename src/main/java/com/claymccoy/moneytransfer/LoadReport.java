@@ -0,0 +1,49 @@
+package com.claymccoy.moneytransfer;
+
+import org.HdrHistogram.Histogram;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// sent: transfers LoadGenerator started; each was then accepted by a ledger, rejected as busy, or failed
+// acceptLatency: microseconds from when each transfer was due to start until the ledger answered
+// outcomes: transfer workflow outcomes reported while the load ran (completed, compensated, withdraw_failed, failed)
+public record LoadReport(long sent, long accepted, long rejected, long failed, Duration elapsed, Histogram acceptLatency,
+        Map<String, Long> outcomes)
+{
+    public double throughput()
+    {
+        return elapsed.isZero() ? 0 : accepted * 1e9 / elapsed.toNanos();
+    }
+
+    // Rejected and failed transfers, out of all those sent
+    public double errorRate()
+    {
+        return sent == 0 ? 0 : (double) (rejected + failed) / sent;
+    }
+
+    // Deposits that failed and were refunded, out of all transfer workflows that reported an outcome
+    public double compensationRate()
+    {
+        final var reported = outcomes.values().stream().mapToLong(Long::longValue).sum();
+        return reported == 0 ? 0 : (double) outcomes.getOrDefault("compensated", 0L) / reported;
+    }
+
+    public String summary()
+    {
+        return String.format("""
+                        sent %d, accepted %d, rejected %d, failed %d in %.1fs: %.1f transfers/s, error rate %.2f%%
+                        accept latency ms: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f
+                        transfer outcomes %s, compensation rate %.2f%%""",
+                sent, accepted, rejected, failed, elapsed.toMillis() / 1000.0, throughput(), errorRate() * 100,
+                millis(acceptLatency.getValueAtPercentile(50)), millis(acceptLatency.getValueAtPercentile(90)),
+                millis(acceptLatency.getValueAtPercentile(99)), millis(acceptLatency.getValueAtPercentile(99.9)),
+                millis(acceptLatency.getMaxValue()), outcomes, compensationRate() * 100);
+    }
+
+    private static double millis(long micros)
+    {
+        return micros / (double) TimeUnit.MILLISECONDS.toMicros(1);
+    }
+}
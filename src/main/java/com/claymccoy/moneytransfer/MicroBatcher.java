@@ -0,0 +1,107 @@
+package com.claymccoy.moneytransfer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Collects items from concurrent callers and sends them together, once maxBatchSize items are waiting
+// or maxDelay after the first one arrived, whichever comes first.
+// The sender must return exactly one result per item, in the order the items were given.
+public class MicroBatcher<T, R>
+        implements AutoCloseable
+{
+    private record Pending<T, R>(T item, CompletableFuture<R> result) {}
+
+    private final int maxBatchSize;
+    private final Duration maxDelay;
+    private final Function<List<T>, List<R>> sender;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "micro-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService sendExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private List<Pending<T, R>> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    public MicroBatcher(int maxBatchSize, Duration maxDelay, Function<List<T>, List<R>> sender)
+    {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Micro batch size must be at least 1, was " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+        this.sender = sender;
+    }
+
+    public CompletableFuture<R> submit(T item)
+    {
+        final var result = new CompletableFuture<R>();
+        List<Pending<T, R>> fullBatch = null;
+        synchronized (this) {
+            pending.add(new Pending<>(item, result));
+            if (pending.size() >= maxBatchSize) {
+                fullBatch = drain();
+            }
+            else if (pending.size() == 1) {
+                scheduledFlush = scheduler.schedule(this::flush, maxDelay.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        if (fullBatch != null) {
+            send(fullBatch);
+        }
+        return result;
+    }
+
+    @Override
+    public void close()
+    {
+        flush();
+        scheduler.shutdown();
+        sendExecutor.shutdown();
+    }
+
+    private void flush()
+    {
+        final List<Pending<T, R>> batch;
+        synchronized (this) {
+            batch = drain();
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    private List<Pending<T, R>> drain()
+    {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        final var batch = pending;
+        pending = new ArrayList<>();
+        return batch;
+    }
+
+    private void send(List<Pending<T, R>> batch)
+    {
+        sendExecutor.execute(() -> {
+            try {
+                final var results = sender.apply(batch.stream().map(Pending::item).toList());
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).result().complete(results.get(i));
+                }
+            }
+            catch (RuntimeException e) {
+                batch.forEach(waiting -> waiting.result().completeExceptionally(e));
+            }
+        });
+    }
+}
@@ -1,26 +1,55 @@
 package com.claymccoy.moneytransfer;
 
 import com.claymccoy.temporal.TemporalConfig;
+import com.uber.m3.tally.RootScopeBuilder;
+import com.uber.m3.tally.Scope;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.temporal.client.WorkflowClient;
+import io.temporal.client.WorkflowClientOptions;
+import io.temporal.common.reporter.MicrometerClientStatsReporter;
 import io.temporal.serviceclient.WorkflowServiceStubs;
+import io.temporal.serviceclient.WorkflowServiceStubsOptions;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Path;
+
 @Configuration
+@EnableConfigurationProperties({LedgerProperties.class, WorkerProperties.class, AccountProperties.class,
+        AccountActivityProperties.class, LoadProperties.class})
 public class MoneyTransferModule
 {
     public static final String MONEY_TRANSFER_TASK_QUEUE = "MONEY_TRANSFER_TASK_QUEUE";
 
+    // Temporal reports its client, worker and workflow metrics through Tally; this bridges them into Micrometer.
+    // Closing the scope stops its reporting thread after a last report.
+    @Bean(destroyMethod = "close")
+    public Scope temporalMetricsScope(MeterRegistry meterRegistry)
+    {
+        return new RootScopeBuilder()
+                .reporter(new MicrometerClientStatsReporter(meterRegistry))
+                .reportEvery(com.uber.m3.util.Duration.ofSeconds(10));
+    }
+
     @Bean
-    public WorkflowServiceStubs workflowServiceStubs()
+    public WorkflowServiceStubs workflowServiceStubs(Scope temporalMetricsScope)
     {
-        return WorkflowServiceStubs.newLocalServiceStubs();
+        return WorkflowServiceStubs.newServiceStubs(WorkflowServiceStubsOptions.newBuilder()
+                .setMetricsScope(temporalMetricsScope)
+                .build());
     }
 
+    // Workers are created from this client, so they share its data converter
     @Bean
-    public WorkflowClient workflowClient(WorkflowServiceStubs serviceStubs)
+    public WorkflowClient workflowClient(WorkflowServiceStubs serviceStubs, LedgerProperties ledgerProperties)
     {
-        return WorkflowClient.newInstance(serviceStubs);
+        final var options = WorkflowClientOptions.newBuilder();
+        if (ledgerProperties.binaryPayloads()) {
+            options.setDataConverter(LedgerPayloadConverter.newDataConverter(ledgerProperties.payloadCompressionThresholdBytes()));
+        }
+        return WorkflowClient.newInstance(serviceStubs, options.build());
     }
 
     @Bean
@@ -30,8 +59,31 @@ public class MoneyTransferModule
     }
 
     @Bean
-    public AccountActivity accountActivity()
+    public LedgerArchive ledgerArchive(LedgerProperties ledgerProperties)
+    {
+        return new FileLedgerArchive(Path.of(ledgerProperties.archiveDirectory()));
+    }
+
+    @Bean
+    public AccountActivityOptions accountActivityOptions(AccountActivityProperties accountActivityProperties)
+    {
+        return new AccountActivityOptions(accountActivityProperties);
+    }
+
+    @Bean(destroyMethod = "close")
+    public AccountBalances accountBalances(AccountProperties accountProperties, MeterRegistry meterRegistry)
+    {
+        final var journal = accountProperties.journalFile().isBlank() ? null : new FileAccountJournal(Path.of(accountProperties.journalFile()));
+        final var balances = new AccountBalances(accountProperties.lockStripes(), journal);
+        FunctionCounter.builder("account.lock.contended", balances, AccountBalances::contendedLocks)
+                .description("Account operations that waited for another to release their lock stripe")
+                .register(meterRegistry);
+        return balances;
+    }
+
+    @Bean
+    public AccountActivity accountActivity(AccountBalances accountBalances, AccountProperties accountProperties)
     {
-        return new AccountActivityImpl();
+        return new AccountActivityImpl(accountBalances, accountProperties.simulateDepositFailures());
     }
 }
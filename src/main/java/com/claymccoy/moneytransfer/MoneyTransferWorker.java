@@ -3,29 +3,140 @@ package com.claymccoy.moneytransfer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import com.claymccoy.temporal.TemporalConfig;
+import io.temporal.worker.Worker;
 import io.temporal.worker.WorkerFactory;
+import io.temporal.worker.WorkerFactoryOptions;
+import io.temporal.worker.WorkerOptions;
+import jakarta.annotation.PreDestroy;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class MoneyTransferWorker
 {
     private final WorkerFactory factory;
     private final String taskQueue;
+    private final WorkerProperties workerProperties;
+    private final LedgerProperties ledgerProperties;
     private final AccountActivity accountActivity;
+    private final LedgerArchive ledgerArchive;
+    private final AccountActivityOptions accountActivityOptions;
+    private volatile boolean started;
 
     @Autowired
-    public MoneyTransferWorker(TemporalConfig temporalConfig, AccountActivity accountActivity)
+    public MoneyTransferWorker(TemporalConfig temporalConfig, WorkerProperties workerProperties, LedgerProperties ledgerProperties,
+            AccountActivity accountActivity, LedgerArchive ledgerArchive, AccountActivityOptions accountActivityOptions)
     {
-        factory = WorkerFactory.newInstance(temporalConfig.client());
+        factory = WorkerFactory.newInstance(temporalConfig.client(), workerFactoryOptions(workerProperties));
         this.taskQueue = temporalConfig.taskQueue();
+        this.workerProperties = workerProperties;
+        this.ledgerProperties = ledgerProperties;
         this.accountActivity = accountActivity;
+        this.ledgerArchive = ledgerArchive;
+        this.accountActivityOptions = accountActivityOptions;
     }
 
+    // Ledger workflows, transfer workflows, high priority transfer workflows and activities each poll their own task
+    // queue when one is configured, so they can be scaled separately; queues left on the default share a single worker.
+    // Local activities run on the worker of the workflow calling them, so with local activities on, every transfer
+    // worker has the account activities too, or each call would fail over to a regular activity on the activity queue.
     public void init()
     {
-        final var worker = factory.newWorker(taskQueue);
-        worker.registerWorkflowImplementationTypes(LedgerWorkflowImpl.class);
-        worker.registerWorkflowImplementationTypes(MoneyTransferWorkflowImpl.class);
-        worker.registerActivitiesImplementations(accountActivity);
+        final var workers = new HashMap<String, Worker>();
+        final var activityQueue = workerProperties.activityTaskQueue(taskQueue);
+        workerFor(workers, taskQueue).registerWorkflowImplementationTypes(LedgerWorkflowImpl.class);
+        final var highPriorityQueue = workerProperties.highPriorityTransferTaskQueue(taskQueue);
+        final var transferQueues = new LinkedHashSet<>(List.of(workerProperties.transferTaskQueue(taskQueue), highPriorityQueue));
+        if (!workers.containsKey(highPriorityQueue) && !highPriorityQueue.equals(activityQueue)
+                && !highPriorityQueue.equals(workerProperties.transferTaskQueue(taskQueue))) {
+            workers.put(highPriorityQueue, factory.newWorker(highPriorityQueue, highPriorityWorkerOptions(workerProperties)));
+        }
+        for (final var transferQueue : transferQueues) {
+            final var transferWorker = workerFor(workers, transferQueue);
+            transferWorker.registerWorkflowImplementationFactory(MoneyTransferWorkflow.class,
+                    () -> new MoneyTransferWorkflowImpl(accountActivityOptions));
+            transferWorker.registerWorkflowImplementationFactory(SettlementWorkflow.class,
+                    () -> new SettlementWorkflowImpl(accountActivityOptions));
+            if (ledgerProperties.localActivities() && !transferQueue.equals(activityQueue)) {
+                transferWorker.registerActivitiesImplementations(accountActivity);
+            }
+        }
+        workerFor(workers, activityQueue)
+                .registerActivitiesImplementations(accountActivity, new LedgerArchiveActivityImpl(ledgerArchive));
         factory.start();
+        started = true;
+    }
+
+    // Whether the workers are polling their task queues
+    public boolean isStarted()
+    {
+        return started && factory.isStarted() && !factory.isShutdown();
+    }
+
+    // Stops polling and gives tasks already running a chance to finish
+    @PreDestroy
+    public void shutdown()
+    {
+        started = false;
+        factory.shutdown();
+        factory.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private Worker workerFor(Map<String, Worker> workers, String workerTaskQueue)
+    {
+        return workers.computeIfAbsent(workerTaskQueue, queue -> factory.newWorker(queue, workerOptions(workerProperties)));
+    }
+
+    static WorkerFactoryOptions workerFactoryOptions(WorkerProperties properties)
+    {
+        final var options = WorkerFactoryOptions.newBuilder();
+        if (properties.stickyCacheSize() > 0) {
+            options.setWorkflowCacheSize(properties.stickyCacheSize());
+        }
+        if (properties.maxWorkflowThreads() > 0) {
+            options.setMaxWorkflowThreadCount(properties.maxWorkflowThreads());
+        }
+        return options.build();
+    }
+
+    // The other workers' options, with the high priority worker's own workflow task pollers and slots where set
+    static WorkerOptions highPriorityWorkerOptions(WorkerProperties properties)
+    {
+        final var options = WorkerOptions.newBuilder(workerOptions(properties));
+        if (properties.highPriorityWorkflowTaskPollers() > 0) {
+            options.setMaxConcurrentWorkflowTaskPollers(properties.highPriorityWorkflowTaskPollers());
+        }
+        if (properties.highPriorityMaxConcurrentWorkflowTasks() > 0) {
+            options.setMaxConcurrentWorkflowTaskExecutionSize(properties.highPriorityMaxConcurrentWorkflowTasks());
+        }
+        return options.build();
+    }
+
+    static WorkerOptions workerOptions(WorkerProperties properties)
+    {
+        final var options = WorkerOptions.newBuilder();
+        if (properties.workflowTaskPollers() > 0) {
+            options.setMaxConcurrentWorkflowTaskPollers(properties.workflowTaskPollers());
+        }
+        if (properties.activityTaskPollers() > 0) {
+            options.setMaxConcurrentActivityTaskPollers(properties.activityTaskPollers());
+        }
+        if (properties.maxConcurrentWorkflowTasks() > 0) {
+            options.setMaxConcurrentWorkflowTaskExecutionSize(properties.maxConcurrentWorkflowTasks());
+        }
+        if (properties.maxConcurrentActivities() > 0) {
+            options.setMaxConcurrentActivityExecutionSize(properties.maxConcurrentActivities());
+        }
+        if (properties.maxConcurrentLocalActivities() > 0) {
+            options.setMaxConcurrentLocalActivityExecutionSize(properties.maxConcurrentLocalActivities());
+        }
+        // Activities here mostly wait on I/O, so a virtual thread per activity costs far less than a pooled platform thread
+        options.setUsingVirtualThreadsOnActivityWorker(properties.virtualThreads());
+        options.setUsingVirtualThreadsOnLocalActivityWorker(properties.virtualThreads());
+        return options.build();
     }
 }
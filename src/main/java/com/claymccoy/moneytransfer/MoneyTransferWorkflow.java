@@ -3,11 +3,31 @@ package com.claymccoy.moneytransfer;
 import io.temporal.workflow.WorkflowInterface;
 import io.temporal.workflow.WorkflowMethod;
 
+import java.time.Duration;
+
 @WorkflowInterface
 public interface MoneyTransferWorkflow
 {
     @WorkflowMethod
     void transfer(TransferInput transferInput);
 
-    record TransferInput(String id, LedgerWorkflow.TransactionDetails transactionDetails) {}
+    // localActivities: run account activities as local activities, falling back to regular activities
+    // when a local call takes longer than localActivityTimeout or fails localActivityMaxAttempts times
+    // activityTaskQueue: where regular account activities are scheduled, null keeps them on the workflow's task queue
+    record TransferOptions(boolean localActivities, Duration localActivityTimeout, int localActivityMaxAttempts,
+            String activityTaskQueue)
+    {
+        public static TransferOptions defaults()
+        {
+            return new TransferOptions(false, Duration.ofSeconds(2), 2, null);
+        }
+    }
+
+    record TransferInput(String id, LedgerWorkflow.TransactionDetails transactionDetails, TransferOptions options)
+    {
+        public TransferInput(String id, LedgerWorkflow.TransactionDetails transactionDetails)
+        {
+            this(id, transactionDetails, null);
+        }
+    }
 }
@@ -2,48 +2,36 @@ package com.claymccoy.moneytransfer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import io.temporal.activity.ActivityOptions;
-import io.temporal.common.RetryOptions;
+import io.temporal.failure.ActivityFailure;
 import io.temporal.workflow.Workflow;
 
-import java.time.Duration;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public class MoneyTransferWorkflowImpl
         implements MoneyTransferWorkflow
 {
     private static final Logger LOG = LoggerFactory.getLogger(MoneyTransferWorkflowImpl.class);
-    private static final String WITHDRAW = "Withdraw";
 
-    // RetryOptions specify how to automatically handle retries when Activities fail
-    private final RetryOptions retryoptions = RetryOptions.newBuilder()
-            .setInitialInterval(Duration.ofSeconds(1)) // Wait 1 second before first retry
-            .setMaximumInterval(Duration.ofSeconds(20)) // Do not exceed 20 seconds between retries
-            .setBackoffCoefficient(2) // Wait 1 second, then 2, then 4, etc
-            .setMaximumAttempts(3) // Fail after 3 attempts
-            .build();
+    // Shared by every execution on the worker instead of being rebuilt for each instantiation and replay
+    private final AccountActivityOptions accountActivityOptions;
 
-    // ActivityOptions specify the limits on how long an Activity can execute before
-    // being interrupted by the Orchestration service
-    private final ActivityOptions defaultActivityOptions = ActivityOptions.newBuilder()
-            .setRetryOptions(retryoptions) // Apply the RetryOptions defined above
-            .setStartToCloseTimeout(Duration.ofSeconds(2)) // Max execution time for single Activity
-            .setScheduleToCloseTimeout(Duration.ofSeconds(5000)) // Entire duration from scheduling to completion including queue time
-            .build();
+    // ActivityStubs enable calls to methods as if the Activity object is local but actually perform an RPC invocation
+    private AccountActivity accountActivityStub;
 
-    private final Map<String, ActivityOptions> perActivityMethodOptions = new HashMap<String, ActivityOptions>() {{
-        // A heartbeat time-out is a proof-of life indicator that an activity is still working.
-        // The 5 second duration used here waits for up to 5 seconds to hear a heartbeat.
-        // If one is not heard, the Activity fails.
-        // The `withdraw` method is hard-coded to succeed, so this never happens.
-        // Use heartbeats for long-lived event-driven applications.
-            put(WITHDRAW, ActivityOptions.newBuilder().setHeartbeatTimeout(Duration.ofSeconds(5)).build());
-        }
-    };
+    // Local activities run in the workflow worker itself, inside the current workflow task,
+    // so a happy-path transfer completes without any activity task queue round trips
+    private AccountActivity localAccountActivityStub;
 
-    // ActivityStubs enable calls to methods as if the Activity object is local but actually perform an RPC invocation
-    private final AccountActivity accountActivityStub = Workflow.newActivityStub(AccountActivity.class, defaultActivityOptions, perActivityMethodOptions);
+    public MoneyTransferWorkflowImpl()
+    {
+        this(AccountActivityOptions.DEFAULTS);
+    }
+
+    public MoneyTransferWorkflowImpl(AccountActivityOptions accountActivityOptions)
+    {
+        this.accountActivityOptions = accountActivityOptions;
+    }
 
     // The transfer method is the entry point to the Workflow
     // Activity method executions can be orchestrated here or from within other Activity methods
@@ -54,20 +42,30 @@ public class MoneyTransferWorkflowImpl
         final var sourceAccountId = transaction.sourceAccountId();
         final var destinationAccountId = transaction.destinationAccountId();
         final var referenceId = transferInput.id();
+        final var startedAt = Workflow.currentTimeMillis();
+        final var options = transferInput.options() != null ? transferInput.options() : TransferOptions.defaults();
+        accountActivityStub = Workflow.newActivityStub(AccountActivity.class, accountActivityOptions.activityOptions(options.activityTaskQueue()),
+                accountActivityOptions.methodOptions());
+        if (options.localActivities()) {
+            localAccountActivityStub = Workflow.newLocalActivityStub(AccountActivity.class,
+                    accountActivityOptions.localActivityOptions(options.localActivityTimeout(), options.localActivityMaxAttempts()));
+        }
 
         // Withdraw funds from source
         try {
-            accountActivityStub.withdraw(sourceAccountId, referenceId, transaction.amount());
+            callAccountActivity(accountActivity -> accountActivity.withdraw(sourceAccountId, referenceId, transaction.amount()));
         }
         catch (Exception e) {
             LOG.info("[%s] Withdrawal of $%d from account %s failed", referenceId, transaction.amount(), sourceAccountId);
+            recordTransferLatency(startedAt, "withdraw_failed");
             throw(e);
         }
 
         // Deposit funds to destination
         try {
-            accountActivityStub.deposit(destinationAccountId, referenceId, transaction.amount());
+            callAccountActivity(accountActivity -> accountActivity.deposit(destinationAccountId, referenceId, transaction.amount()));
             LOG.info("[%s] Transaction succeeded.\n", referenceId);
+            recordTransferLatency(startedAt, "completed");
         }
         catch (Exception eDeposit) {
             // If the deposit fails, for any exception, it's caught here
@@ -75,19 +73,51 @@ public class MoneyTransferWorkflowImpl
             try {
                 // Perform `refund` Activity
                 LOG.info("[%s] Refunding $%d to account %s.\n", referenceId, transaction.amount(), sourceAccountId);
-                accountActivityStub.refund(sourceAccountId, referenceId, transaction.amount());
+                callAccountActivity(accountActivity -> accountActivity.refund(sourceAccountId, referenceId, transaction.amount()));
                 LOG.info("[%s] Refund to originating account was successful.\n", referenceId);
                 LOG.info("[%s] Transaction is complete. No transfer made.\n", referenceId);
+                recordCompensation("refunded");
+                recordTransferLatency(startedAt, "compensated");
             }
             catch (Exception eRefund) {
                 // A recovery mechanism can fail too. Handle any exception here
                 LOG.info("[%s] Deposit of $%d to account %s failed. Did not compensate withdrawal.\n",
                         referenceId, transaction.amount(), destinationAccountId);
                 LOG.info("[%s] Workflow failed.", referenceId);
+                recordCompensation("failed");
+                recordTransferLatency(startedAt, "failed");
 
                 // Rethrowing the exception causes a Workflow Task failure
                 throw(eRefund);
             }
         }
     }
+
+    // Try the local activity first when enabled. If it times out or runs out of retries the call is repeated
+    // as a regular activity with the full retry policy, so account operations must tolerate being applied twice
+    // under the same referenceId.
+    private void callAccountActivity(Consumer<AccountActivity> call)
+    {
+        if (localAccountActivityStub != null) {
+            try {
+                call.accept(localAccountActivityStub);
+                return;
+            }
+            catch (ActivityFailure e) {
+                LOG.info("Local account activity failed, retrying as a regular activity: {}", e.getMessage());
+            }
+        }
+        call.accept(accountActivityStub);
+    }
+
+    private static void recordTransferLatency(long startedAt, String outcome)
+    {
+        Workflow.getMetricsScope().tagged(Map.of("outcome", outcome)).timer("transfer.latency")
+                .record(com.uber.m3.util.Duration.ofMillis(Workflow.currentTimeMillis() - startedAt));
+    }
+
+    private static void recordCompensation(String result)
+    {
+        Workflow.getMetricsScope().tagged(Map.of("result", result)).counter("transfer.compensations").inc(1);
+    }
 }
@@ -0,0 +1,36 @@
+package com.claymccoy.moneytransfer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.time.Duration;
+import java.util.Optional;
+
+// Decides when the ledger workflow should continue as new.
+// Policies run inside the workflow, so they may only look at the run state they are given.
+public interface RolloverPolicy
+{
+    Optional<LedgerWorkflow.RolloverReason> evaluate(RunState runState);
+
+    // eventCount: updates accepted by this run, stateRecords: history and queued records carried into the next run,
+    // leaving out the records compaction will archive first
+    record RunState(boolean continueAsNewSuggested, int eventCount, long historyLength, long historySizeBytes,
+            int stateRecords, Duration runDuration) {}
+
+    // The policy the options name, ThresholdRolloverPolicy when they name none. Another policy is a RolloverPolicy
+    // class with a public constructor taking the event limit and the options, on the class path of every ledger worker.
+    static RolloverPolicy create(int eventLimit, LedgerWorkflow.RolloverOptions options)
+    {
+        if (options == null || options.policy() == null) {
+            return new ThresholdRolloverPolicy(eventLimit, options);
+        }
+        try {
+            return Class.forName(options.policy())
+                    .asSubclass(RolloverPolicy.class)
+                    .getConstructor(int.class, LedgerWorkflow.RolloverOptions.class)
+                    .newInstance(eventLimit, options);
+        }
+        catch (ReflectiveOperationException | ClassCastException e) {
+            final var cause = e instanceof InvocationTargetException invocationFailure ? invocationFailure.getCause() : e;
+            throw new IllegalArgumentException("Cannot create rollover policy " + options.policy(), cause);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.claymccoy.moneytransfer;
+
+import io.temporal.workflow.WorkflowInterface;
+import io.temporal.workflow.WorkflowMethod;
+
+import java.util.List;
+
+@WorkflowInterface
+public interface SettlementWorkflow
+{
+    // Legs sent in one bulk activity call, so a large settlement does not build one oversized payload
+    int MAX_LEGS_PER_CALL = 500;
+
+    // Moves money for many transfers at once: all withdrawals, then all deposits, then refunds for the deposits that
+    // failed, each step in bulk activity calls of up to MAX_LEGS_PER_CALL legs. A handful of activity tasks replaces
+    // the two or three that every MoneyTransferWorkflow runs for its one transfer.
+    @WorkflowMethod
+    SettlementResult settle(SettlementInput settlementInput);
+
+    // What happened to one transfer, matching the outcomes MoneyTransferWorkflow reports
+    enum TransferOutcome
+    {
+        // Withdrawn and deposited
+        COMPLETED,
+        // Nothing was moved
+        WITHDRAW_FAILED,
+        // The deposit failed and the withdrawal was refunded
+        COMPENSATED,
+        // The deposit and the refund both failed, leaving the money withdrawn
+        FAILED
+    }
+
+    // transfers: the id of each is the referenceId of its account operations
+    record SettlementInput(String id, List<LedgerWorkflow.LedgerRecord> transfers, MoneyTransferWorkflow.TransferOptions options) {}
+
+    // outcomes: one for each transfer, in the order they were given
+    record SettlementResult(List<TransferOutcome> outcomes) {}
+}
@@ -0,0 +1,157 @@
+package com.claymccoy.moneytransfer;
+
+import io.temporal.failure.ActivityFailure;
+import io.temporal.workflow.Async;
+import io.temporal.workflow.Functions;
+import io.temporal.workflow.Promise;
+import io.temporal.workflow.Workflow;
+import org.slf4j.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SettlementWorkflowImpl
+        implements SettlementWorkflow
+{
+    private static final Logger LOG = Workflow.getLogger(SettlementWorkflowImpl.class);
+
+    // Shared by every execution on the worker instead of being rebuilt for each instantiation and replay
+    private final AccountActivityOptions accountActivityOptions;
+
+    public SettlementWorkflowImpl()
+    {
+        this(AccountActivityOptions.DEFAULTS);
+    }
+
+    public SettlementWorkflowImpl(AccountActivityOptions accountActivityOptions)
+    {
+        this.accountActivityOptions = accountActivityOptions;
+    }
+
+    @Override
+    public SettlementResult settle(SettlementInput settlementInput)
+    {
+        final var startedAt = Workflow.currentTimeMillis();
+        final var options = settlementInput.options() != null ? settlementInput.options() : MoneyTransferWorkflow.TransferOptions.defaults();
+        // A bulk call fails as a whole only when it could not run at all; its legs then count as failed for that attempt.
+        // Each call carries up to MAX_LEGS_PER_CALL legs, so the batch methods get longer timeouts of their own.
+        final var accountActivity = Workflow.newActivityStub(AccountActivity.class, accountActivityOptions.activityOptions(options.activityTaskQueue()),
+                accountActivityOptions.methodOptions());
+        final var transfers = settlementInput.transfers();
+        final var outcomes = new HashMap<String, TransferOutcome>();
+
+        final var failedWithdrawals = applyLegs(accountActivity::withdrawBatch, "WithdrawBatch", sourceLegs(transfers));
+        final var withdrawn = new ArrayList<LedgerWorkflow.LedgerRecord>(transfers.size());
+        for (final var transfer : transfers) {
+            if (failedWithdrawals.contains(transfer.id())) {
+                outcomes.put(transfer.id(), TransferOutcome.WITHDRAW_FAILED);
+            }
+            else {
+                withdrawn.add(transfer);
+            }
+        }
+
+        final var failedDeposits = applyLegs(accountActivity::depositBatch, "DepositBatch", withdrawn.stream()
+                .map(transfer -> new AccountActivity.AccountLeg(transfer.transactionDetails().destinationAccountId(), transfer.id(),
+                        transfer.transactionDetails().amount()))
+                .toList());
+        final var toRefund = new ArrayList<LedgerWorkflow.LedgerRecord>();
+        for (final var transfer : withdrawn) {
+            if (failedDeposits.contains(transfer.id())) {
+                toRefund.add(transfer);
+            }
+            else {
+                outcomes.put(transfer.id(), TransferOutcome.COMPLETED);
+            }
+        }
+
+        // Compensate each failed deposit by refunding its withdrawal, as MoneyTransferWorkflowImpl does for one transfer
+        final var failedRefunds = applyLegs(accountActivity::refundBatch, "RefundBatch", sourceLegs(toRefund));
+        for (final var transfer : toRefund) {
+            final var refunded = !failedRefunds.contains(transfer.id());
+            outcomes.put(transfer.id(), refunded ? TransferOutcome.COMPENSATED : TransferOutcome.FAILED);
+            recordCompensation(refunded ? "refunded" : "failed");
+        }
+        if (!failedRefunds.isEmpty()) {
+            LOG.info("[{}] {} deposits failed and could not be refunded.", settlementInput.id(), failedRefunds.size());
+        }
+
+        final var results = transfers.stream().map(transfer -> outcomes.get(transfer.id())).toList();
+        results.forEach(outcome -> recordTransferLatency(startedAt, outcome));
+        return new SettlementResult(results);
+    }
+
+    private static List<AccountActivity.AccountLeg> sourceLegs(List<LedgerWorkflow.LedgerRecord> transfers)
+    {
+        return transfers.stream()
+                .map(transfer -> new AccountActivity.AccountLeg(transfer.transactionDetails().sourceAccountId(), transfer.id(),
+                        transfer.transactionDetails().amount()))
+                .toList();
+    }
+
+    // Applies the legs in bulk calls and returns the referenceIds still failing. Failed legs are tried again under the
+    // activity type's retry policy, so each gets the attempts and backoff MoneyTransferWorkflowImpl's activity would.
+    private Set<String> applyLegs(Functions.Func1<List<AccountActivity.AccountLeg>, List<AccountActivity.AccountLeg>> operation,
+            String activityType, List<AccountActivity.AccountLeg> legs)
+    {
+        final var retryOptions = accountActivityOptions.retryOptions(activityType).toBuilder().validateBuildWithDefaults();
+        var pending = legs;
+        var retryInterval = retryOptions.getInitialInterval();
+        // Left unset, the server caps an activity's backoff at 100 times the first interval
+        final var maximumInterval = retryOptions.getMaximumInterval() != null ? retryOptions.getMaximumInterval() : retryInterval.multipliedBy(100);
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            pending = applyInChunks(operation, pending);
+            // 0 attempts retries without limit, as it does for an activity
+            if (pending.isEmpty() || attempt == retryOptions.getMaximumAttempts()) {
+                break;
+            }
+            Workflow.sleep(retryInterval);
+            final var nextInterval = Duration.ofMillis((long) (retryInterval.toMillis() * retryOptions.getBackoffCoefficient()));
+            retryInterval = nextInterval.compareTo(maximumInterval) < 0 ? nextInterval : maximumInterval;
+        }
+        final var failed = new HashSet<String>();
+        pending.forEach(leg -> failed.add(leg.referenceId()));
+        return failed;
+    }
+
+    // The chunks of one step run side by side
+    private static List<AccountActivity.AccountLeg> applyInChunks(
+            Functions.Func1<List<AccountActivity.AccountLeg>, List<AccountActivity.AccountLeg>> operation, List<AccountActivity.AccountLeg> legs)
+    {
+        final var chunks = new ArrayList<List<AccountActivity.AccountLeg>>();
+        final var calls = new ArrayList<Promise<List<AccountActivity.AccountLeg>>>();
+        for (int start = 0; start < legs.size(); start += MAX_LEGS_PER_CALL) {
+            final var chunk = legs.subList(start, Math.min(legs.size(), start + MAX_LEGS_PER_CALL));
+            chunks.add(chunk);
+            calls.add(Async.function(operation, new ArrayList<>(chunk)));
+        }
+        final var failed = new ArrayList<AccountActivity.AccountLeg>();
+        for (int i = 0; i < calls.size(); i++) {
+            try {
+                failed.addAll(calls.get(i).get());
+            }
+            catch (ActivityFailure e) {
+                LOG.info("Bulk account activity failed for {} legs: {}", chunks.get(i).size(), e.getMessage());
+                failed.addAll(chunks.get(i));
+            }
+        }
+        return failed;
+    }
+
+    // The same metrics MoneyTransferWorkflowImpl reports, one sample per transfer
+    private static void recordTransferLatency(long startedAt, TransferOutcome outcome)
+    {
+        Workflow.getMetricsScope().tagged(Map.of("outcome", outcome.name().toLowerCase())).timer("transfer.latency")
+                .record(com.uber.m3.util.Duration.ofMillis(Workflow.currentTimeMillis() - startedAt));
+    }
+
+    private static void recordCompensation(String result)
+    {
+        Workflow.getMetricsScope().tagged(Map.of("result", result)).counter("transfer.compensations").inc(1);
+    }
+}
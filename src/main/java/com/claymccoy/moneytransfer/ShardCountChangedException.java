@@ -0,0 +1,20 @@
+package com.claymccoy.moneytransfer;
+
+// The ledgers left running by an earlier deployment were started for a different ledger.shards. Their accounts'
+// history, balances and idempotency keys cannot follow a new routing, so the service does not start its ledgers;
+// restore the earlier shard count, or retire the old ledgers before changing it.
+public class ShardCountChangedException
+        extends IllegalStateException
+{
+    private static final long serialVersionUID = 1L;
+
+    public ShardCountChangedException(String message)
+    {
+        super(message);
+    }
+
+    public ShardCountChangedException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
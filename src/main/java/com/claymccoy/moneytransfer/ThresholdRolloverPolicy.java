@@ -0,0 +1,44 @@
+package com.claymccoy.moneytransfer;
+
+import java.time.Duration;
+import java.util.Optional;
+
+// Rolls over as soon as any configured limit is passed, checking the server's own suggestion first.
+// A limit of 0 (or a null duration), including the event limit, is not checked.
+public class ThresholdRolloverPolicy
+        implements RolloverPolicy
+{
+    private final int eventLimit;
+    private final LedgerWorkflow.RolloverOptions options;
+
+    public ThresholdRolloverPolicy(int eventLimit, LedgerWorkflow.RolloverOptions options)
+    {
+        this.eventLimit = eventLimit;
+        this.options = options != null ? options : LedgerWorkflow.RolloverOptions.none();
+    }
+
+    @Override
+    public Optional<LedgerWorkflow.RolloverReason> evaluate(RunState runState)
+    {
+        if (runState.continueAsNewSuggested()) {
+            return Optional.of(LedgerWorkflow.RolloverReason.CONTINUE_AS_NEW_SUGGESTED);
+        }
+        if (eventLimit > 0 && runState.eventCount() > eventLimit) {
+            return Optional.of(LedgerWorkflow.RolloverReason.EVENT_LIMIT);
+        }
+        if (options.maxHistoryLength() > 0 && runState.historyLength() > options.maxHistoryLength()) {
+            return Optional.of(LedgerWorkflow.RolloverReason.HISTORY_LENGTH);
+        }
+        if (options.maxHistorySizeBytes() > 0 && runState.historySizeBytes() > options.maxHistorySizeBytes()) {
+            return Optional.of(LedgerWorkflow.RolloverReason.HISTORY_SIZE);
+        }
+        if (options.maxStateRecords() > 0 && runState.stateRecords() > options.maxStateRecords()) {
+            return Optional.of(LedgerWorkflow.RolloverReason.STATE_SIZE);
+        }
+        final Duration maxRunDuration = options.maxRunDuration();
+        if (maxRunDuration != null && !maxRunDuration.isZero() && runState.runDuration().compareTo(maxRunDuration) > 0) {
+            return Optional.of(LedgerWorkflow.RolloverReason.RUN_DURATION);
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,70 @@
+package com.claymccoy.moneytransfer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// Folds queued records into one settlement per pair of accounts, netting transfers in opposite directions against
+// each other. Settlements come out in the order their pair first appears, and a pair whose net would no longer fit
+// a transfer amount starts a second settlement. A record with no other record for its pair settles on its own,
+// under its own id and unchanged.
+public class TransferNetting
+{
+    public static final String SETTLEMENT_ID_PREFIX = "settlement-";
+
+    private TransferNetting()
+    {
+    }
+
+    public static List<LedgerWorkflow.Settlement> net(List<LedgerWorkflow.LedgerRecord> ledgerRecords)
+    {
+        final var openTotals = new HashMap<List<String>, PairTotal>();
+        final var totals = new ArrayList<PairTotal>();
+        for (final var ledgerRecord : ledgerRecords) {
+            final var transaction = ledgerRecord.transactionDetails();
+            // Each pair is keyed with its accounts in order, so A to B and B to A land on the same total
+            final var forward = transaction.sourceAccountId().compareTo(transaction.destinationAccountId()) <= 0;
+            final var pair = forward
+                    ? List.of(transaction.sourceAccountId(), transaction.destinationAccountId())
+                    : List.of(transaction.destinationAccountId(), transaction.sourceAccountId());
+            final long amount = forward ? transaction.amount() : -(long) transaction.amount();
+            var total = openTotals.get(pair);
+            if (total == null || Math.abs(total.net + amount) > Integer.MAX_VALUE) {
+                total = new PairTotal(pair.get(0), pair.get(1));
+                openTotals.put(pair, total);
+                totals.add(total);
+            }
+            total.net += amount;
+            total.ledgerRecords.add(ledgerRecord);
+        }
+        return totals.stream().map(PairTotal::toSettlement).toList();
+    }
+
+    private static class PairTotal
+    {
+        private final String firstAccountId;
+        private final String secondAccountId;
+        private final List<LedgerWorkflow.LedgerRecord> ledgerRecords = new ArrayList<>();
+        // Money moving from the first account to the second, negative when it flows the other way
+        private long net;
+
+        PairTotal(String firstAccountId, String secondAccountId)
+        {
+            this.firstAccountId = firstAccountId;
+            this.secondAccountId = secondAccountId;
+        }
+
+        LedgerWorkflow.Settlement toSettlement()
+        {
+            final var first = ledgerRecords.get(0);
+            if (ledgerRecords.size() == 1) {
+                return new LedgerWorkflow.Settlement(first.id(), first.transactionDetails(), List.of(first.id()));
+            }
+            final var transaction = net >= 0
+                    ? new LedgerWorkflow.TransactionDetails(firstAccountId, secondAccountId, (int) net)
+                    : new LedgerWorkflow.TransactionDetails(secondAccountId, firstAccountId, (int) -net);
+            return new LedgerWorkflow.Settlement(SETTLEMENT_ID_PREFIX + first.id(), transaction,
+                    ledgerRecords.stream().map(LedgerWorkflow.LedgerRecord::id).toList());
+        }
+    }
+}
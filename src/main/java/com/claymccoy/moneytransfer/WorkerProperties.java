@@ -0,0 +1,47 @@
+package com.claymccoy.moneytransfer;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+// Sizing for the Temporal workers, bound from the `worker.*` application properties.
+// Numeric limits of 0 leave the SDK default in place.
+@ConfigurationProperties(prefix = "worker")
+public record WorkerProperties(
+        // Queues for MoneyTransferWorkflow children and for activities; blank keeps them on the ledger's task queue
+        @DefaultValue("") String transferTaskQueue,
+        @DefaultValue("") String activityTaskQueue,
+        // Queue for high priority transfer children, polled by a worker of its own so they never wait behind normal
+        // transfers for a poller or task slot; blank keeps them with the other transfers
+        @DefaultValue("") String highPriorityTransferTaskQueue,
+        // Concurrent long polls each worker keeps open for workflow and activity tasks
+        @DefaultValue("0") int workflowTaskPollers,
+        @DefaultValue("0") int activityTaskPollers,
+        // Workflow tasks, activities and local activities each worker runs at once
+        @DefaultValue("0") int maxConcurrentWorkflowTasks,
+        @DefaultValue("0") int maxConcurrentActivities,
+        @DefaultValue("0") int maxConcurrentLocalActivities,
+        // Workflow executions kept in memory between tasks, and the threads shared by their coroutines
+        @DefaultValue("0") int stickyCacheSize,
+        @DefaultValue("0") int maxWorkflowThreads,
+        // Run activities and local activities on Java 21 virtual threads rather than a bounded platform thread pool
+        @DefaultValue("false") boolean virtualThreads,
+        // Workflow task pollers and slots for the high priority transfer worker, so its capacity can be set apart from
+        // the other workers'; 0 uses the values above. Only applies when that queue is not shared with another worker
+        @DefaultValue("0") int highPriorityWorkflowTaskPollers,
+        @DefaultValue("0") int highPriorityMaxConcurrentWorkflowTasks)
+{
+    public String transferTaskQueue(String ledgerTaskQueue)
+    {
+        return transferTaskQueue.isBlank() ? ledgerTaskQueue : transferTaskQueue;
+    }
+
+    public String highPriorityTransferTaskQueue(String ledgerTaskQueue)
+    {
+        return highPriorityTransferTaskQueue.isBlank() ? transferTaskQueue(ledgerTaskQueue) : highPriorityTransferTaskQueue;
+    }
+
+    public String activityTaskQueue(String ledgerTaskQueue)
+    {
+        return activityTaskQueue.isBlank() ? ledgerTaskQueue : activityTaskQueue;
+    }
+}
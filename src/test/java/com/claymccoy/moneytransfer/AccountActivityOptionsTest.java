@@ -0,0 +1,67 @@
+package com.claymccoy.moneytransfer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class AccountActivityOptionsTest
+{
+    @Test
+    public void testVariantsBuiltOnceAndShared()
+    {
+        final var options = new AccountActivityOptions(AccountActivityProperties.defaults());
+        assertSame(options.activityOptions(null), options.activityOptions(null));
+        assertSame(options.activityOptions("activities"), options.activityOptions("activities"));
+        assertNull(options.activityOptions(null).getTaskQueue());
+        assertEquals("activities", options.activityOptions("activities").getTaskQueue());
+        assertEquals(Duration.ofSeconds(2), options.activityOptions("activities").getStartToCloseTimeout());
+        assertEquals(Duration.ofSeconds(30), options.methodOptions().get("WithdrawBatch").getStartToCloseTimeout());
+
+        final var localOptions = options.localActivityOptions(Duration.ofMillis(500), 2);
+        assertSame(localOptions, options.localActivityOptions(Duration.ofMillis(500), 2));
+        assertEquals(2, localOptions.getRetryOptions().getMaximumAttempts());
+        assertEquals(Duration.ofSeconds(1), localOptions.getRetryOptions().getInitialInterval());
+    }
+
+    @Test
+    public void testMethodOverridesKeyedByActivityType()
+    {
+        final var properties = new AccountActivityProperties(Duration.ofMillis(100), Duration.ofSeconds(1), 1.5, 5, Duration.ofSeconds(3),
+                Duration.ofMinutes(1), Map.of(
+                        "withdraw", new AccountActivityProperties.MethodProperties(null, Duration.ofSeconds(5), null),
+                        "deposit-batch", new AccountActivityProperties.MethodProperties(Duration.ofSeconds(30), null, 1)));
+        final var options = new AccountActivityOptions(properties);
+
+        assertEquals(5, options.activityOptions(null).getRetryOptions().getMaximumAttempts());
+        assertEquals(Duration.ofSeconds(5), options.methodOptions().get("Withdraw").getHeartbeatTimeout());
+        final var depositBatch = options.methodOptions().get("DepositBatch");
+        assertEquals(Duration.ofSeconds(30), depositBatch.getStartToCloseTimeout());
+        assertEquals(1, depositBatch.getRetryOptions().getMaximumAttempts());
+        assertEquals(Duration.ofMillis(100), depositBatch.getRetryOptions().getInitialInterval());
+        assertEquals(1, options.retryOptions("DepositBatch").getMaximumAttempts());
+        assertEquals(5, options.retryOptions("WithdrawBatch").getMaximumAttempts());
+        assertEquals("WithdrawBatch", AccountActivityOptions.activityType("withdrawBatch"));
+    }
+
+    @Test
+    public void testMethodOverridesBoundFromProperties()
+    {
+        final var source = new MapConfigurationPropertySource(Map.of(
+                "account-activity.retry-maximum-attempts", "4",
+                "account-activity.methods.refund.retry-maximum-attempts", "10"));
+        final var properties = new Binder(source).bindOrCreate("account-activity", AccountActivityProperties.class);
+        final var options = new AccountActivityOptions(properties);
+
+        assertEquals(Duration.ofSeconds(2), options.activityOptions(null).getStartToCloseTimeout());
+        assertEquals(4, options.activityOptions(null).getRetryOptions().getMaximumAttempts());
+        assertEquals(10, options.methodOptions().get("Refund").getRetryOptions().getMaximumAttempts());
+        assertNull(options.methodOptions().get("Refund").getHeartbeatTimeout());
+    }
+}
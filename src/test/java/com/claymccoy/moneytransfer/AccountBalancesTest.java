@@ -0,0 +1,77 @@
+package com.claymccoy.moneytransfer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AccountBalancesTest
+{
+    @Test
+    public void testConcurrentPostingsAllApplied()
+            throws Exception
+    {
+        try (var balances = new AccountBalances(4, null);
+                var executor = Executors.newFixedThreadPool(8)) {
+            final var tasks = new ArrayList<Future<?>>();
+            for (int thread = 0; thread < 8; thread++) {
+                final var threadId = thread;
+                tasks.add(executor.submit(() -> {
+                    for (int i = 0; i < 1_000; i++) {
+                        final var referenceId = threadId + "-" + i;
+                        balances.apply(new AccountJournal.AccountPosting(AccountJournal.Operation.WITHDRAW, "hot", referenceId, 1));
+                        balances.apply(new AccountJournal.AccountPosting(AccountJournal.Operation.DEPOSIT, "account " + (i % 2_000), referenceId, 1));
+                    }
+                }));
+            }
+            for (final var task : tasks) {
+                task.get();
+            }
+            assertEquals(-8_000, balances.balance("hot"));
+            assertEquals(8, balances.balance("account 0"));
+            assertEquals(1_001, balances.accountCount());
+        }
+    }
+
+    @Test
+    public void testRetriedPostingAppliedOnce()
+    {
+        try (var balances = new AccountBalances(1, null)) {
+            final var withdrawal = new AccountJournal.AccountPosting(AccountJournal.Operation.WITHDRAW, "a", "transfer 1", 30);
+            assertTrue(balances.apply(withdrawal));
+            assertFalse(balances.apply(withdrawal));
+            // The refund compensating a withdrawal shares its referenceId but is a different operation
+            assertTrue(balances.apply(new AccountJournal.AccountPosting(AccountJournal.Operation.REFUND, "a", "transfer 1", 30)));
+            assertTrue(balances.apply(new AccountJournal.AccountPosting(AccountJournal.Operation.WITHDRAW, "a", "transfer 2", 5)));
+            assertEquals(-5, balances.balance("a"));
+            assertEquals(0, balances.balance("never posted"));
+        }
+    }
+
+    @Test
+    public void testBalancesRebuiltFromJournal(@TempDir Path directory)
+    {
+        final var journalFile = directory.resolve("accounts/journal.ndjson");
+        final var deposit = new AccountJournal.AccountPosting(AccountJournal.Operation.DEPOSIT, "b", "transfer 1", 40);
+        try (var balances = new AccountBalances(2, new FileAccountJournal(journalFile))) {
+            balances.apply(new AccountJournal.AccountPosting(AccountJournal.Operation.WITHDRAW, "a", "transfer 1", 40));
+            balances.apply(deposit);
+            balances.apply(deposit);
+        }
+
+        try (var balances = new AccountBalances(2, new FileAccountJournal(journalFile))) {
+            assertEquals(-40, balances.balance("a"));
+            assertEquals(40, balances.balance("b"));
+            // A retry arriving after the restart is still recognised
+            assertFalse(balances.apply(deposit));
+            assertEquals(40, balances.balance("b"));
+        }
+    }
+}
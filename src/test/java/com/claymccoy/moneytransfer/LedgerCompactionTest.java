@@ -0,0 +1,141 @@
+package com.claymccoy.moneytransfer;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.temporal.client.WorkflowClient;
+import io.temporal.testing.TestWorkflowEnvironment;
+import io.temporal.testing.TestWorkflowExtension;
+import io.temporal.worker.Worker;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.context.properties.bind.BindException;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LedgerCompactionTest
+{
+    @RegisterExtension
+    public static final TestWorkflowExtension testWorkflowExtension =
+            TestWorkflowExtension.newBuilder()
+                    .registerWorkflowImplementationTypes(LedgerWorkflowImpl.class, NoOpMoneyTransferWorkflow.class)
+                    .setDoNotStart(true)
+                    .build();
+
+    public static class NoOpMoneyTransferWorkflow
+            implements MoneyTransferWorkflow
+    {
+        @Override
+        public void transfer(TransferInput transferInput)
+        {
+        }
+    }
+
+    @Test
+    public void testOldRecordsMovedToArchiveAndSummaryKept(TestWorkflowEnvironment testEnv, Worker worker, LedgerWorkflow workflow,
+            @TempDir Path archiveDirectory) throws InterruptedException
+    {
+        final var archive = new FileLedgerArchive(archiveDirectory);
+        worker.registerActivitiesImplementations(new LedgerArchiveActivityImpl(archive));
+        testEnv.start();
+        final var startInput = new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 3, null,
+                new LedgerWorkflow.LedgerOptions(2, 1, null, null, null, null, 0, 0, null, null, 0), null, null);
+        final var ledgerId = WorkflowClient.start(workflow::start, startInput).getWorkflowId();
+        for (int amount = 1; amount <= 7; amount++) {
+            workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", amount)));
+            // One at a time, so the first run rolls over after exactly four records whatever the timing
+            for (int attempt = 0; attempt < 100 && workflow.getQueueDepth() > 0; attempt++) {
+                Thread.sleep(10);
+            }
+        }
+        for (int attempt = 0; attempt < 100 && archive.read(ledgerId).size() < 5; attempt++) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(ImmutableList.of("1", "2", "3", "4", "5"), archive.read(ledgerId).stream().map(LedgerWorkflow.LedgerRecord::id).toList());
+        assertEquals(ImmutableList.of(
+                new LedgerWorkflow.LedgerRecord("6", new LedgerWorkflow.TransactionDetails("123", "456", 6)),
+                new LedgerWorkflow.LedgerRecord("7", new LedgerWorkflow.TransactionDetails("123", "456", 7))), workflow.getHistory());
+        assertEquals(new LedgerWorkflow.LedgerSummary(7, "7", ImmutableMap.of("123", -28L, "456", 28L)), workflow.getSummary());
+        assertEquals(new LedgerWorkflow.AccountHistory("456", 28, workflow.getHistory()), workflow.getAccountHistory("456"));
+    }
+
+    @Test
+    public void testCompactedRecordsNotCountedTowardsStateSize(TestWorkflowEnvironment testEnv, Worker worker, LedgerWorkflow workflow,
+            @TempDir Path archiveDirectory) throws InterruptedException
+    {
+        final var archive = new FileLedgerArchive(archiveDirectory);
+        worker.registerActivitiesImplementations(new LedgerArchiveActivityImpl(archive));
+        testEnv.start();
+        // History grows to twice the window before it is compacted, past the state limit, but only the window is carried
+        final var options = new LedgerWorkflow.LedgerOptions(2, 4, new LedgerWorkflow.RolloverOptions(0, 0, 3, null), null, null, null, 0, 0,
+                null, null, 0);
+        final var ledgerId = WorkflowClient.start(workflow::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 0,
+                null, options, null, null)).getWorkflowId();
+        for (int amount = 1; amount <= 7; amount++) {
+            workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", amount)));
+            // One at a time, so the queue never holds enough to pass the limit on its own
+            for (int attempt = 0; attempt < 100 && workflow.getQueueDepth() > 0; attempt++) {
+                Thread.sleep(10);
+            }
+        }
+        for (int attempt = 0; attempt < 100 && archive.read(ledgerId).size() < 3; attempt++) {
+            Thread.sleep(50);
+        }
+
+        // Compacted once, at five records, which left four in history by the end: over the limit but one past the window
+        assertEquals(3, archive.read(ledgerId).size());
+        assertEquals(4, workflow.getHistory().size());
+        assertEquals(0, workflow.getRolloverStats().rollovers());
+        // Without compaction, or with a window at the limit, every run would start out over it
+        final var misconfigured = new MapConfigurationPropertySource(Map.of(
+                "ledger.rollover-max-state-records", "3",
+                "ledger.history-window", "3"));
+        final var failure = assertThrows(BindException.class, () -> new Binder(misconfigured).bindOrCreate("ledger", LedgerProperties.class));
+        assertInstanceOf(IllegalArgumentException.class, Throwables.getRootCause(failure));
+    }
+
+    @Test
+    public void testRetriedBatchNotArchivedTwice(@TempDir Path archiveDirectory)
+    {
+        final var records = ImmutableList.of(
+                new LedgerWorkflow.LedgerRecord("1", new LedgerWorkflow.TransactionDetails("123", "456", 42)),
+                new LedgerWorkflow.LedgerRecord("2", new LedgerWorkflow.TransactionDetails("asd", "zxc", 57)));
+        new FileLedgerArchive(archiveDirectory).append("ledger", records);
+        // A fresh instance has to recover what was already written, as after a worker restart
+        final var archive = new FileLedgerArchive(archiveDirectory);
+        archive.append("ledger", records);
+        assertEquals(records, archive.read("ledger"));
+        assertTrue(archive.read("other-ledger").isEmpty());
+    }
+
+    @Test
+    public void testPartlyWrittenBatchCompletedOnRetry(@TempDir Path archiveDirectory) throws IOException
+    {
+        final var records = ImmutableList.of(
+                new LedgerWorkflow.LedgerRecord("0-1", new LedgerWorkflow.TransactionDetails("123", "456", 42)),
+                new LedgerWorkflow.LedgerRecord("0-2", new LedgerWorkflow.TransactionDetails("asd", "zxc", 57)),
+                new LedgerWorkflow.LedgerRecord("0-3", new LedgerWorkflow.TransactionDetails("123", "zxc", 7)));
+        new FileLedgerArchive(archiveDirectory).append("ledger", records.subList(0, 1));
+        // The failed attempt also got part of the second record out before the write broke off
+        Files.writeString(archiveDirectory.resolve("ledger.ndjson"), "{\"id\":\"0-2\",\"transac", StandardOpenOption.APPEND);
+        final var archive = new FileLedgerArchive(archiveDirectory);
+        archive.append("ledger", records);
+        archive.append("ledger", records.subList(1, 3));
+        assertEquals(records, archive.read("ledger"));
+    }
+}
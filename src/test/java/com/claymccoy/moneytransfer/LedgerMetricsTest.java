@@ -0,0 +1,54 @@
+package com.claymccoy.moneytransfer;
+
+import com.uber.m3.tally.RootScopeBuilder;
+import com.uber.m3.tally.Scope;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.temporal.client.WorkflowClient;
+import io.temporal.common.reporter.MicrometerClientStatsReporter;
+import io.temporal.testing.TestWorkflowExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+public class LedgerMetricsTest
+{
+    private static final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private static final Scope metricsScope = new RootScopeBuilder()
+            .reporter(new MicrometerClientStatsReporter(registry))
+            .reportEvery(com.uber.m3.util.Duration.ofMillis(10));
+
+    @RegisterExtension
+    public static final TestWorkflowExtension testWorkflowExtension =
+            TestWorkflowExtension.newBuilder()
+                    .registerWorkflowImplementationTypes(LedgerWorkflowImpl.class, LedgerCompactionTest.NoOpMoneyTransferWorkflow.class)
+                    .setMetricsScope(metricsScope)
+                    .build();
+
+    @Test
+    public void testQueueDepthAndDispatchLagReported(LedgerWorkflow workflow) throws InterruptedException
+    {
+        final var ledgerId = WorkflowClient.start(workflow::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 100))
+                .getWorkflowId();
+        for (int amount = 1; amount <= 3; amount++) {
+            workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", amount)));
+        }
+        for (int attempt = 0; attempt < 100 && dispatchLagCount() < 3; attempt++) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(3, dispatchLagCount());
+        assertNotNull(registry.find("ledger.queue.depth").tag("ledger", ledgerId).gauge());
+    }
+
+    private static long dispatchLagCount()
+    {
+        // Without priority lanes every record waits in the normal lane
+        final var dispatchLag = registry.find("ledger.dispatch.lag").tag("lane", "normal").timer();
+        return dispatchLag == null ? 0 : dispatchLag.count();
+    }
+}
@@ -0,0 +1,131 @@
+package com.claymccoy.moneytransfer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.temporal.client.WorkflowClient;
+import io.temporal.client.WorkflowClientOptions;
+import io.temporal.client.WorkflowOptions;
+import io.temporal.common.converter.DefaultDataConverter;
+import io.temporal.common.converter.EncodingKeys;
+import io.temporal.testing.TestEnvironmentOptions;
+import io.temporal.testing.TestWorkflowEnvironment;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LedgerPayloadConverterTest
+{
+    private static final DefaultDataConverter binaryConverter = LedgerPayloadConverter.newDataConverter(1024);
+
+    private static LedgerWorkflow.StartInput startInput(int records)
+    {
+        final var history = new ArrayList<LedgerWorkflow.LedgerRecord>();
+        for (int id = 1; id <= records; id++) {
+            history.add(new LedgerWorkflow.LedgerRecord("1-" + id, new LedgerWorkflow.TransactionDetails("account-" + id % 10, "account-" + id % 7, id)));
+        }
+        final var queue = new ArrayDeque<>(history.subList(records - 2, records));
+        final var highPriorityQueue = new ArrayDeque<>(history.subList(records - 3, records - 2));
+        final var options = new LedgerWorkflow.LedgerOptions(10, 4, new LedgerWorkflow.RolloverOptions(100, 0, 0, Duration.ofMinutes(5)),
+                MoneyTransferWorkflow.TransferOptions.defaults(), "transfers", null, 50, 100, Duration.ofHours(1), Duration.ofMillis(20), 100,
+                new LedgerWorkflow.PriorityLaneOptions(10_000, 4, Duration.ofSeconds(5), "priority-transfers"));
+        final var summary = new LedgerWorkflow.LedgerSummary(records, "1-" + records, ImmutableMap.of("account-1", -42L, "account-2", 42L));
+        final var rolloverStats = new LedgerWorkflow.RolloverStats(2, Map.of(LedgerWorkflow.RolloverReason.EVENT_LIMIT, 2L),
+                LedgerWorkflow.RolloverReason.EVENT_LIMIT, 12, 3400, 56);
+        final var idempotentTransfers = List.of(new LedgerWorkflow.IdempotentTransfer("retry-1", history.get(records - 1), 1_700_000_000_000L));
+        final var settlements = List.of(new LedgerWorkflow.Settlement("settlement-1-1", new LedgerWorkflow.TransactionDetails("account-1", "account-0", 7),
+                List.of("1-1", "1-70")));
+        return new LedgerWorkflow.StartInput(history, records + 1, queue, 3, "1-", options, summary, rolloverStats, idempotentTransfers, settlements,
+                highPriorityQueue);
+    }
+
+    private static void assertStartInputEquals(LedgerWorkflow.StartInput expected, LedgerWorkflow.StartInput actual)
+    {
+        // Queues have no value equality, so compare their contents
+        assertEquals(List.copyOf(expected.ledgerRecordQueue()), List.copyOf(actual.ledgerRecordQueue()));
+        assertEquals(List.copyOf(expected.highPriorityRecordQueue()), List.copyOf(actual.highPriorityRecordQueue()));
+        assertEquals(expected, new LedgerWorkflow.StartInput(actual.history(), actual.nextId(), expected.ledgerRecordQueue(), actual.eventLimit(),
+                actual.recordIdPrefix(), actual.options(), actual.summary(), actual.rolloverStats(), actual.idempotentTransfers(), actual.settlements(),
+                expected.highPriorityRecordQueue()));
+    }
+
+    @Test
+    public void testLedgerTypesRoundTripInBinary()
+    {
+        final var values = List.of(
+                new LedgerWorkflow.LedgerRecord("17", new LedgerWorkflow.TransactionDetails("123", "456", -42)),
+                new LedgerWorkflow.LedgerRecord("not-a-sequence", new LedgerWorkflow.TransactionDetails("123", null, 0)),
+                new LedgerWorkflow.LedgerRecord("007", new LedgerWorkflow.TransactionDetails("123", "123", Integer.MAX_VALUE)),
+                new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", 42)),
+                new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", 42), "client-request-7"),
+                new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", 42), null, LedgerWorkflow.TransferPriority.HIGH),
+                new LedgerWorkflow.TransferMoneyBatchInput(ImmutableList.of(
+                        new LedgerWorkflow.TransactionDetails("123", "456", 42),
+                        new LedgerWorkflow.TransactionDetails("456", "123", 57))),
+                new LedgerWorkflow.TransferMoneyBatchResult(ImmutableList.of(
+                        new LedgerWorkflow.LedgerRecord("0-1", new LedgerWorkflow.TransactionDetails("123", "456", 42)))),
+                new MoneyTransferWorkflow.TransferInput("3", new LedgerWorkflow.TransactionDetails("123", "456", 42),
+                        MoneyTransferWorkflow.TransferOptions.defaults()));
+        for (final var value : values) {
+            final var payload = binaryConverter.toPayload(value).orElseThrow();
+            assertEquals(LedgerPayloadConverter.ENCODING_TYPE, payload.getMetadataOrThrow(EncodingKeys.METADATA_ENCODING_KEY).toStringUtf8());
+            assertEquals(value, binaryConverter.fromPayload(payload, value.getClass(), value.getClass()));
+        }
+    }
+
+    @Test
+    public void testStartInputSmallerThanJsonAndCompressed()
+    {
+        final var small = startInput(20);
+        final var smallPayload = binaryConverter.toPayload(small).orElseThrow();
+        assertStartInputEquals(small, binaryConverter.fromPayload(smallPayload, LedgerWorkflow.StartInput.class, LedgerWorkflow.StartInput.class));
+
+        final var large = startInput(2000);
+        final var binaryPayload = binaryConverter.toPayload(large).orElseThrow();
+        final var jsonPayload = DefaultDataConverter.STANDARD_INSTANCE.toPayload(large).orElseThrow();
+        assertTrue(binaryPayload.getData().size() * 5 < jsonPayload.getData().size(),
+                "binary " + binaryPayload.getData().size() + " bytes, json " + jsonPayload.getData().size() + " bytes");
+        assertStartInputEquals(large, binaryConverter.fromPayload(binaryPayload, LedgerWorkflow.StartInput.class, LedgerWorkflow.StartInput.class));
+    }
+
+    @Test
+    public void testJsonPayloadsStillRead()
+    {
+        final var startInput = startInput(20);
+        final var jsonPayload = DefaultDataConverter.STANDARD_INSTANCE.toPayload(startInput).orElseThrow();
+        assertStartInputEquals(startInput, binaryConverter.fromPayload(jsonPayload, LedgerWorkflow.StartInput.class, LedgerWorkflow.StartInput.class));
+        // Types the ledger does not own keep their standard encoding
+        final var summaryPayload = binaryConverter.toPayload(startInput.summary()).orElseThrow();
+        assertEquals("json/plain", summaryPayload.getMetadataOrThrow(EncodingKeys.METADATA_ENCODING_KEY).toStringUtf8());
+    }
+
+    @Test
+    public void testLedgerContinuesAsNewWithBinaryPayloads() throws InterruptedException
+    {
+        final var clientOptions = WorkflowClientOptions.newBuilder().setDataConverter(LedgerPayloadConverter.newDataConverter(64)).build();
+        try (final var testEnv = TestWorkflowEnvironment.newInstance(TestEnvironmentOptions.newBuilder().setWorkflowClientOptions(clientOptions).build())) {
+            testEnv.newWorker("ledger").registerWorkflowImplementationTypes(LedgerWorkflowImpl.class, LedgerCompactionTest.NoOpMoneyTransferWorkflow.class);
+            testEnv.start();
+            final var workflow = testEnv.getWorkflowClient().newWorkflowStub(LedgerWorkflow.class,
+                    WorkflowOptions.newBuilder().setTaskQueue("ledger").build());
+            WorkflowClient.start(workflow::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 2));
+            final var expectedHistory = new ArrayList<LedgerWorkflow.LedgerRecord>();
+            for (int amount = 1; amount <= 5; amount++) {
+                expectedHistory.add(workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", amount))));
+            }
+            for (int attempt = 0; attempt < 100 && workflow.getRolloverStats().rollovers() < 1; attempt++) {
+                Thread.sleep(50);
+            }
+            // The history and queue came through continue-as-new as a binary StartInput
+            assertTrue(workflow.getRolloverStats().rollovers() >= 1);
+            assertEquals(expectedHistory, workflow.getHistory());
+            assertEquals("5", expectedHistory.get(4).id());
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.claymccoy.moneytransfer;
+
+import com.claymccoy.temporal.TemporalConfig;
+import com.google.common.collect.ImmutableList;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.temporal.client.WorkflowClient;
+import io.temporal.client.WorkflowUpdateStage;
+import io.temporal.serviceclient.WorkflowServiceStubs;
+import io.temporal.serviceclient.WorkflowServiceStubsOptions;
+import io.temporal.testing.TestWorkflowExtension;
+import io.temporal.worker.Worker;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LedgerServiceTest
+{
+    @RegisterExtension
+    public static final TestWorkflowExtension testWorkflowExtension =
+            TestWorkflowExtension.newBuilder()
+                    .registerWorkflowImplementationTypes(LedgerWorkflowImpl.class, LedgerCompactionTest.NoOpMoneyTransferWorkflow.class)
+                    .build();
+
+    private static LedgerService newLedgerService(WorkflowClient workflowClient, Worker worker)
+    {
+        return newLedgerService(workflowClient, worker, 1);
+    }
+
+    private static LedgerService newLedgerService(WorkflowClient workflowClient, Worker worker, int shards)
+    {
+        return newLedgerService(workflowClient, worker, shards, 0);
+    }
+
+    private static LedgerService newLedgerService(WorkflowClient workflowClient, Worker worker, int shards, double maxTransfersPerSecond)
+    {
+        return newLedgerService(workflowClient, worker, shards, maxTransfersPerSecond, Duration.ZERO, new SimpleMeterRegistry());
+    }
+
+    private static LedgerService newLedgerService(WorkflowClient workflowClient, Worker worker, int shards, double maxTransfersPerSecond,
+            Duration readCacheStaleness, MeterRegistry meterRegistry)
+    {
+        final var ledgerProperties = new LedgerProperties(shards, 0, "ledger-archive", 1, Duration.ofMillis(5), 1, 3, 0, 0, 0, Duration.ZERO, "",
+                false, Duration.ofSeconds(2), 2, false, 0, 0, 0, maxTransfersPerSecond, Duration.ofSeconds(2), 100, Duration.ofHours(1), 0, false,
+                Duration.ZERO, 1, readCacheStaleness, 1_000_000, false, 0, 4, Duration.ofSeconds(5));
+        final var workerProperties = new WorkerProperties("", "", "", 0, 0, 0, 0, 0, 0, 0, false, 0, 0);
+        return new LedgerService(new TemporalConfig(workflowClient, worker.getTaskQueue()), ledgerProperties, workerProperties,
+                meterRegistry);
+    }
+
+    @Test
+    public void testTransferAsyncCompletesWithLedgerRecord(WorkflowClient workflowClient, Worker worker)
+    {
+        final var ledgerService = newLedgerService(workflowClient, worker);
+        final var first = ledgerService.transferAsync(new LedgerWorkflow.TransactionDetails("123", "456", 42));
+        assertEquals(new LedgerWorkflow.LedgerRecord("1", new LedgerWorkflow.TransactionDetails("123", "456", 42)), first.join());
+        final var second = ledgerService.transferAsync(new LedgerWorkflow.TransactionDetails("asd", "zxc", 57));
+        assertEquals(new LedgerWorkflow.LedgerRecord("2", new LedgerWorkflow.TransactionDetails("asd", "zxc", 57)), second.join());
+        ledgerService.close();
+    }
+
+    @Test
+    public void testRetriedTransferAnsweredWithOriginalRecord(WorkflowClient workflowClient, Worker worker)
+    {
+        final var ledgerService = newLedgerService(workflowClient, worker);
+        final var transaction = new LedgerWorkflow.TransactionDetails("123", "456", 42);
+        final var ticket = ledgerService.startTransfer(transaction, "order-7", WorkflowUpdateStage.COMPLETED).join();
+        assertEquals("order-7", ticket.updateId());
+        final var expected = new LedgerWorkflow.LedgerRecord("1", transaction);
+        assertEquals(expected, ledgerService.transferAsync(transaction, "order-7").join());
+        assertEquals(Optional.of(expected), ledgerService.getTransferResult(ticket).join());
+        assertEquals("2", ledgerService.transferAsync(transaction, "order-8").join().id());
+        ledgerService.close();
+    }
+
+    @Test
+    public void testTransferResultFoundAfterLedgerContinuedAsNew(WorkflowClient workflowClient, Worker worker)
+            throws InterruptedException
+    {
+        final var ledgerService = newLedgerService(workflowClient, worker);
+        final var tickets = new ArrayList<LedgerService.TransferTicket>();
+        for (int amount = 1; amount <= 4; amount++) {
+            tickets.add(ledgerService.startTransfer(new LedgerWorkflow.TransactionDetails("123", "456", amount), WorkflowUpdateStage.ACCEPTED).join());
+        }
+        // The event limit of 3 closes the run the first transfers went to
+        final var firstRun = tickets.get(0);
+        for (int attempt = 0; attempt < 100 && !continuedAsNew(workflowClient, firstRun); attempt++) {
+            Thread.sleep(50);
+        }
+        assertTrue(continuedAsNew(workflowClient, firstRun));
+        for (int i = 0; i < tickets.size(); i++) {
+            final var expected = new LedgerWorkflow.LedgerRecord(String.valueOf(i + 1), new LedgerWorkflow.TransactionDetails("123", "456", i + 1));
+            assertEquals(Optional.of(expected), ledgerService.getTransferResult(tickets.get(i)).join());
+        }
+        ledgerService.close();
+    }
+
+    @Test
+    public void testHistoryPagesTakeTurnsAcrossShards(WorkflowClient workflowClient, Worker worker)
+    {
+        final var ledgerService = newLedgerService(workflowClient, worker, 2);
+        final var router = new LedgerShardRouter(2);
+        final var transactions = new ArrayList<LedgerWorkflow.TransactionDetails>();
+        for (int account = 0; transactions.size() < 6; account++) {
+            final var accountId = "account-" + account;
+            // Three transfers from each shard
+            if (transactions.stream().filter(transaction -> router.shardFor(transaction.sourceAccountId()) == router.shardFor(accountId)).count() < 3) {
+                transactions.add(new LedgerWorkflow.TransactionDetails(accountId, "456", account));
+            }
+        }
+        ledgerService.transferBatch(transactions);
+
+        final var firstPage = ledgerService.getHistoryPage(null, 4, null);
+        assertEquals(ImmutableList.of("0-1", "1-1", "0-2", "1-2"), firstPage.records().stream().map(LedgerWorkflow.LedgerRecord::id).toList());
+        assertEquals("0-2,1-2", firstPage.cursor());
+        assertTrue(firstPage.hasMore());
+        final var secondPage = ledgerService.getHistoryPage(firstPage.cursor(), 4, null);
+        assertEquals(ImmutableList.of("0-3", "1-3"), secondPage.records().stream().map(LedgerWorkflow.LedgerRecord::id).toList());
+        assertEquals(false, secondPage.hasMore());
+        // Cursors this service could not have issued are the caller's mistake
+        assertThrows(InvalidLedgerRequestException.class, () -> ledgerService.getHistoryPage("0-2", 4, null));
+        assertThrows(InvalidLedgerRequestException.class, () -> ledgerService.getHistoryPage("1-2,0-2", 4, null));
+        assertThrows(InvalidLedgerRequestException.class, () -> ledgerService.getHistoryPage("0-x,", 4, null));
+        ledgerService.close();
+    }
+
+    @Test
+    public void testHistoryExportedShardByShardAndResumed(WorkflowClient workflowClient, Worker worker)
+    {
+        final var ledgerService = newLedgerService(workflowClient, worker, 2);
+        final var router = new LedgerShardRouter(2);
+        final var transactions = new ArrayList<LedgerWorkflow.TransactionDetails>();
+        for (int account = 0; transactions.size() < 6; account++) {
+            final var accountId = "account-" + account;
+            if (transactions.stream().filter(transaction -> router.shardFor(transaction.sourceAccountId()) == router.shardFor(accountId)).count() < 3) {
+                transactions.add(new LedgerWorkflow.TransactionDetails(accountId, "456", account));
+            }
+        }
+        ledgerService.transferBatch(transactions);
+
+        try (var exported = ledgerService.exportHistory(null, null)) {
+            assertEquals(ImmutableList.of("0-1", "0-2", "0-3", "1-1", "1-2", "1-3"), exported.map(LedgerWorkflow.LedgerRecord::id).toList());
+        }
+        try (var resumed = ledgerService.exportHistory("0-3", null)) {
+            assertEquals(ImmutableList.of("1-1", "1-2", "1-3"), resumed.map(LedgerWorkflow.LedgerRecord::id).toList());
+        }
+        try (var resumed = ledgerService.exportHistory("1-1", "456")) {
+            assertEquals(ImmutableList.of("1-2", "1-3"), resumed.map(LedgerWorkflow.LedgerRecord::id).toList());
+        }
+        assertThrows(InvalidLedgerRequestException.class, () -> ledgerService.exportHistory("2-1", null));
+        ledgerService.close();
+    }
+
+    @Test
+    public void testReadsServedFromCacheKeptCurrentByLocalTransfers(WorkflowClient workflowClient, Worker worker)
+    {
+        final var meterRegistry = new SimpleMeterRegistry();
+        final var ledgerService = newLedgerService(workflowClient, worker, 2, 0, Duration.ofHours(1), meterRegistry);
+        ledgerService.transfer(new LedgerWorkflow.TransactionDetails("123", "456", 42));
+        assertEquals(1, ledgerService.getHistory().size());
+        ledgerService.transferBatch(ImmutableList.of(new LedgerWorkflow.TransactionDetails("456", "123", 10),
+                new LedgerWorkflow.TransactionDetails("123", "789", 5)));
+
+        assertEquals(3, ledgerService.getHistory().size());
+        assertEquals(-37, ledgerService.getBalance("123"));
+        final var accountHistory = ledgerService.getAccountHistory("456");
+        assertEquals(32, accountHistory.balance());
+        assertEquals(2, accountHistory.records().size());
+        // Each shard was queried once, the first time it was read
+        assertEquals(2, meterRegistry.counter("ledger.read.cache", "result", "miss").count());
+        assertTrue(meterRegistry.counter("ledger.read.cache", "result", "hit").count() >= 6);
+
+        // A transfer recorded without going through this service is not seen until the view goes stale
+        final var router = new LedgerShardRouter(2);
+        final var ledger = workflowClient.newWorkflowStub(LedgerWorkflow.class, router.workflowId(router.shardFor("123")));
+        ledger.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", 1)));
+        assertEquals(3, ledgerService.getHistory().size());
+        // The next local transfer skips past it on that shard, so the view is reloaded with both
+        ledgerService.transfer(new LedgerWorkflow.TransactionDetails("123", "456", 1));
+        assertEquals(5, ledgerService.getHistory().size());
+        assertEquals(-39, ledgerService.getBalance("123"));
+
+        // Transfers answered with a ticket reach the views once their record is known, without a reload
+        final var misses = meterRegistry.counter("ledger.read.cache", "result", "miss").count();
+        ledgerService.startTransfer(new LedgerWorkflow.TransactionDetails("123", "456", 2), WorkflowUpdateStage.COMPLETED).join();
+        assertEquals(6, ledgerService.getHistory().size());
+        final var ticket = ledgerService.startTransfer(new LedgerWorkflow.TransactionDetails("123", "456", 3), WorkflowUpdateStage.ACCEPTED).join();
+        while (ledgerService.getTransferResult(ticket).join().isEmpty()) {
+            Thread.onSpinWait();
+        }
+        assertEquals(7, ledgerService.getHistory().size());
+        assertEquals(-44, ledgerService.getBalance("123"));
+        assertEquals(misses, meterRegistry.counter("ledger.read.cache", "result", "miss").count());
+        ledgerService.close();
+    }
+
+    @Test
+    public void testLedgersStartedInBackgroundAndAdoptedWhenAlreadyRunning(WorkflowClient workflowClient, Worker worker)
+    {
+        final var meterRegistry = new SimpleMeterRegistry();
+        final var ledgerService = newLedgerService(workflowClient, worker, 2, 0, Duration.ZERO, meterRegistry);
+        final var transaction = new LedgerWorkflow.TransactionDetails("123", "456", 42);
+        // Waits for the ledgers rather than failing while they are still starting
+        assertEquals("1", ledgerService.transferAsync(transaction).join().id().split("-")[1]);
+        assertTrue(ledgerService.ledgersStarted());
+        assertEquals(Map.of("ledger-workflow-0", "running", "ledger-workflow-1", "running"), ledgerService.ledgerStatus());
+        assertNotNull(meterRegistry.find("service.time.to.first.transfer").timeGauge());
+
+        // A second instance finds the ledgers already running and carries on from their state
+        final var restarted = newLedgerService(workflowClient, worker, 2);
+        assertEquals(1, restarted.getHistory().size());
+        assertTrue(restarted.ledgersStarted());
+        ledgerService.close();
+        restarted.close();
+    }
+
+    @Test
+    public void testRunningLedgerTakesOnOptionsOfRestartedService(WorkflowClient workflowClient, Worker worker)
+            throws InterruptedException
+    {
+        final var ledgerService = newLedgerService(workflowClient, worker);
+        ledgerService.transfer(new LedgerWorkflow.TransactionDetails("123", "456", 42));
+        final var ledger = workflowClient.newWorkflowStub(LedgerWorkflow.class, LedgerShardRouter.LEDGER_WORKFLOW_ID);
+        // Unchanged options cost the running ledger nothing
+        final var unchanged = newLedgerService(workflowClient, worker);
+        assertEquals(1, unchanged.getHistory().size());
+        assertEquals(0, ledger.getRolloverStats().rollovers());
+
+        final var binder = new Binder(new MapConfigurationPropertySource(Map.of("ledger.event-limit", "3", "ledger.max-queued-records", "1")));
+        final var reconfigured = new LedgerService(new TemporalConfig(workflowClient, worker.getTaskQueue()),
+                binder.bindOrCreate("ledger", LedgerProperties.class), binder.bindOrCreate("worker", WorkerProperties.class), new SimpleMeterRegistry());
+        assertEquals(1, reconfigured.getHistory().size());
+        for (int attempt = 0; attempt < 100 && ledger.getRolloverStats().rollovers() == 0; attempt++) {
+            Thread.sleep(50);
+        }
+        assertEquals(LedgerWorkflow.RolloverReason.RECONFIGURED, ledger.getRolloverStats().lastReason());
+        assertEquals("2", reconfigured.transfer(new LedgerWorkflow.TransactionDetails("123", "456", 57)).id());
+        ledgerService.close();
+        unchanged.close();
+        reconfigured.close();
+    }
+
+    @Test
+    public void testShardCountChangeRefused(WorkflowClient workflowClient, Worker worker)
+    {
+        final var ledgerService = newLedgerService(workflowClient, worker, 2);
+        final var transaction = new LedgerWorkflow.TransactionDetails("123", "456", 42);
+        ledgerService.transfer(transaction);
+
+        // Accounts would be routed away from their history, balances and idempotency keys
+        final var resharded = newLedgerService(workflowClient, worker, 3);
+        assertInstanceOf(ShardCountChangedException.class, assertThrows(CompletionException.class, () -> resharded.transferAsync(transaction).join())
+                .getCause());
+        assertEquals(false, resharded.ledgersStarted());
+        assertTrue(resharded.ledgerStatus().get("ledger-workflow-0").startsWith("refused"));
+        assertEquals("starting", resharded.ledgerStatus().get("ledger-workflow-2"));
+        // Going down to one shard would rename the ledger instead
+        final var unsharded = newLedgerService(workflowClient, worker, 1);
+        assertThrows(ShardCountChangedException.class, unsharded::getHistory);
+        assertEquals(List.of(transaction), ledgerService.getHistory().stream().map(LedgerWorkflow.LedgerRecord::transactionDetails).toList());
+        ledgerService.close();
+        resharded.close();
+        unsharded.close();
+    }
+
+    @Test
+    public void testTransfersBeyondRateLimitTurnedAway(WorkflowClient workflowClient, Worker worker)
+    {
+        final var ledgerService = newLedgerService(workflowClient, worker, 1, 0.1);
+        ledgerService.transfer(new LedgerWorkflow.TransactionDetails("123", "456", 42));
+        assertThrows(LedgerBusyException.class, () -> ledgerService.transfer(new LedgerWorkflow.TransactionDetails("123", "456", 57)));
+        assertEquals(List.of(), ledgerService.transferBatch(List.of()));
+        final var started = ledgerService.startTransfer(new LedgerWorkflow.TransactionDetails("123", "456", 57), WorkflowUpdateStage.ACCEPTED);
+        assertInstanceOf(LedgerBusyException.class, assertThrows(CompletionException.class, started::join).getCause());
+        assertEquals(1, ledgerService.getHistory().size());
+        ledgerService.close();
+    }
+
+    @Test
+    public void testAdmittedStageRejectedWithoutTakingAdmission(WorkflowClient workflowClient, Worker worker)
+    {
+        final var ledgerService = newLedgerService(workflowClient, worker, 1, 0.1);
+        final var transaction = new LedgerWorkflow.TransactionDetails("123", "456", 42);
+        assertThrows(InvalidLedgerRequestException.class, () -> ledgerService.startTransfer(transaction, WorkflowUpdateStage.ADMITTED));
+        // The rate limit still has room for the one transfer it allows
+        assertEquals("1", ledgerService.transfer(transaction).id());
+        ledgerService.close();
+    }
+
+    @Test
+    public void testRequestsTurnedAwayWhileLedgersStart()
+    {
+        // Nothing listens there, so the ledgers never start
+        final var serviceStubs = WorkflowServiceStubs.newServiceStubs(WorkflowServiceStubsOptions.newBuilder().setTarget("localhost:1").build());
+        final var binder = new Binder(new MapConfigurationPropertySource(Map.of("ledger.startup-wait", "100ms")));
+        final var ledgerService = new LedgerService(new TemporalConfig(WorkflowClient.newInstance(serviceStubs), "ledgers"),
+                binder.bindOrCreate("ledger", LedgerProperties.class), binder.bindOrCreate("worker", WorkerProperties.class), new SimpleMeterRegistry());
+        try {
+            final var transaction = new LedgerWorkflow.TransactionDetails("123", "456", 42);
+            assertThrows(LedgersStartingException.class, () -> ledgerService.transfer(transaction));
+            assertThrows(LedgersStartingException.class, ledgerService::getHistory);
+            final var started = ledgerService.startTransfer(transaction, WorkflowUpdateStage.ACCEPTED);
+            assertInstanceOf(LedgersStartingException.class, assertThrows(CompletionException.class, started::join).getCause());
+            assertEquals(false, ledgerService.ledgersStarted());
+        }
+        finally {
+            ledgerService.close();
+            serviceStubs.shutdownNow();
+        }
+    }
+
+    private static boolean continuedAsNew(WorkflowClient workflowClient, LedgerService.TransferTicket ticket)
+    {
+        return workflowClient.fetchHistory(ticket.ledgerId(), ticket.runId()).getEvents().stream()
+                .anyMatch(historyEvent -> historyEvent.hasWorkflowExecutionContinuedAsNewEventAttributes());
+    }
+}
@@ -0,0 +1,63 @@
+package com.claymccoy.moneytransfer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LedgerShardRouterTest
+{
+    @Test
+    public void testSingleShardKeepsOriginalWorkflowId()
+    {
+        final var router = new LedgerShardRouter(1);
+        assertEquals(0, router.shardFor("123"));
+        assertEquals("ledger-workflow", router.workflowId(0));
+        assertEquals("", router.recordIdPrefix(0));
+    }
+
+    @Test
+    public void testAccountsSpreadAcrossShardsAndStickToOne()
+    {
+        final var router = new LedgerShardRouter(4);
+        final var usedShards = IntStream.range(0, 100)
+                .map(account -> router.shardFor(Integer.toString(account)))
+                .distinct()
+                .count();
+        assertEquals(4, usedShards);
+        assertEquals(router.shardFor("123"), router.shardFor("123"));
+        assertEquals("ledger-workflow-2", router.workflowId(2));
+        assertEquals("2-", router.recordIdPrefix(2));
+    }
+
+    @Test
+    public void testGrowingShardCountOnlyMovesSomeAccounts()
+    {
+        final var before = new LedgerShardRouter(4);
+        final var after = new LedgerShardRouter(5);
+        final var moved = IntStream.range(0, 1000)
+                .filter(account -> before.shardFor(Integer.toString(account)) != after.shardFor(Integer.toString(account)))
+                .count();
+        assertTrue(moved < 400, "Too many accounts moved shard: " + moved);
+    }
+
+    @Test
+    public void testRecordIdsNameTheirShard()
+    {
+        assertEquals(0, new LedgerShardRouter(1).shardOfRecord("17"));
+        assertEquals(2, new LedgerShardRouter(4).shardOfRecord("2-17"));
+        assertThrows(IllegalArgumentException.class, () -> new LedgerShardRouter(4).shardOfRecord("4-17"));
+        assertThrows(IllegalArgumentException.class, () -> new LedgerShardRouter(4).shardOfRecord("17"));
+        assertThrows(IllegalArgumentException.class, () -> new LedgerShardRouter(1).shardOfRecord("x"));
+        assertThrows(IllegalArgumentException.class, () -> new LedgerShardRouter(1).shardOfRecord("0-17"));
+    }
+
+    @Test
+    public void testRejectsEmptyShardCount()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new LedgerShardRouter(0));
+    }
+}
@@ -1,33 +1,57 @@
 package com.claymccoy.moneytransfer;
 
 import com.google.common.collect.ImmutableList;
+import io.temporal.api.common.v1.WorkflowExecution;
+import io.temporal.api.history.v1.HistoryEvent;
 import io.temporal.client.WorkflowClient;
+import io.temporal.client.WorkflowUpdateException;
+import io.temporal.common.converter.DefaultDataConverter;
+import io.temporal.common.converter.JacksonJsonPayloadConverter;
 import io.temporal.testing.TestWorkflowEnvironment;
 import io.temporal.testing.TestWorkflowExtension;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class LedgerWorkflowTest
 {
     @RegisterExtension
     public static final TestWorkflowExtension testWorkflowExtension =
             TestWorkflowExtension.newBuilder()
-                    .registerWorkflowImplementationTypes(LedgerWorkflowImpl.class, FakeMoneyTransferWorkflow.class)
+                    .registerWorkflowImplementationTypes(LedgerWorkflowImpl.class, FakeMoneyTransferWorkflow.class, FakeSettlementWorkflow.class)
                     .build();
 
     @BeforeEach
     public void init()
     {
         transferCounter = 0;
+        settlementCounter = 0;
     }
 
-    private static int transferCounter;
+    private static volatile int transferCounter;
+    private static volatile int settlementCounter;
+
+    // Children are dispatched asynchronously after the update returns, so give them a moment to run
+    private static void awaitTransferCounter(int expected) throws InterruptedException
+    {
+        for (int attempt = 0; attempt < 100 && transferCounter < expected; attempt++) {
+            Thread.sleep(50);
+        }
+    }
 
     public static class FakeMoneyTransferWorkflow
             implements MoneyTransferWorkflow
@@ -39,8 +63,21 @@ public class LedgerWorkflowTest
         }
     }
 
+    public static class FakeSettlementWorkflow
+            implements SettlementWorkflow
+    {
+        @Override
+        public SettlementResult settle(SettlementInput settlementInput)
+        {
+            settlementCounter++;
+            transferCounter += settlementInput.transfers().size();
+            return new SettlementResult(settlementInput.transfers().stream().map(transfer -> TransferOutcome.COMPLETED).toList());
+        }
+    }
+
     @Test
     public void testTransfersAddedToHistoryWithIncrementedId(TestWorkflowEnvironment testEnv, WorkflowClient workflowClient, LedgerWorkflow workflow)
+            throws InterruptedException
     {
         final var wfExecution = WorkflowClient.start(workflow::start, null);
         workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", 42)));
@@ -50,6 +87,7 @@ public class LedgerWorkflowTest
                 new LedgerWorkflow.LedgerRecord("1", new LedgerWorkflow.TransactionDetails("123", "456", 42)),
                 new LedgerWorkflow.LedgerRecord("2", new LedgerWorkflow.TransactionDetails("asd", "zxc", 57)));
         assertEquals(expectedHistory, history);
+        awaitTransferCounter(2);
         assertEquals(2, transferCounter);
         final var workflowHistory = workflowClient.fetchHistory(wfExecution.getWorkflowId(), wfExecution.getRunId());
         final var continueAsNewEvents = workflowHistory.getEvents().stream().filter(historyEvent -> historyEvent.hasWorkflowExecutionContinuedAsNewEventAttributes()).toList();
@@ -58,6 +96,7 @@ public class LedgerWorkflowTest
 
     @Test
     public void testContinueAsNewAfterEnoughTransfers(WorkflowClient workflowClient, LedgerWorkflow workflow)
+            throws InterruptedException
     {
         final var startInput = new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 3);
         final var wfExecution = WorkflowClient.start(workflow::start, startInput);
@@ -74,9 +113,334 @@ public class LedgerWorkflowTest
                 new LedgerWorkflow.LedgerRecord("4", new LedgerWorkflow.TransactionDetails("rty", "uio", 101)),
                 new LedgerWorkflow.LedgerRecord("5", new LedgerWorkflow.TransactionDetails("hjk", "bnm", 151)));
         assertEquals(expectedHistory, history);
+        awaitTransferCounter(5);
         assertEquals(5, transferCounter);
         final var workflowHistory = workflowClient.fetchHistory(wfExecution.getWorkflowId(), wfExecution.getRunId());
         final var continueAsNewEvents = workflowHistory.getEvents().stream().filter(historyEvent -> historyEvent.hasWorkflowExecutionContinuedAsNewEventAttributes()).toList();
         assertEquals(1, continueAsNewEvents.size());
     }
+
+    @Test
+    public void testShardPrefixAppliedToRecordIds(WorkflowClient workflowClient, LedgerWorkflow workflow)
+    {
+        final var startInput = new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 3, "2-", null, null, null);
+        WorkflowClient.start(workflow::start, startInput);
+        final var ledgerRecord = workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", 42)));
+        assertEquals("2-1", ledgerRecord.id());
+        assertEquals(ImmutableList.of(ledgerRecord), workflow.getHistory());
+    }
+
+    @Test
+    public void testBatchRecordedInOrderAsOneEvent(WorkflowClient workflowClient, LedgerWorkflow workflow)
+            throws InterruptedException
+    {
+        final var startInput = new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 1);
+        final var wfExecution = WorkflowClient.start(workflow::start, startInput);
+        final var ledgerRecords = workflow.transferMoneyBatch(new LedgerWorkflow.TransferMoneyBatchInput(ImmutableList.of(
+                new LedgerWorkflow.TransactionDetails("123", "456", 42),
+                new LedgerWorkflow.TransactionDetails("asd", "zxc", 57),
+                new LedgerWorkflow.TransactionDetails("fgh", "vbn", 72)))).ledgerRecords();
+        final var expectedHistory = ImmutableList.of(
+                new LedgerWorkflow.LedgerRecord("1", new LedgerWorkflow.TransactionDetails("123", "456", 42)),
+                new LedgerWorkflow.LedgerRecord("2", new LedgerWorkflow.TransactionDetails("asd", "zxc", 57)),
+                new LedgerWorkflow.LedgerRecord("3", new LedgerWorkflow.TransactionDetails("fgh", "vbn", 72)));
+        assertEquals(expectedHistory, ledgerRecords);
+        assertEquals(expectedHistory, workflow.getHistory());
+        awaitTransferCounter(3);
+        assertEquals(3, transferCounter);
+        // A single update stays within an event limit of 1
+        final var workflowHistory = workflowClient.fetchHistory(wfExecution.getWorkflowId(), wfExecution.getRunId());
+        final var continueAsNewEvents = workflowHistory.getEvents().stream().filter(historyEvent -> historyEvent.hasWorkflowExecutionContinuedAsNewEventAttributes()).toList();
+        assertEquals(0, continueAsNewEvents.size());
+    }
+
+    @Test
+    public void testQueuedRecordsDispatchedTogether(WorkflowClient workflowClient, LedgerWorkflow workflow)
+            throws InterruptedException
+    {
+        final var startInput = new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 3, null,
+                new LedgerWorkflow.LedgerOptions(0, 5, null, null, null, null, 0, 0, null, null, 0), null, null);
+        final var wfExecution = WorkflowClient.start(workflow::start, startInput);
+        workflow.transferMoneyBatch(new LedgerWorkflow.TransferMoneyBatchInput(ImmutableList.of(
+                new LedgerWorkflow.TransactionDetails("123", "456", 42),
+                new LedgerWorkflow.TransactionDetails("asd", "zxc", 57),
+                new LedgerWorkflow.TransactionDetails("fgh", "vbn", 72),
+                new LedgerWorkflow.TransactionDetails("rty", "uio", 101),
+                new LedgerWorkflow.TransactionDetails("hjk", "bnm", 151))));
+        awaitTransferCounter(5);
+        assertEquals(5, transferCounter);
+        // All five children are initiated by the same workflow task instead of one task per child
+        final var events = workflowClient.fetchHistory(wfExecution.getWorkflowId(), wfExecution.getRunId()).getEvents();
+        int longestRun = 0;
+        int currentRun = 0;
+        for (final var event : events) {
+            currentRun = event.hasStartChildWorkflowExecutionInitiatedEventAttributes() ? currentRun + 1 : 0;
+            longestRun = Math.max(longestRun, currentRun);
+        }
+        assertEquals(5, longestRun);
+    }
+
+    @Test
+    public void testHighPriorityLaneDispatchedAheadByWeight(WorkflowClient workflowClient, LedgerWorkflow workflow)
+            throws InterruptedException
+    {
+        final var options = new LedgerWorkflow.LedgerOptions(0, 1, null, null, null, null, 0, 0, null, null, 0,
+                new LedgerWorkflow.PriorityLaneOptions(1000, 2, null, null));
+        final var wfExecution = WorkflowClient.start(workflow::start,
+                new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 100, null, options, null, null));
+        workflow.transferMoneyBatch(new LedgerWorkflow.TransferMoneyBatchInput(ImmutableList.of(
+                new LedgerWorkflow.TransactionDetails("123", "456", 10),
+                new LedgerWorkflow.TransactionDetails("123", "456", 10),
+                new LedgerWorkflow.TransactionDetails("123", "456", 10),
+                new LedgerWorkflow.TransactionDetails("asd", "zxc", 1000),
+                new LedgerWorkflow.TransactionDetails("asd", "zxc", 1000),
+                new LedgerWorkflow.TransactionDetails("asd", "zxc", 5000),
+                new LedgerWorkflow.TransactionDetails("asd", "zxc", 5000))));
+        awaitQueueDrained(workflow);
+        // Two high priority records for every normal one, then the rest of the normal lane
+        assertEquals(ImmutableList.of("4", "5", "1", "6", "7", "2", "3"),
+                dispatchedChildren(workflowClient, wfExecution).stream().map(child -> child.split("@")[0]).toList());
+    }
+
+    @Test
+    public void testOverdueNormalRecordsDispatchedAheadOfHighPriorityQueue(WorkflowClient workflowClient, LedgerWorkflow workflow)
+            throws InterruptedException
+    {
+        final var options = new LedgerWorkflow.LedgerOptions(0, 1, null, null, null, null, 0, 0, null, null, 0,
+                new LedgerWorkflow.PriorityLaneOptions(1000, 100, Duration.ZERO, "priority-transfers"));
+        final var wfExecution = WorkflowClient.start(workflow::start,
+                new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 100, null, options, null, null));
+        workflow.transferMoneyBatch(new LedgerWorkflow.TransferMoneyBatchInput(ImmutableList.of(
+                new LedgerWorkflow.TransactionDetails("asd", "zxc", 1000),
+                new LedgerWorkflow.TransactionDetails("123", "456", 10),
+                new LedgerWorkflow.TransactionDetails("asd", "zxc", 1000))));
+        // Asked for, whatever the amount
+        workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", 10), null,
+                LedgerWorkflow.TransferPriority.HIGH));
+        awaitQueueDrained(workflow);
+        final var children = dispatchedChildren(workflowClient, wfExecution);
+        // Any wait is too long for the normal record, so it goes ahead of the high priority ones despite their weight
+        assertEquals("2", children.get(0).split("@")[0]);
+        assertTrue(children.contains("4@priority-transfers"));
+        assertEquals(3, children.stream().filter(child -> child.endsWith("@priority-transfers")).count());
+    }
+
+    private static void awaitQueueDrained(LedgerWorkflow workflow)
+            throws InterruptedException
+    {
+        for (int attempt = 0; attempt < 100 && workflow.getQueueDepth() > 0; attempt++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, workflow.getQueueDepth());
+    }
+
+    // "<record id>@<task queue>" for each transfer child the ledger started, in the order it started them
+    private static List<String> dispatchedChildren(WorkflowClient workflowClient, WorkflowExecution execution)
+    {
+        return workflowClient.fetchHistory(execution.getWorkflowId(), execution.getRunId()).getEvents().stream()
+                .filter(HistoryEvent::hasStartChildWorkflowExecutionInitiatedEventAttributes)
+                .map(HistoryEvent::getStartChildWorkflowExecutionInitiatedEventAttributes)
+                .map(child -> child.getWorkflowId().substring("moneyTransfer ".length()) + "@" + child.getTaskQueue().getName())
+                .toList();
+    }
+
+    @Test
+    public void testRolloverReasonsCountedAcrossRuns(LedgerWorkflow workflow)
+            throws InterruptedException
+    {
+        // Only the history length limit applies, which a run passes after a couple of transfers
+        final var options = new LedgerWorkflow.LedgerOptions(0, 1, new LedgerWorkflow.RolloverOptions(20, 0, 0, null), null, null, null, 0, 0, null, null, 0);
+        final var startInput = new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 0, null, options, null, null);
+        WorkflowClient.start(workflow::start, startInput);
+        workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", 42)));
+        workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("asd", "zxc", 57)));
+        workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("fgh", "vbn", 72)));
+        awaitTransferCounter(3);
+        assertEquals(3, transferCounter);
+        final var rolloverStats = workflow.getRolloverStats();
+        assertEquals(LedgerWorkflow.RolloverReason.HISTORY_LENGTH, rolloverStats.lastReason());
+        assertEquals(rolloverStats.rollovers(), rolloverStats.rolloversByReason().get(LedgerWorkflow.RolloverReason.HISTORY_LENGTH));
+        assertTrue(rolloverStats.rollovers() >= 1);
+        assertTrue(rolloverStats.lastRunHistoryLength() > 0);
+    }
+
+    @Test
+    public void testHistoryPagedByCursorAndAccount(LedgerWorkflow workflow)
+    {
+        WorkflowClient.start(workflow::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 100));
+        workflow.transferMoneyBatch(new LedgerWorkflow.TransferMoneyBatchInput(ImmutableList.of(
+                new LedgerWorkflow.TransactionDetails("123", "456", 42),
+                new LedgerWorkflow.TransactionDetails("asd", "zxc", 57),
+                new LedgerWorkflow.TransactionDetails("456", "fgh", 72))));
+
+        final var firstPage = workflow.getHistoryPage(new LedgerWorkflow.HistoryPageInput(null, 2, null));
+        assertEquals(ImmutableList.of("1", "2"), firstPage.records().stream().map(LedgerWorkflow.LedgerRecord::id).toList());
+        assertEquals("2", firstPage.cursor());
+        assertTrue(firstPage.hasMore());
+        final var secondPage = workflow.getHistoryPage(new LedgerWorkflow.HistoryPageInput(firstPage.cursor(), 2, null));
+        assertEquals(ImmutableList.of("3"), secondPage.records().stream().map(LedgerWorkflow.LedgerRecord::id).toList());
+        assertEquals(false, secondPage.hasMore());
+
+        // Polling from the last cursor only returns what arrived since
+        final var caughtUp = workflow.getHistoryPage(new LedgerWorkflow.HistoryPageInput(secondPage.cursor(), 2, null));
+        assertEquals(new LedgerWorkflow.HistoryPage(ImmutableList.of(), "3", false), caughtUp);
+        workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("zxc", "123", 101)));
+        final var newRecords = workflow.getHistoryPage(new LedgerWorkflow.HistoryPageInput(caughtUp.cursor(), 2, null));
+        assertEquals(ImmutableList.of("4"), newRecords.records().stream().map(LedgerWorkflow.LedgerRecord::id).toList());
+
+        final var accountPage = workflow.getHistoryPage(new LedgerWorkflow.HistoryPageInput(null, 0, "456"));
+        assertEquals(ImmutableList.of("1", "3"), accountPage.records().stream().map(LedgerWorkflow.LedgerRecord::id).toList());
+        assertEquals("4", accountPage.cursor());
+    }
+
+    @Test
+    public void testAccountIndexKeptAcrossRuns(LedgerWorkflow workflow)
+            throws InterruptedException
+    {
+        WorkflowClient.start(workflow::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 2));
+        workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", 42)));
+        workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("asd", "zxc", 57)));
+        workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("456", "asd", 10)));
+        awaitTransferCounter(3);
+
+        assertEquals(new LedgerWorkflow.AccountHistory("456", 32, ImmutableList.of(
+                new LedgerWorkflow.LedgerRecord("1", new LedgerWorkflow.TransactionDetails("123", "456", 42)),
+                new LedgerWorkflow.LedgerRecord("3", new LedgerWorkflow.TransactionDetails("456", "asd", 10)))), workflow.getAccountHistory("456"));
+        assertEquals(-47, workflow.getBalance("asd"));
+        assertEquals(0, workflow.getBalance("unknown"));
+        assertEquals(ImmutableList.of(), workflow.getAccountHistory("unknown").records());
+        final var accountPage = workflow.getHistoryPage(new LedgerWorkflow.HistoryPageInput("1", 0, "456"));
+        assertEquals(ImmutableList.of("3"), accountPage.records().stream().map(LedgerWorkflow.LedgerRecord::id).toList());
+    }
+
+    @Test
+    public void testRetriedTransfersRecordedOnce(LedgerWorkflow workflow)
+            throws InterruptedException
+    {
+        final var options = new LedgerWorkflow.LedgerOptions(0, 1, null, null, null, null, 0, 2, null, null, 0);
+        WorkflowClient.start(workflow::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 2, null, options, null, null));
+        final var transaction = new LedgerWorkflow.TransactionDetails("123", "456", 42);
+        final var first = workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction, "a"));
+        assertEquals(first, workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction, "a")));
+        workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction, "b"));
+        for (int attempt = 0; attempt < 100 && workflow.getRolloverStats().rollovers() < 1; attempt++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, workflow.getRolloverStats().rollovers());
+
+        // The key came through continue-as-new, until enough newer keys push it out
+        assertEquals(first, workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction, "a")));
+        workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction, "c"));
+        assertEquals("4", workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction, "a")).id());
+        awaitTransferCounter(4);
+        assertEquals(4, transferCounter);
+        assertEquals(-168, workflow.getBalance("123"));
+    }
+
+    @Test
+    public void testFullIdempotencyCacheKeptWithinBytesThroughRollover(WorkflowClient workflowClient, LedgerWorkflow workflow)
+            throws InterruptedException, IOException
+    {
+        final var options = new LedgerWorkflow.LedgerOptions(0, 1, null, null, null, null, 0, 1000, null, null, 0, null, 4096);
+        final var wfExecution = WorkflowClient.start(workflow::start,
+                new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 29, null, options, null, null));
+        final var transaction = new LedgerWorkflow.TransactionDetails("123", "456", 42);
+        final var records = new ArrayList<LedgerWorkflow.LedgerRecord>();
+        for (int key = 0; key < 30; key++) {
+            records.add(workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction, longKey(key))));
+        }
+        // The rollover is counted before the run closes, so wait for the run itself
+        for (int attempt = 0; attempt < 100 && !lastEvent(workflowClient, wfExecution).hasWorkflowExecutionContinuedAsNewEventAttributes(); attempt++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, workflow.getRolloverStats().rollovers());
+
+        // Far below the key count limit, the byte limit decided how many keys went into the next run
+        final var continuedAsNew = lastEvent(workflowClient, wfExecution).getWorkflowExecutionContinuedAsNewEventAttributes();
+        final var carried = DefaultDataConverter.newDefaultInstance().fromPayloads(0, Optional.of(continuedAsNew.getInput()),
+                LedgerWorkflow.StartInput.class, LedgerWorkflow.StartInput.class).idempotentTransfers();
+        assertTrue(carried.size() > 1 && carried.size() < 30);
+        assertTrue(JacksonJsonPayloadConverter.newDefaultObjectMapper().writeValueAsBytes(carried).length <= 4096);
+        assertEquals(records.get(29), workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction, longKey(29))));
+        assertEquals("31", workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction, longKey(0))).id());
+    }
+
+    private static HistoryEvent lastEvent(WorkflowClient workflowClient, WorkflowExecution execution)
+    {
+        return workflowClient.fetchHistory(execution.getWorkflowId(), execution.getRunId()).getLastEvent();
+    }
+
+    private static String longKey(int key)
+    {
+        return key + "-" + "k".repeat(200);
+    }
+
+    @Test
+    public void testQueuedTransfersNettedPerAccountPair(LedgerWorkflow workflow)
+            throws InterruptedException
+    {
+        final var options = new LedgerWorkflow.LedgerOptions(0, 1, null, null, null, null, 0, 0, null, Duration.ZERO, 0);
+        WorkflowClient.start(workflow::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 100, null, options, null, null));
+        workflow.transferMoneyBatch(new LedgerWorkflow.TransferMoneyBatchInput(ImmutableList.of(
+                new LedgerWorkflow.TransactionDetails("123", "456", 10),
+                new LedgerWorkflow.TransactionDetails("456", "123", 14),
+                new LedgerWorkflow.TransactionDetails("asd", "zxc", 5),
+                new LedgerWorkflow.TransactionDetails("123", "456", 1),
+                new LedgerWorkflow.TransactionDetails("zxc", "asd", 5),
+                new LedgerWorkflow.TransactionDetails("fgh", "vbn", 72))));
+        awaitTransferCounter(2);
+
+        // One child for the 123/456 pair, one for the lone record, none for asd/zxc which cancel out
+        assertEquals(2, transferCounter);
+        assertEquals(new LedgerWorkflow.Settlement("settlement-1", new LedgerWorkflow.TransactionDetails("456", "123", 3), ImmutableList.of("1", "2", "4")),
+                workflow.getSettlement("2"));
+        assertEquals(0, workflow.getSettlement("5").transactionDetails().amount());
+        assertNull(workflow.getSettlement("6"));
+        // The records themselves are kept as they were accepted
+        assertEquals(6, workflow.getHistory().size());
+        assertEquals(-3, workflow.getBalance("456"));
+    }
+
+    @Test
+    public void testQueuedTransfersSettledInBatches(LedgerWorkflow workflow)
+            throws InterruptedException
+    {
+        final var options = new LedgerWorkflow.LedgerOptions(0, 1, null, null, null, null, 0, 0, null, null, 3);
+        WorkflowClient.start(workflow::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 100, null, options, null, null));
+        final var transactions = new ArrayList<LedgerWorkflow.TransactionDetails>();
+        for (int amount = 1; amount <= 5; amount++) {
+            transactions.add(new LedgerWorkflow.TransactionDetails("123", "456", amount));
+        }
+        workflow.transferMoneyBatch(new LedgerWorkflow.TransferMoneyBatchInput(transactions));
+        awaitTransferCounter(5);
+
+        assertEquals(5, transferCounter);
+        assertEquals(2, settlementCounter);
+    }
+
+    @Test
+    public void testTransfersRejectedWhileQueueFull(LedgerWorkflow workflow)
+    {
+        final var options = new LedgerWorkflow.LedgerOptions(0, 1, null, null, null, null, 1, 0, null, null, 0);
+        WorkflowClient.start(workflow::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 1000, null, options, null, null));
+        // A burst arrives faster than children are dispatched one at a time
+        final var transfers = new ArrayList<CompletableFuture<LedgerWorkflow.LedgerRecord>>();
+        for (int amount = 1; amount <= 20; amount++) {
+            final var transaction = new LedgerWorkflow.TransactionDetails("123", "456", amount);
+            transfers.add(CompletableFuture.supplyAsync(() -> workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction))));
+        }
+        var rejected = 0;
+        for (final var transfer : transfers) {
+            try {
+                transfer.join();
+            }
+            catch (CompletionException e) {
+                assertTrue(LedgerService.isQueueFull(assertInstanceOf(WorkflowUpdateException.class, e.getCause())));
+                rejected++;
+            }
+        }
+        assertTrue(rejected > 0);
+        // Rejected transfers were never recorded
+        assertEquals(20 - rejected, workflow.getHistory().size());
+    }
 }
@@ -0,0 +1,74 @@
+package com.claymccoy.moneytransfer;
+
+import com.claymccoy.temporal.TemporalConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.temporal.client.WorkflowClient;
+import io.temporal.testing.TestWorkflowExtension;
+import io.temporal.worker.Worker;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LoadGeneratorTest
+{
+    @RegisterExtension
+    public static final TestWorkflowExtension testWorkflowExtension =
+            TestWorkflowExtension.newBuilder()
+                    .registerWorkflowImplementationTypes(LedgerWorkflowImpl.class, LedgerCompactionTest.NoOpMoneyTransferWorkflow.class)
+                    .build();
+
+    @Test
+    public void testZipfianSamplerFavoursHotAccounts()
+    {
+        final var random = new SplittableRandom(7);
+        final var zipfian = AccountSampler.zipfian(1_000, 1.1);
+        final var uniform = AccountSampler.uniform(1_000);
+        var zipfianHot = 0;
+        var uniformHot = 0;
+        for (int i = 0; i < 10_000; i++) {
+            zipfianHot += zipfian.nextRank(random) < 10 ? 1 : 0;
+            uniformHot += uniform.nextRank(random) < 10 ? 1 : 0;
+        }
+        // The ten hottest of a thousand accounts take about a third of Zipfian traffic, against 1% of uniform traffic
+        assertTrue(zipfianHot > 2_500, "Zipfian hot account picks: " + zipfianHot);
+        assertTrue(uniformHot < 250, "Uniform hot account picks: " + uniformHot);
+
+        final var transaction = AccountSampler.zipfian(2, 1.1).nextTransaction(random, 10);
+        assertNotEquals(transaction.sourceAccountId(), transaction.destinationAccountId());
+    }
+
+    @Test
+    public void testReportCountsEveryTransferSent(WorkflowClient workflowClient, Worker worker)
+            throws InterruptedException
+    {
+        final var source = new MapConfigurationPropertySource(Map.of(
+                "load.target-rate", "0",
+                "load.concurrency", "4",
+                "load.transfers", "20",
+                "load.distribution", "zipfian"));
+        final var loadProperties = new Binder(source).bindOrCreate("load", LoadProperties.class);
+        final var ledgerProperties = new Binder(source).bindOrCreate("ledger", LedgerProperties.class);
+        final var workerProperties = new WorkerProperties("", "", "", 0, 0, 0, 0, 0, 0, 0, false, 0, 0);
+        final var ledgerService = new LedgerService(new TemporalConfig(workflowClient, worker.getTaskQueue()), ledgerProperties,
+                workerProperties, new SimpleMeterRegistry());
+
+        final var report = new LoadGenerator(ledgerService, null).run(loadProperties);
+        ledgerService.close();
+
+        assertEquals(20, report.sent());
+        assertEquals(20, report.accepted());
+        assertEquals(20, report.acceptLatency().getTotalCount());
+        assertEquals(0, report.errorRate());
+        assertEquals(Duration.ofMinutes(1), loadProperties.duration());
+        assertTrue(report.summary().contains("accepted 20"));
+    }
+}
@@ -0,0 +1,62 @@
+package com.claymccoy.moneytransfer;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MicroBatcherTest
+{
+    @Test
+    public void testFullBatchSentTogether()
+    {
+        final var sentBatches = new CopyOnWriteArrayList<List<Integer>>();
+        try (var batcher = new MicroBatcher<Integer, String>(3, Duration.ofMinutes(1), batch -> {
+            sentBatches.add(batch);
+            return batch.stream().map(item -> "record " + item).toList();
+        })) {
+            final var first = batcher.submit(1);
+            final var second = batcher.submit(2);
+            final var third = batcher.submit(3);
+            assertEquals("record 1", first.join());
+            assertEquals("record 2", second.join());
+            assertEquals("record 3", third.join());
+        }
+        assertEquals(ImmutableList.of(ImmutableList.of(1, 2, 3)), sentBatches);
+    }
+
+    @Test
+    public void testPartialBatchSentAfterDelay()
+    {
+        final var sentBatches = new CopyOnWriteArrayList<List<Integer>>();
+        try (var batcher = new MicroBatcher<Integer, Integer>(100, Duration.ofMillis(20), batch -> {
+            sentBatches.add(batch);
+            return batch;
+        })) {
+            final var first = batcher.submit(1);
+            final var second = batcher.submit(2);
+            assertEquals(1, first.join());
+            assertEquals(2, second.join());
+        }
+        assertEquals(ImmutableList.of(ImmutableList.of(1, 2)), sentBatches);
+    }
+
+    @Test
+    public void testSendFailureFailsWholeBatch()
+    {
+        try (var batcher = new MicroBatcher<Integer, Integer>(2, Duration.ofMinutes(1), batch -> {
+            throw new IllegalStateException("Update rejected");
+        })) {
+            final var first = batcher.submit(1);
+            final var second = batcher.submit(2);
+            assertEquals("Update rejected", assertThrows(CompletionException.class, first::join).getCause().getMessage());
+            assertEquals("Update rejected", assertThrows(CompletionException.class, second::join).getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.claymccoy.moneytransfer;
+
+import com.claymccoy.temporal.TemporalConfig;
+import io.temporal.activity.Activity;
+import io.temporal.client.WorkflowClient;
+import io.temporal.client.WorkflowOptions;
+import io.temporal.testing.TestWorkflowEnvironment;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MoneyTransferWorkerTest
+{
+    @Test
+    public void testTransfersAndActivitiesRunOnTheirOwnTaskQueues() throws InterruptedException
+    {
+        try (final var testEnv = TestWorkflowEnvironment.newInstance()) {
+            final var accountActivity = new MoneyTransferWorkflowTest.FakeAccountActivity();
+            testEnv.newWorker("ledgers").registerWorkflowImplementationTypes(LedgerWorkflowImpl.class);
+            testEnv.newWorker("transfers").registerWorkflowImplementationTypes(MoneyTransferWorkflowImpl.class);
+            testEnv.newWorker("activities").registerActivitiesImplementations(accountActivity);
+            testEnv.start();
+            final var workflow = testEnv.getWorkflowClient().newWorkflowStub(LedgerWorkflow.class,
+                    WorkflowOptions.newBuilder().setTaskQueue("ledgers").build());
+            final var transferOptions = new MoneyTransferWorkflow.TransferOptions(false, null, 0, "activities");
+            final var options = new LedgerWorkflow.LedgerOptions(0, 1, null, transferOptions, "transfers", "activities", 0, 0, null, null, 0);
+            WorkflowClient.start(workflow::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 3, null,
+                    options, null, null));
+            workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", 42)));
+            for (int attempt = 0; attempt < 100 && accountActivity.getActivitySteps().size() < 2; attempt++) {
+                Thread.sleep(50);
+            }
+
+            assertEquals(2, accountActivity.getActivitySteps().size());
+        }
+    }
+
+    // Records whether each call ran as a local activity, as a failed local call would still complete as a regular one
+    static class LocalityRecordingAccountActivity
+            extends MoneyTransferWorkflowTest.FakeAccountActivity
+    {
+        private final List<Boolean> localCalls = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void withdraw(String accountId, String referenceId, int amount)
+        {
+            localCalls.add(Activity.getExecutionContext().getInfo().isLocal());
+            super.withdraw(accountId, referenceId, amount);
+        }
+
+        @Override
+        public void deposit(String accountId, String referenceId, int amount)
+        {
+            localCalls.add(Activity.getExecutionContext().getInfo().isLocal());
+            super.deposit(accountId, referenceId, amount);
+        }
+    }
+
+    @Test
+    public void testLocalActivitiesRunOnSeparateTransferQueue(@TempDir Path archiveDirectory) throws InterruptedException
+    {
+        try (final var testEnv = TestWorkflowEnvironment.newInstance()) {
+            final var binder = new Binder(new MapConfigurationPropertySource(Map.of(
+                    "ledger.local-activities", "true",
+                    "worker.transfer-task-queue", "transfers",
+                    "worker.activity-task-queue", "activities")));
+            final var ledgerProperties = binder.bindOrCreate("ledger", LedgerProperties.class);
+            final var workerProperties = binder.bindOrCreate("worker", WorkerProperties.class);
+            final var accountActivity = new LocalityRecordingAccountActivity();
+            final var worker = new MoneyTransferWorker(new TemporalConfig(testEnv.getWorkflowClient(), "ledgers"), workerProperties,
+                    ledgerProperties, accountActivity, new FileLedgerArchive(archiveDirectory), AccountActivityOptions.DEFAULTS);
+            worker.init();
+            final var workflow = testEnv.getWorkflowClient().newWorkflowStub(LedgerWorkflow.class,
+                    WorkflowOptions.newBuilder().setTaskQueue("ledgers").build());
+            WorkflowClient.start(workflow::start, new LedgerWorkflow.StartInput(new ArrayList<>(), 1, new ArrayDeque<>(), 0, null,
+                    ledgerProperties.ledgerOptions("transfers", "activities", "transfers"), null, null));
+            workflow.transferMoney(new LedgerWorkflow.TransferMoneyInput(new LedgerWorkflow.TransactionDetails("123", "456", 42)));
+            for (int attempt = 0; attempt < 100 && accountActivity.getActivitySteps().size() < 2; attempt++) {
+                Thread.sleep(50);
+            }
+            worker.shutdown();
+
+            assertEquals(List.of(true, true), accountActivity.localCalls);
+        }
+    }
+
+    @Test
+    public void testUnsetLimitsKeepSdkDefaults()
+    {
+        final var defaults = new WorkerProperties("", "", "", 0, 0, 0, 0, 0, 0, 0, false, 0, 0);
+        final var workerOptions = MoneyTransferWorker.workerOptions(defaults);
+        assertEquals(0, workerOptions.getMaxConcurrentWorkflowTaskPollers());
+        assertEquals(0, workerOptions.getMaxConcurrentActivityExecutionSize());
+        assertEquals("ledgers", defaults.transferTaskQueue("ledgers"));
+        assertEquals("ledgers", defaults.activityTaskQueue("ledgers"));
+        assertEquals("ledgers", defaults.highPriorityTransferTaskQueue("ledgers"));
+
+        final var tuned = new WorkerProperties("transfers", "activities", "priority-transfers", 4, 8, 100, 500, 200, 1000, 800, true, 2, 20);
+        final var tunedWorkerOptions = MoneyTransferWorker.workerOptions(tuned);
+        assertEquals(4, tunedWorkerOptions.getMaxConcurrentWorkflowTaskPollers());
+        assertEquals(8, tunedWorkerOptions.getMaxConcurrentActivityTaskPollers());
+        assertEquals(100, tunedWorkerOptions.getMaxConcurrentWorkflowTaskExecutionSize());
+        assertEquals(500, tunedWorkerOptions.getMaxConcurrentActivityExecutionSize());
+        assertEquals(200, tunedWorkerOptions.getMaxConcurrentLocalActivityExecutionSize());
+        assertTrue(tunedWorkerOptions.isUsingVirtualThreadsOnActivityWorker());
+        assertEquals(1000, MoneyTransferWorker.workerFactoryOptions(tuned).getWorkflowCacheSize());
+        assertEquals(800, MoneyTransferWorker.workerFactoryOptions(tuned).getMaxWorkflowThreadCount());
+        assertEquals("transfers", tuned.transferTaskQueue("ledgers"));
+        assertEquals("priority-transfers", tuned.highPriorityTransferTaskQueue("ledgers"));
+        // The high priority worker keeps its own workflow task capacity and shares the rest
+        final var highPriorityWorkerOptions = MoneyTransferWorker.highPriorityWorkerOptions(tuned);
+        assertEquals(2, highPriorityWorkerOptions.getMaxConcurrentWorkflowTaskPollers());
+        assertEquals(20, highPriorityWorkerOptions.getMaxConcurrentWorkflowTaskExecutionSize());
+        assertEquals(8, highPriorityWorkerOptions.getMaxConcurrentActivityTaskPollers());
+        assertEquals(4, MoneyTransferWorker.highPriorityWorkerOptions(new WorkerProperties("transfers", "activities", "priority-transfers",
+                4, 8, 100, 500, 200, 1000, 800, true, 0, 0)).getMaxConcurrentWorkflowTaskPollers());
+    }
+}
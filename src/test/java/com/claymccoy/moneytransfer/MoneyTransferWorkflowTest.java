@@ -1,14 +1,17 @@
 package com.claymccoy.moneytransfer;
 
 import com.google.common.collect.ImmutableList;
+import io.temporal.client.WorkflowStub;
 import io.temporal.testing.TestWorkflowEnvironment;
 import io.temporal.testing.TestWorkflowExtension;
 import io.temporal.worker.Worker;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -88,6 +91,38 @@ public class MoneyTransferWorkflowTest
                 activitySteps.add(new AccountActivityStep(StepType.REFUND, StepStatus.SUCCESS, accountId, referenceId, amount));
             }
         }
+
+        @Override
+        public List<AccountLeg> withdrawBatch(List<AccountLeg> legs)
+        {
+            return failedLegs(legs, leg -> withdraw(leg.accountId(), leg.referenceId(), leg.amount()));
+        }
+
+        @Override
+        public List<AccountLeg> depositBatch(List<AccountLeg> legs)
+        {
+            return failedLegs(legs, leg -> deposit(leg.accountId(), leg.referenceId(), leg.amount()));
+        }
+
+        @Override
+        public List<AccountLeg> refundBatch(List<AccountLeg> legs)
+        {
+            return failedLegs(legs, leg -> refund(leg.accountId(), leg.referenceId(), leg.amount()));
+        }
+
+        private static List<AccountLeg> failedLegs(List<AccountLeg> legs, Consumer<AccountLeg> operation)
+        {
+            final var failed = new ArrayList<AccountLeg>();
+            for (final var leg : legs) {
+                try {
+                    operation.accept(leg);
+                }
+                catch (RuntimeException e) {
+                    failed.add(leg);
+                }
+            }
+            return failed;
+        }
     }
 
     @RegisterExtension
@@ -166,4 +201,41 @@ public class MoneyTransferWorkflowTest
                 new AccountActivityStep(StepType.REFUND, StepStatus.FAILURE, "123", "1", 42)
         ), accountActivity.getActivitySteps());
     }
+
+    @Test
+    public void testLocalActivitiesSkipActivityTaskQueue(TestWorkflowEnvironment testEnv, Worker worker, MoneyTransferWorkflow workflow)
+    {
+        final var accountActivity = new FakeAccountActivity();
+        worker.registerActivitiesImplementations(accountActivity);
+        testEnv.start();
+        final var transaction = new LedgerWorkflow.TransactionDetails("123", "456", 42);
+        final var options = new MoneyTransferWorkflow.TransferOptions(true, Duration.ofSeconds(2), 2, null);
+        workflow.transfer(new MoneyTransferWorkflow.TransferInput("1", transaction, options));
+        assertEquals(ImmutableList.of(
+                new AccountActivityStep(StepType.WITHDRAW, StepStatus.SUCCESS, "123", "1", 42),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.SUCCESS, "456", "1", 42)
+        ), accountActivity.getActivitySteps());
+        final var execution = WorkflowStub.fromTyped(workflow).getExecution();
+        final var events = testEnv.getWorkflowClient().fetchHistory(execution.getWorkflowId(), execution.getRunId()).getEvents();
+        assertTrue(events.stream().noneMatch(event -> event.hasActivityTaskScheduledEventAttributes()));
+    }
+
+    @Test
+    public void testLocalDepositFailureFallsBackToRegularActivity(TestWorkflowEnvironment testEnv, Worker worker, MoneyTransferWorkflow workflow)
+    {
+        final var accountActivity = new FakeAccountActivity(false, true, false);
+        worker.registerActivitiesImplementations(accountActivity);
+        testEnv.start();
+        final var transaction = new LedgerWorkflow.TransactionDetails("123", "456", 42);
+        final var options = new MoneyTransferWorkflow.TransferOptions(true, Duration.ofSeconds(2), 1, null);
+        workflow.transfer(new MoneyTransferWorkflow.TransferInput("1", transaction, options));
+        assertEquals(ImmutableList.of(
+                new AccountActivityStep(StepType.WITHDRAW, StepStatus.SUCCESS, "123", "1", 42),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.FAILURE, "456", "1", 42),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.FAILURE, "456", "1", 42),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.FAILURE, "456", "1", 42),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.FAILURE, "456", "1", 42),
+                new AccountActivityStep(StepType.REFUND, StepStatus.SUCCESS, "123", "1", 42)
+        ), accountActivity.getActivitySteps());
+    }
 }
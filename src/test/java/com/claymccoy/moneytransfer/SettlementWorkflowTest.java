@@ -0,0 +1,169 @@
+package com.claymccoy.moneytransfer;
+
+import com.claymccoy.moneytransfer.MoneyTransferWorkflowTest.AccountActivityStep;
+import com.claymccoy.moneytransfer.MoneyTransferWorkflowTest.FakeAccountActivity;
+import com.claymccoy.moneytransfer.MoneyTransferWorkflowTest.StepStatus;
+import com.claymccoy.moneytransfer.MoneyTransferWorkflowTest.StepType;
+import com.google.common.collect.ImmutableList;
+import io.temporal.activity.ActivityOptions;
+import io.temporal.client.WorkflowOptions;
+import io.temporal.client.WorkflowStub;
+import io.temporal.common.RetryOptions;
+import io.temporal.failure.ActivityFailure;
+import io.temporal.testing.TestActivityEnvironment;
+import io.temporal.testing.TestWorkflowEnvironment;
+import io.temporal.testing.TestWorkflowExtension;
+import io.temporal.worker.Worker;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SettlementWorkflowTest
+{
+    @RegisterExtension
+    public static final TestWorkflowExtension testWorkflowExtension =
+            TestWorkflowExtension.newBuilder()
+                    .registerWorkflowImplementationTypes(SettlementWorkflowImpl.class)
+                    .setDoNotStart(true)
+                    .build();
+
+    private static final List<LedgerWorkflow.LedgerRecord> transfers = ImmutableList.of(
+            new LedgerWorkflow.LedgerRecord("1", new LedgerWorkflow.TransactionDetails("123", "456", 42)),
+            new LedgerWorkflow.LedgerRecord("2", new LedgerWorkflow.TransactionDetails("asd", "zxc", 57)));
+
+    @Test
+    public void testTransfersSettledInBulkCalls(TestWorkflowEnvironment testEnv, Worker worker, SettlementWorkflow workflow)
+    {
+        final var accountActivity = new FakeAccountActivity();
+        worker.registerActivitiesImplementations(accountActivity);
+        testEnv.start();
+        final var result = workflow.settle(new SettlementWorkflow.SettlementInput("batch 1", transfers, null));
+        assertEquals(ImmutableList.of(SettlementWorkflow.TransferOutcome.COMPLETED, SettlementWorkflow.TransferOutcome.COMPLETED), result.outcomes());
+        assertEquals(ImmutableList.of(
+                new AccountActivityStep(StepType.WITHDRAW, StepStatus.SUCCESS, "123", "1", 42),
+                new AccountActivityStep(StepType.WITHDRAW, StepStatus.SUCCESS, "asd", "2", 57),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.SUCCESS, "456", "1", 42),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.SUCCESS, "zxc", "2", 57)
+        ), accountActivity.getActivitySteps());
+        // One activity task for all the withdrawals and one for all the deposits
+        final var execution = WorkflowStub.fromTyped(workflow).getExecution();
+        final var events = testEnv.getWorkflowClient().fetchHistory(execution.getWorkflowId(), execution.getRunId()).getEvents();
+        assertEquals(2, events.stream().filter(event -> event.hasActivityTaskScheduledEventAttributes()).count());
+    }
+
+    @Test
+    public void testFailedDepositsRetriedThenRefunded(TestWorkflowEnvironment testEnv, Worker worker, SettlementWorkflow workflow)
+    {
+        final var accountActivity = new FakeAccountActivity(false, true, false);
+        worker.registerActivitiesImplementations(accountActivity);
+        testEnv.start();
+        final var result = workflow.settle(new SettlementWorkflow.SettlementInput("batch 1", transfers, null));
+        assertEquals(ImmutableList.of(SettlementWorkflow.TransferOutcome.COMPENSATED, SettlementWorkflow.TransferOutcome.COMPENSATED),
+                result.outcomes());
+        assertEquals(ImmutableList.of(
+                new AccountActivityStep(StepType.WITHDRAW, StepStatus.SUCCESS, "123", "1", 42),
+                new AccountActivityStep(StepType.WITHDRAW, StepStatus.SUCCESS, "asd", "2", 57),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.FAILURE, "456", "1", 42),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.FAILURE, "zxc", "2", 57),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.FAILURE, "456", "1", 42),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.FAILURE, "zxc", "2", 57),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.FAILURE, "456", "1", 42),
+                new AccountActivityStep(StepType.DEPOSIT, StepStatus.FAILURE, "zxc", "2", 57),
+                new AccountActivityStep(StepType.REFUND, StepStatus.SUCCESS, "123", "1", 42),
+                new AccountActivityStep(StepType.REFUND, StepStatus.SUCCESS, "asd", "2", 57)
+        ), accountActivity.getActivitySteps());
+    }
+
+    @Test
+    public void testFailedLegsRetriedUnderConfiguredPolicy()
+    {
+        final var source = new MapConfigurationPropertySource(Map.of("account-activity.methods.deposit-batch.retry-maximum-attempts", "2"));
+        final var accountActivityOptions = new AccountActivityOptions(new Binder(source).bindOrCreate("account-activity", AccountActivityProperties.class));
+        try (var testEnv = TestWorkflowEnvironment.newInstance()) {
+            final var worker = testEnv.newWorker("settlements");
+            worker.registerWorkflowImplementationFactory(SettlementWorkflow.class, () -> new SettlementWorkflowImpl(accountActivityOptions));
+            final var accountActivity = new FakeAccountActivity(false, true, false);
+            worker.registerActivitiesImplementations(accountActivity);
+            testEnv.start();
+            final var workflow = testEnv.getWorkflowClient().newWorkflowStub(SettlementWorkflow.class,
+                    WorkflowOptions.newBuilder().setTaskQueue("settlements").build());
+            final var result = workflow.settle(new SettlementWorkflow.SettlementInput("batch 1", transfers, null));
+            assertEquals(ImmutableList.of(SettlementWorkflow.TransferOutcome.COMPENSATED, SettlementWorkflow.TransferOutcome.COMPENSATED),
+                    result.outcomes());
+            // Two attempts at each deposit, as the deposit batch is configured with, and the default three for the rest
+            assertEquals(4, accountActivity.getActivitySteps().stream().filter(step -> step.type() == StepType.DEPOSIT).count());
+        }
+    }
+
+    @Test
+    public void testJournalFailureFailsBulkCallInsteadOfLeg()
+    {
+        final var failingJournal = new AccountJournal()
+        {
+            @Override
+            public void append(AccountPosting posting)
+            {
+                throw new UncheckedIOException(new IOException("Disk full"));
+            }
+
+            @Override
+            public void replay(Consumer<AccountPosting> consumer)
+            {
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+        try (var balances = new AccountBalances(1, failingJournal)) {
+            final var legs = List.of(new AccountActivity.AccountLeg("123", "1", 42));
+            // Retried by Temporal rather than reported as a failed leg, which would be refunded
+            assertThrows(ActivityFailure.class, () -> callActivity(new AccountActivityImpl(balances, false), activity -> activity.withdrawBatch(legs)));
+        }
+        try (var balances = new AccountBalances(1, null)) {
+            final var legs = List.of(new AccountActivity.AccountLeg("456", "1", 42));
+            assertEquals(legs, callActivity(new AccountActivityImpl(balances, true), activity -> activity.depositBatch(legs)));
+        }
+    }
+
+    // Tried once, so a failure reaches the caller instead of being retried
+    private static <T> T callActivity(AccountActivity implementation, Function<AccountActivity, T> call)
+    {
+        final var testEnv = TestActivityEnvironment.newInstance();
+        try {
+            testEnv.registerActivitiesImplementations(implementation);
+            return call.apply(testEnv.newActivityStub(AccountActivity.class, ActivityOptions.newBuilder()
+                    .setStartToCloseTimeout(Duration.ofSeconds(5))
+                    .setRetryOptions(RetryOptions.newBuilder().setMaximumAttempts(1).build())
+                    .build()));
+        }
+        finally {
+            testEnv.close();
+        }
+    }
+
+    @Test
+    public void testFailedWithdrawalsNotDeposited(TestWorkflowEnvironment testEnv, Worker worker, SettlementWorkflow workflow)
+    {
+        final var accountActivity = new FakeAccountActivity(true, false, false);
+        worker.registerActivitiesImplementations(accountActivity);
+        testEnv.start();
+        final var result = workflow.settle(new SettlementWorkflow.SettlementInput("batch 1", transfers, null));
+        assertEquals(ImmutableList.of(SettlementWorkflow.TransferOutcome.WITHDRAW_FAILED, SettlementWorkflow.TransferOutcome.WITHDRAW_FAILED),
+                result.outcomes());
+        assertEquals(6, accountActivity.getActivitySteps().size());
+    }
+}
@@ -0,0 +1,79 @@
+package com.claymccoy.moneytransfer;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ThresholdRolloverPolicyTest
+{
+    private static final LedgerWorkflow.RolloverOptions LIMITS =
+            new LedgerWorkflow.RolloverOptions(1000, 1_000_000, 500, Duration.ofHours(1));
+
+    // Rolls over on every evaluation, standing in for a policy of the deployment's own
+    public static class AlwaysRollOver
+            implements RolloverPolicy
+    {
+        public AlwaysRollOver(int eventLimit, LedgerWorkflow.RolloverOptions options)
+        {
+        }
+
+        @Override
+        public Optional<LedgerWorkflow.RolloverReason> evaluate(RunState runState)
+        {
+            return Optional.of(LedgerWorkflow.RolloverReason.RUN_DURATION);
+        }
+    }
+
+    private static RolloverPolicy.RunState runState(boolean suggested, int events, long historyLength, long historyBytes,
+            int stateRecords, Duration runDuration)
+    {
+        return new RolloverPolicy.RunState(suggested, events, historyLength, historyBytes, stateRecords, runDuration);
+    }
+
+    @Test
+    public void testKeepsRunningWithinAllLimits()
+    {
+        final var policy = new ThresholdRolloverPolicy(100, LIMITS);
+        assertEquals(Optional.empty(), policy.evaluate(runState(false, 100, 1000, 1_000_000, 500, Duration.ofHours(1))));
+    }
+
+    @Test
+    public void testEachLimitReportsItsReason()
+    {
+        final var policy = new ThresholdRolloverPolicy(100, LIMITS);
+        assertEquals(Optional.of(LedgerWorkflow.RolloverReason.CONTINUE_AS_NEW_SUGGESTED),
+                policy.evaluate(runState(true, 0, 0, 0, 0, Duration.ZERO)));
+        assertEquals(Optional.of(LedgerWorkflow.RolloverReason.EVENT_LIMIT),
+                policy.evaluate(runState(false, 101, 0, 0, 0, Duration.ZERO)));
+        assertEquals(Optional.of(LedgerWorkflow.RolloverReason.HISTORY_LENGTH),
+                policy.evaluate(runState(false, 0, 1001, 0, 0, Duration.ZERO)));
+        assertEquals(Optional.of(LedgerWorkflow.RolloverReason.HISTORY_SIZE),
+                policy.evaluate(runState(false, 0, 0, 1_000_001, 0, Duration.ZERO)));
+        assertEquals(Optional.of(LedgerWorkflow.RolloverReason.STATE_SIZE),
+                policy.evaluate(runState(false, 0, 0, 0, 501, Duration.ZERO)));
+        assertEquals(Optional.of(LedgerWorkflow.RolloverReason.RUN_DURATION),
+                policy.evaluate(runState(false, 0, 0, 0, 0, Duration.ofMinutes(61))));
+    }
+
+    @Test
+    public void testUnsetLimitsAreIgnored()
+    {
+        final var policy = new ThresholdRolloverPolicy(0, null);
+        assertEquals(Optional.empty(), policy.evaluate(runState(false, 1_000_000, 1_000_000, Long.MAX_VALUE, 1_000_000, Duration.ofDays(30))));
+    }
+
+    @Test
+    public void testPolicyNamedByOptions()
+    {
+        assertInstanceOf(ThresholdRolloverPolicy.class, RolloverPolicy.create(3, LIMITS));
+        final var custom = new LedgerWorkflow.RolloverOptions(0, 0, 0, null, AlwaysRollOver.class.getName());
+        assertInstanceOf(AlwaysRollOver.class, RolloverPolicy.create(3, custom));
+        assertThrows(IllegalArgumentException.class,
+                () -> RolloverPolicy.create(3, new LedgerWorkflow.RolloverOptions(0, 0, 0, null, String.class.getName())));
+    }
+}
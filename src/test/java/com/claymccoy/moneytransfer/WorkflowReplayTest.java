@@ -0,0 +1,232 @@
+package com.claymccoy.moneytransfer;
+
+import io.temporal.client.WorkflowClient;
+import io.temporal.client.WorkflowOptions;
+import io.temporal.client.WorkflowStub;
+import io.temporal.common.WorkflowExecutionHistory;
+import io.temporal.testing.TestWorkflowEnvironment;
+import io.temporal.testing.WorkflowReplayer;
+import io.temporal.worker.Worker;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Replays workflow histories the way a worker does after a sticky cache miss, as a determinism and replay cost gate
+// for changes to the workflow implementations:
+//  - Histories recorded by earlier versions of the code, kept in src/test/resources/replay, must still replay.
+//    Record them again after an intended, versioned change with ./gradlew recordReplayHistories.
+//  - Ledger runs of growing size, recorded here from the test environment, must replay within a time and allocation
+//    budget per event, and must not cost much more per event as they grow, which catches replay that is quadratic
+//    in the size of the run, such as rebuilding the history from StartInput on every event.
+public class WorkflowReplayTest
+{
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowReplayTest.class);
+    private static final String TASK_QUEUE = "REPLAY_TEST_TASK_QUEUE";
+    // No rollover limits, so the whole run being measured stays in one execution
+    private static final LedgerWorkflow.LedgerOptions SINGLE_RUN = new LedgerWorkflow.LedgerOptions(0, 1, LedgerWorkflow.RolloverOptions.none(),
+            MoneyTransferWorkflow.TransferOptions.defaults(), null, null, 0, 0, null, null, 0);
+    // Set to a directory to write the histories recorded here into it as replay fixtures
+    private static final String RECORD_DIRECTORY_PROPERTY = "replay.recordDirectory";
+    private static final int[] LEDGER_RUN_SIZES = {10, 100, 1000};
+    private static final int MAX_FIXTURE_EVENTS = 1000;
+    private static final int WARMUP_REPLAYS = 3;
+    private static final int MEASURED_REPLAYS = 5;
+    // Generous budgets that only a change in how replay scales should break, not a slow build machine
+    private static final long MAX_NANOS_PER_EVENT = 1_000_000;
+    private static final long MAX_BYTES_PER_EVENT = 256 * 1024;
+    private static final double MAX_PER_EVENT_GROWTH = 3;
+
+    private static final Map<String, WorkflowExecutionHistory> recorded = new LinkedHashMap<>();
+
+    record ReplayCost(String name, int events, long nanosPerEvent, long bytesPerEvent) {}
+
+    @BeforeAll
+    public static void recordHistories()
+            throws IOException, InterruptedException
+    {
+        try (var testEnv = TestWorkflowEnvironment.newInstance()) {
+            final var worker = testEnv.newWorker(TASK_QUEUE);
+            registerWorkflows(worker);
+            worker.registerActivitiesImplementations(new MoneyTransferWorkflowTest.FakeAccountActivity());
+            testEnv.start();
+            final var client = testEnv.getWorkflowClient();
+            for (final var size : LEDGER_RUN_SIZES) {
+                recorded.put("ledger-" + size, recordLedgerRun(client, size));
+            }
+            recorded.put("money-transfer", recordMoneyTransfer(client));
+            recorded.put("settlement", recordSettlement(client));
+        }
+        final var recordDirectory = System.getProperty(RECORD_DIRECTORY_PROPERTY);
+        if (recordDirectory != null) {
+            Files.createDirectories(Path.of(recordDirectory));
+            for (final var history : recorded.entrySet()) {
+                // The larger ledger runs are only for measuring cost, and would bloat the fixtures
+                if (history.getValue().getEvents().size() <= MAX_FIXTURE_EVENTS) {
+                    Files.writeString(Path.of(recordDirectory, history.getKey() + ".json"), history.getValue().toJson(true),
+                            StandardCharsets.UTF_8);
+                }
+            }
+        }
+    }
+
+    @AfterAll
+    public static void clearHistories()
+    {
+        recorded.clear();
+    }
+
+    @Test
+    public void testFixturesRecordedByEarlierVersionsStillReplay()
+            throws Exception
+    {
+        final var fixtures = fixtures();
+        assertFalse(fixtures.isEmpty(), "No replay fixtures found");
+        for (final var fixture : fixtures) {
+            replay(WorkflowExecutionHistory.fromJson(Files.readString(fixture, StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test
+    public void testRecordedHistoriesReplayWithinBudget()
+            throws Exception
+    {
+        final var costs = new ArrayList<ReplayCost>();
+        for (final var history : recorded.entrySet()) {
+            costs.add(measure(history.getKey(), history.getValue()));
+        }
+        costs.forEach(cost -> LOG.info("Replayed {}: {} events, {} ns and {} bytes per event", cost.name(), cost.events(),
+                cost.nanosPerEvent(), cost.bytesPerEvent()));
+        for (final var cost : costs) {
+            assertTrue(cost.nanosPerEvent() <= MAX_NANOS_PER_EVENT, cost + " is over the replay time budget");
+            assertTrue(cost.bytesPerEvent() <= MAX_BYTES_PER_EVENT, cost + " is over the replay allocation budget");
+        }
+        // Allocation rather than time, as it does not depend on what else the machine is doing
+        final var smallest = costs.get(0);
+        final var largest = costs.get(LEDGER_RUN_SIZES.length - 1);
+        assertTrue(largest.bytesPerEvent() <= smallest.bytesPerEvent() * MAX_PER_EVENT_GROWTH,
+                "Replay allocation per event grew from " + smallest + " to " + largest);
+    }
+
+    private static void registerWorkflows(Worker worker)
+    {
+        worker.registerWorkflowImplementationTypes(LedgerWorkflowImpl.class, MoneyTransferWorkflowImpl.class, SettlementWorkflowImpl.class);
+    }
+
+    // A run of a ledger continued from one that recorded size transfers, which then records size transfers of its own
+    private static WorkflowExecutionHistory recordLedgerRun(WorkflowClient client, int size)
+            throws InterruptedException
+    {
+        final var workflowId = "replay-ledger-" + size;
+        final var ledger = client.newWorkflowStub(LedgerWorkflow.class, WorkflowOptions.newBuilder()
+                .setTaskQueue(TASK_QUEUE)
+                .setWorkflowId(workflowId)
+                .build());
+        final var carried = new ArrayList<>(IntStream.rangeClosed(1, size)
+                .mapToObj(id -> new LedgerWorkflow.LedgerRecord(String.valueOf(id), transaction(id)))
+                .toList());
+        WorkflowClient.start(ledger::start, new LedgerWorkflow.StartInput(carried, size + 1, new ArrayDeque<>(), 0, null, SINGLE_RUN, null, null));
+        for (int id = size + 1; id <= size * 2; id++) {
+            ledger.transferMoney(new LedgerWorkflow.TransferMoneyInput(transaction(id)));
+        }
+        // Children are started after the updates return, so the run is complete once the queue has drained
+        while (ledger.getQueueDepth() > 0) {
+            Thread.sleep(10);
+        }
+        return client.fetchHistory(workflowId);
+    }
+
+    private static WorkflowExecutionHistory recordMoneyTransfer(WorkflowClient client)
+    {
+        final var workflow = client.newWorkflowStub(MoneyTransferWorkflow.class, WorkflowOptions.newBuilder()
+                .setTaskQueue(TASK_QUEUE)
+                .setWorkflowId("replay-money-transfer")
+                .build());
+        workflow.transfer(new MoneyTransferWorkflow.TransferInput("1", transaction(1)));
+        return client.fetchHistory(WorkflowStub.fromTyped(workflow).getExecution().getWorkflowId());
+    }
+
+    private static WorkflowExecutionHistory recordSettlement(WorkflowClient client)
+    {
+        final var workflow = client.newWorkflowStub(SettlementWorkflow.class, WorkflowOptions.newBuilder()
+                .setTaskQueue(TASK_QUEUE)
+                .setWorkflowId("replay-settlement")
+                .build());
+        workflow.settle(new SettlementWorkflow.SettlementInput("batch 1", IntStream.rangeClosed(1, 10)
+                .mapToObj(id -> new LedgerWorkflow.LedgerRecord(String.valueOf(id), transaction(id)))
+                .toList(), null));
+        return client.fetchHistory(WorkflowStub.fromTyped(workflow).getExecution().getWorkflowId());
+    }
+
+    private static LedgerWorkflow.TransactionDetails transaction(int id)
+    {
+        return new LedgerWorkflow.TransactionDetails("source-" + id % 50, "destination-" + id % 70, id % 100 + 1);
+    }
+
+    private static List<Path> fixtures()
+            throws IOException, URISyntaxException
+    {
+        final var directory = WorkflowReplayTest.class.getResource("/replay");
+        if (directory == null) {
+            return List.of();
+        }
+        try (var files = Files.list(Path.of(directory.toURI()))) {
+            return files.filter(file -> file.toString().endsWith(".json")).sorted().toList();
+        }
+    }
+
+    // Replays on a worker of a test environment that is never started, so no pollers run beside the replay.
+    // Throws when the workflow code no longer makes the decisions recorded in the history.
+    private static void replay(WorkflowExecutionHistory history)
+            throws Exception
+    {
+        try (var testEnv = TestWorkflowEnvironment.newInstance()) {
+            final var worker = testEnv.newWorker(TASK_QUEUE);
+            registerWorkflows(worker);
+            WorkflowReplayer.replayWorkflowExecution(history, worker);
+        }
+    }
+
+    // The best of several replays after warming up. Replay runs on workflow threads, so allocation is counted across
+    // every thread in the JVM; nothing else should be running while the tests in this class do.
+    private static ReplayCost measure(String name, WorkflowExecutionHistory history)
+            throws Exception
+    {
+        final var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        try (var testEnv = TestWorkflowEnvironment.newInstance()) {
+            final var worker = testEnv.newWorker(TASK_QUEUE);
+            registerWorkflows(worker);
+            for (int replay = 0; replay < WARMUP_REPLAYS; replay++) {
+                WorkflowReplayer.replayWorkflowExecution(history, worker);
+            }
+            var nanos = Long.MAX_VALUE;
+            var bytes = Long.MAX_VALUE;
+            for (int replay = 0; replay < MEASURED_REPLAYS; replay++) {
+                final var allocatedBefore = threads.getTotalThreadAllocatedBytes();
+                final var startedAt = System.nanoTime();
+                WorkflowReplayer.replayWorkflowExecution(history, worker);
+                nanos = Math.min(nanos, System.nanoTime() - startedAt);
+                bytes = Math.min(bytes, threads.getTotalThreadAllocatedBytes() - allocatedBefore);
+            }
+            final var events = history.getEvents().size();
+            return new ReplayCost(name, events, nanos / events, bytes / events);
+        }
+    }
+}